@@ -7,38 +7,42 @@
 
 import java.io.*;
 import java.util.*;
-import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 public class Account {
 
+    // Handle for atomic updates of the balance field
+    private static final VarHandle BALANCE;
+    static {
+        try {
+            BALANCE = MethodHandles.lookup().findVarHandle(Account.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     //------------------------------------------------------------------------------------------------------------------
     // Properties
     //------------------------------------------------------------------------------------------------------------------
 
-    private String id;
-    private Cipher ciph;
-    private byte[] encryptedPw;
-    private SecretKey key;
-    private double balance;
+    private final String id;
+    private volatile Credential credential;
+    private volatile long balance; // In cents
 
     //------------------------------------------------------------------------------------------------------------------
     // Constructors
     //------------------------------------------------------------------------------------------------------------------
     
-    public Account(String id, String pw, double balance) throws Exception {
+    public Account(String id, String pw, long balance) throws Exception {
         this.id = id;
-        this.ciph = Cipher.getInstance("AES");
-        this.encryptPw(pw);
+        this.credential = Credential.create(pw);
         this.balance = balance;
     }
 
-    public Account (String id, byte[] encryptedPw, SecretKey key, double balance) throws Exception {
+    public Account(String id, Credential credential, long balance) {
         this.id = id;
-        this.ciph = Cipher.getInstance("AES");
-        this.encryptedPw = encryptedPw;
-        this.key = key;
+        this.credential = credential;
         this.balance = balance;
     }
 
@@ -55,30 +59,19 @@ public class Account {
     }
 
     /**
-     * Gets this account's encrypted password.
-     * @return A byte array representing this account's encrypted
-     *         password.
+     * Gets the credential verifying this account's password.
+     * @return A Credential verifying this account's password.
      */
-    public byte[] getEncryptedPw() {
-        return this.encryptedPw;
+    public Credential getCredential() {
+        return this.credential;
     }
 
     /**
-     * Gets this account's secret key used for encryption
-     * and decryption.
-     * @return A SecretKey representing this account's secret key.
+     * Sets the credential verifying this account's password.
+     * @param credential A Credential verifying this account's password.
      */
-    public SecretKey getKey() {
-        return this.key;
-    }
-
-    /**
-     * Gets this account's decrypted password.
-     * @return A String representing this account's decrypted
-     *         password.
-     */
-    public String getDecryptedPw() throws Exception {
-        return this.decryptPw();
+    public void setCredential(Credential credential) {
+        this.credential = credential;
     }
 
     /**
@@ -86,68 +79,75 @@ public class Account {
      * @param pw A String containing this account's password.
      */
     public void setPw(String pw) throws Exception {
-        this.encryptPw(pw);
+        this.setCredential(Credential.create(pw));
     }
 
     /**
-     * Gets this account's current balance.
+     * Gets this account's current balance in cents.
+     * @return A long representing this account's balance in cents.
      */
-    public double getBalance() {
+    public long getBalanceCents() {
         return this.balance;
     }
 
     /**
-     * Sets this account's balance.
-     * @param amount A double containing this account's balance.
+     * Sets this account's balance in cents.
+     * @param cents A long containing this account's balance in cents.
+     */
+    public void setBalanceCents(long cents) {
+        this.balance = cents;
+    }
+
+    /**
+     * Returns whether this account's balance is split across cells that are updated atomically
+     * and safely without locking the account.
+     * @return A boolean based on whether this account's balance is sharded.
      */
-    public void setBalance(double amount) {
-        this.balance = amount;
+    public boolean isSharded() {
+        return false;
     }
 
     //------------------------------------------------------------------------------------------------------------------
-    // Encryption and Decryption Functions
+    // Atomic Balance Functions
     //------------------------------------------------------------------------------------------------------------------
 
     /**
-     * Encrypts the given password.
-     * @param pw The password to encrypt.
+     * Atomically adds the given amount to this account's balance without locking.
+     * @param cents A long containing the amount in cents to add.
+     * @return A long representing the balance in cents after the credit.
      */
-    public void encryptPw(String pw) throws Exception {
-        try {
-            // Generating objects of KeyGenerator and SecretKey
-            KeyGenerator keygen = KeyGenerator.getInstance("AES");
-            SecretKey key = keygen.generateKey();
-
-            // Creating byte array to store password
-            byte[] pwToEncrypt = pw.getBytes("UTF8");
-
-            // Encrypting password
-            this.ciph.init(Cipher.ENCRYPT_MODE, key);
-            byte[] encryptedPw = this.ciph.doFinal(pwToEncrypt);
-
-            // Store encrypted password and secret key
-            this.encryptedPw = encryptedPw;
-            this.key = key;
-        } catch (Exception e) {
-            System.out.println("Encryption failed. Ending banking process");
-            System.exit(0);
-        }
+    public long credit(long cents) {
+        return (long) BALANCE.getAndAdd(this, cents) + cents;
     }
 
     /**
-     * Decrypts this account's encrypted password.
-     * @return A String representing the decrypted password.
+     * Atomically subtracts the given amount from this account's balance without locking,
+     * unless it would overdraw the account.
+     * @param cents A long containing the amount in cents to subtract.
+     * @return A boolean based on whether the balance covered the debit.
      */
-    public String decryptPw() throws Exception {
-        try {
-            // Decrypting password
-            this.ciph.init(Cipher.DECRYPT_MODE, this.key);
-            byte[] decryptedPw = this.ciph.doFinal(this.encryptedPw);
-            return new String(decryptedPw);
-        } catch (Exception e) {
-            System.out.println("Decryption failed. Ending banking process");
-            System.exit(0);
+    public boolean tryDebit(long cents) {
+        long current = this.balance;
+        while (current >= cents) {
+            long witness = (long) BALANCE.compareAndExchange(this, current, current - cents);
+            if (witness == current) {
+                return true;
+            }
+            current = witness;
         }
-        return null;
+        return false;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Password Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Checks the given password against this account's credential.
+     * @param pw A String containing the password to check.
+     * @return A boolean based on whether the password matches.
+     */
+    public boolean checkPw(String pw) throws Exception {
+        return this.getCredential().verify(pw);
     }
 }
\ No newline at end of file
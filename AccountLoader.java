@@ -0,0 +1,682 @@
+/**
+ * Loads account data files by memory-mapping them and parsing line-aligned chunks in parallel.
+ * Binary files written by SnapshotWriter are recognised by their header and split on block
+ * boundaries instead.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+public class AccountLoader {
+
+    public static final int MIN_CHUNK_BYTES = 1 << 20;
+    public static final int MAX_CHUNK_BYTES = 1 << 28;
+
+    private static final int MAX_LINE_BYTES = 1 << 16;
+    private static final byte[] HASH_PREFIX = (Credential.HASH_SCHEME + "$").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LEGACY_PREFIX = (Credential.LEGACY_SCHEME + "$").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private AccountStore store;
+    private List<String> errors;
+    private long loaded;
+    private long lsn;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public AccountLoader(AccountStore store) {
+        this.store = store;
+        this.errors = new ArrayList<String>();
+        this.loaded = 0;
+        this.lsn = 0;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets descriptions of the malformed rows skipped by the last load, in line order.
+     * @return A List of Strings describing each malformed row.
+     */
+    public List<String> getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * Gets the number of accounts added by the last load.
+     * @return A long representing the number of accounts loaded.
+     */
+    public long getLoaded() {
+        return this.loaded;
+    }
+
+    /**
+     * Gets the log sequence number of the last transaction included in the last file loaded.
+     * @return A long representing the log sequence number, or 0 if the file did not record one.
+     */
+    public long getLsn() {
+        return this.lsn;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Loads every well formed row of the account file at the given pathname into the store,
+     * skipping and recording malformed rows.
+     * @param pathname The file path of the file containing account data.
+     */
+    public void load(String pathname) throws IOException {
+        this.errors = new ArrayList<String>();
+        this.loaded = 0;
+        this.lsn = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(pathname), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (isBinary(channel, size)) {
+                this.loadBinary(channel, size);
+                return;
+            }
+
+            // Read the log sequence number the file was saved at, if any
+            long headerStart = 0;
+            long headerEnd = nextLineStart(channel, 0, size);
+            String headings = readLine(channel, headerStart, headerEnd);
+            long firstLine = 2;
+            if (headings.startsWith(Bank.LSN_PREFIX)) {
+                try {
+                    this.lsn = Long.parseLong(headings.substring(Bank.LSN_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    this.errors.add("Line 1: Invalid log sequence number.");
+                }
+                headerStart = headerEnd;
+                headerEnd = nextLineStart(channel, headerStart, size);
+                headings = readLine(channel, headerStart, headerEnd);
+                firstLine++;
+            }
+
+            // Read column headings, which tell legacy files apart
+            boolean legacy = headings.equals(Bank.LEGACY_HEADINGS);
+
+            // Split the rest of the file into chunks that start and end on line boundaries
+            int parallelism = ForkJoinPool.commonPool().getParallelism();
+            long target = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, size / (parallelism * 4L)));
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            for (long start = headerEnd; start < size; ) {
+                long end = start + target >= size ? size : nextLineStart(channel, start + target, size);
+                chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), legacy));
+                start = end;
+            }
+
+            ForkJoinPool.commonPool().invoke(new ParseTask(chunks, 0, chunks.size(), this.store));
+
+            // Collect results, numbering lines across chunks
+            for (Chunk chunk : chunks) {
+                this.loaded += chunk.loaded;
+                for (int i = 0; i < chunk.errorLines.size(); i++) {
+                    this.errors.add(String.format("Line %d: %s", firstLine + chunk.errorLines.get(i),
+                        chunk.errorMessages.get(i)));
+                }
+                firstLine += chunk.lines;
+            }
+        }
+    }
+
+    /**
+     * Loads every well formed record of a binary account file, skipping blocks that fail their
+     * checksum and recording malformed records.
+     * @param channel A FileChannel reading the file.
+     * @param size The size of the file in bytes.
+     */
+    private void loadBinary(FileChannel channel, long size) throws IOException {
+        // Read the header, which records the format version and log sequence number
+        ByteBuffer header = ByteBuffer.allocate(SnapshotWriter.BINARY_HEADER_BYTES);
+        channel.read(header, 0);
+        header.flip();
+        header.position(SnapshotWriter.BINARY_MAGIC.length);
+        int version = header.getShort();
+        if (version != SnapshotWriter.BINARY_VERSION) {
+            throw new IOException("Unsupported account file version " + version + ".");
+        }
+        header.getShort();
+        this.lsn = header.getLong();
+
+        // Group whole blocks into chunks, reading only the length in front of each block
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        long target = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, size / (parallelism * 4L)));
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        long start = SnapshotWriter.BINARY_HEADER_BYTES;
+        long position = start;
+        long blocks = 0;
+        String truncated = null;
+        while (position < size) {
+            length.clear();
+            long end = channel.read(length, position) < 4 ? size + 1 : position + 8 + (length.getInt(0) & 0xFFFFFFFFL);
+            if (end > size) {
+                truncated = String.format("Block %d: Truncated block.", blocks + 1);
+                break;
+            }
+            position = end;
+            blocks++;
+            if (position - start >= target) {
+                chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, position - start), false));
+                start = position;
+            }
+        }
+        if (position > start) {
+            chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, position - start), false));
+        }
+        for (Chunk chunk : chunks) {
+            chunk.binary = true;
+        }
+
+        ForkJoinPool.commonPool().invoke(new ParseTask(chunks, 0, chunks.size(), this.store));
+
+        // Collect results, numbering blocks across chunks
+        long firstBlock = 1;
+        for (Chunk chunk : chunks) {
+            this.loaded += chunk.loaded;
+            for (int i = 0; i < chunk.errorLines.size(); i++) {
+                this.errors.add(String.format("Block %d: %s", firstBlock + chunk.errorLines.get(i),
+                    chunk.errorMessages.get(i)));
+            }
+            firstBlock += chunk.lines;
+        }
+        if (truncated != null) {
+            this.errors.add(truncated);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Parsing Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents a line-aligned region of the file and the results of parsing it.
+     */
+    private static class Chunk {
+        private MappedByteBuffer buffer;
+        private boolean legacy;
+        private boolean binary;
+        private long lines;     // Or blocks, in a binary file
+        private long loaded;
+        private List<Long> errorLines = new ArrayList<Long>();
+        private List<String> errorMessages = new ArrayList<String>();
+
+        private Chunk(MappedByteBuffer buffer, boolean legacy) {
+            this.buffer = buffer;
+            this.legacy = legacy;
+        }
+    }
+
+    /**
+     * Parses a range of chunks, splitting it in half until one chunk remains.
+     */
+    private static class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private List<Chunk> chunks;
+        private int from;
+        private int to;
+        private AccountStore store;
+
+        private ParseTask(List<Chunk> chunks, int from, int to, AccountStore store) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.store = store;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(new ParseTask(this.chunks, this.from, mid, this.store),
+                    new ParseTask(this.chunks, mid, this.to, this.store));
+            } else if (this.to > this.from) {
+                Chunk chunk = this.chunks.get(this.from);
+                if (chunk.binary) {
+                    parseBlocks(chunk, this.store);
+                } else {
+                    parseChunk(chunk, this.store);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses every line of a chunk into the store.
+     * @param chunk A Chunk to parse.
+     * @param store An AccountStore to add accounts to.
+     */
+    private static void parseChunk(Chunk chunk, AccountStore store) {
+        MappedByteBuffer buffer = chunk.buffer;
+        byte[] line = new byte[256];
+        int limit = buffer.limit();
+        int position = 0;
+
+        while (position < limit) {
+            // Copy the line out of the mapping, without its line ending
+            int end = position;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            int length = end - position;
+            if (length > 0 && buffer.get(end - 1) == '\r') {
+                length--;
+            }
+            long lineIndex = chunk.lines++;
+            if (length > MAX_LINE_BYTES) {
+                chunk.errorLines.add(lineIndex);
+                chunk.errorMessages.add("Row too long.");
+            } else if (length > 0) {
+                if (length > line.length) {
+                    line = new byte[Integer.highestOneBit(length) << 1];
+                }
+                buffer.get(position, line, 0, length);
+                String error = parseLine(line, length, chunk.legacy, store);
+                if (error == null) {
+                    chunk.loaded++;
+                } else {
+                    chunk.errorLines.add(lineIndex);
+                    chunk.errorMessages.add(error);
+                }
+            }
+            position = end + 1;
+        }
+        chunk.buffer = null; // Let the mapping be released
+    }
+
+    /**
+     * Parses every block of a binary chunk into the store, checking each block's checksum first.
+     * @param chunk A Chunk of whole blocks to parse.
+     * @param store An AccountStore to add accounts to.
+     */
+    private static void parseBlocks(Chunk chunk, AccountStore store) {
+        MappedByteBuffer buffer = chunk.buffer;
+        CRC32 crc = new CRC32();
+        int position = 0;
+
+        while (position < buffer.limit()) {
+            long blockIndex = chunk.lines++;
+            int payloadBytes = buffer.getInt(position);
+            int payload = position + 4;
+            position = payload + payloadBytes + 4;
+
+            crc.reset();
+            crc.update(buffer.slice(payload, payloadBytes));
+            if ((int) crc.getValue() != buffer.getInt(payload + payloadBytes)) {
+                chunk.errorLines.add(blockIndex);
+                chunk.errorMessages.add("Checksum mismatch.");
+                continue;
+            }
+
+            int count = payloadBytes >= 4 ? buffer.getInt(payload) : -1;
+            if (count < 0 || 4 + (long) count * SnapshotWriter.BINARY_RECORD_BYTES > payloadBytes) {
+                chunk.errorLines.add(blockIndex);
+                chunk.errorMessages.add("Invalid record count.");
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                int record = payload + 4 + i * SnapshotWriter.BINARY_RECORD_BYTES;
+                String error = parseRecord(buffer, payload, payloadBytes, record, store);
+                if (error == null) {
+                    chunk.loaded++;
+                } else {
+                    chunk.errorLines.add(blockIndex);
+                    chunk.errorMessages.add(String.format("Record %d: %s", i + 1, error));
+                }
+            }
+        }
+        chunk.buffer = null; // Let the mapping be released
+    }
+
+    /**
+     * Parses one fixed-width record of a binary block and adds its account to the store.
+     * @param buffer A ByteBuffer containing the block.
+     * @param payload The index of the block's payload, which offsets in the record are relative to.
+     * @param payloadBytes The size of the block's payload.
+     * @param record The index of the record.
+     * @param store An AccountStore to add the account to.
+     * @return A String describing why the record is malformed, or null if it was loaded.
+     */
+    private static String parseRecord(ByteBuffer buffer, int payload, int payloadBytes, int record,
+            AccountStore store) {
+        long cents = buffer.getLong(record);
+        int idOffset = buffer.getInt(record + 8);
+        int credentialOffset = buffer.getInt(record + 12);
+
+        // ID
+        byte[] id = readBlob(buffer, payload, payloadBytes, idOffset);
+        if (id == null || !isValidID(id, id.length)) {
+            return "Invalid ID.";
+        }
+
+        // Credential
+        byte[] blob = readBlob(buffer, payload, payloadBytes, credentialOffset);
+        if (blob == null) {
+            return "Invalid credential.";
+        }
+        Credential credential;
+        try {
+            credential = Credential.fromBytes(blob);
+        } catch (IllegalArgumentException e) {
+            return "Invalid credential.";
+        }
+
+        // Balance
+        if (cents < 0) {
+            return "Invalid balance.";
+        }
+
+        Account account = new Account(new String(id, StandardCharsets.US_ASCII), credential, 0);
+        account.setBalanceCents(cents);
+        return store.add(account) ? null : "Duplicate ID.";
+    }
+
+    /**
+     * Parses one row and adds its account to the store.
+     * @param line A byte array containing the row.
+     * @param length The number of bytes in the row.
+     * @param legacy A boolean based on whether the row has separate encrypted password and key columns.
+     * @param store An AccountStore to add the account to.
+     * @return A String describing why the row is malformed, or null if it was loaded.
+     */
+    private static String parseLine(byte[] line, int length, boolean legacy, AccountStore store) {
+        // Locate the column separators
+        int columns = legacy ? 4 : 3;
+        int[] commas = new int[columns - 1];
+        int found = 0;
+        for (int i = 0; i < length; i++) {
+            if (line[i] == ',') {
+                if (found == commas.length) {
+                    return "Too many columns.";
+                }
+                commas[found++] = i;
+            }
+        }
+        if (found != commas.length) {
+            return "Too few columns.";
+        }
+
+        // ID
+        int idLength = commas[0];
+        if (!isValidID(line, idLength)) {
+            return "Invalid ID.";
+        }
+
+        // Credential
+        Credential credential;
+        if (legacy) {
+            byte[] encryptedPw = decodeBase64(line, commas[0] + 1, commas[1]);
+            byte[] key = decodeBase64(line, commas[1] + 1, commas[2]);
+            credential = encryptedPw == null || key == null ? null : Credential.legacy(encryptedPw, key);
+        } else {
+            credential = parseCredential(line, commas[0] + 1, commas[1]);
+        }
+        if (credential == null) {
+            return "Invalid credential.";
+        }
+
+        // Balance
+        long cents = parseCents(line, commas[columns - 2] + 1, length);
+        if (cents < 0) {
+            return "Invalid balance.";
+        }
+
+        String id = new String(line, 0, idLength, StandardCharsets.US_ASCII);
+        Account account = new Account(id, credential, 0);
+        account.setBalanceCents(cents);
+        return store.add(account) ? null : "Duplicate ID.";
+    }
+
+    /**
+     * Parses an encoded credential of the form pbkdf2$iterations$salt$hash or aes$key$encrypted.
+     * @param line A byte array containing the credential.
+     * @param from The index of the credential's first byte.
+     * @param to The index after the credential's last byte.
+     * @return A Credential parsed from the bytes, or null if they are malformed.
+     */
+    private static Credential parseCredential(byte[] line, int from, int to) {
+        if (startsWith(line, from, to, HASH_PREFIX)) {
+            int position = from + HASH_PREFIX.length;
+            int iterations = 0;
+            while (position < to && line[position] >= '0' && line[position] <= '9' && iterations < 100_000_000) {
+                iterations = iterations * 10 + (line[position++] - '0');
+            }
+            if (position >= to || line[position] != '$' || iterations == 0) {
+                return null;
+            }
+            int separator = indexOf(line, position + 1, to, (byte) '$');
+            if (separator < 0) {
+                return null;
+            }
+            byte[] salt = decodeBase64(line, position + 1, separator);
+            byte[] hash = decodeBase64(line, separator + 1, to);
+            return salt == null || hash == null
+                ? null : new Credential(Credential.HASH_SCHEME, iterations, salt, hash);
+        } else if (startsWith(line, from, to, LEGACY_PREFIX)) {
+            int position = from + LEGACY_PREFIX.length;
+            int separator = indexOf(line, position, to, (byte) '$');
+            if (separator < 0) {
+                return null;
+            }
+            byte[] key = decodeBase64(line, position, separator);
+            byte[] encryptedPw = decodeBase64(line, separator + 1, to);
+            return key == null || encryptedPw == null ? null : Credential.legacy(encryptedPw, key);
+        }
+        return null;
+    }
+
+    /**
+     * Parses a non-negative decimal amount into cents, rounding half up beyond the currency's
+     * decimal places. Amounts in other notations, such as the exponents older versions wrote for
+     * large balances, are parsed exactly as a BigDecimal instead.
+     * @param line A byte array containing the amount.
+     * @param from The index of the amount's first byte.
+     * @param to The index after the amount's last byte.
+     * @return A long representing the amount in cents, or -1 if it is malformed.
+     */
+    private static long parseCents(byte[] line, int from, int to) {
+        long cents = Money.parse(line, from, to);
+        if (cents >= 0 || from == to) {
+            return cents;
+        }
+
+        // Fall back for uncommon notations
+        try {
+            BigDecimal amount = new BigDecimal(new String(line, from, to - from, StandardCharsets.US_ASCII));
+            long parsed = amount.setScale(Money.SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            return parsed >= 0 && parsed <= Long.MAX_VALUE / 1000 ? parsed : -1;
+        } catch (NumberFormatException | ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes standard padded Base64 directly from a byte range.
+     * @param src A byte array containing the Base64 text.
+     * @param from The index of the first Base64 character.
+     * @param to The index after the last Base64 character.
+     * @return A byte array of the decoded bytes, or null if the text is not valid Base64.
+     */
+    private static byte[] decodeBase64(byte[] src, int from, int to) {
+        int length = to - from;
+        if (length == 0 || length % 4 != 0) {
+            return null;
+        }
+        int padding = src[to - 1] == '=' ? (src[to - 2] == '=' ? 2 : 1) : 0;
+        byte[] out = new byte[length / 4 * 3 - padding];
+        int o = 0;
+        for (int i = from; i < to; i += 4) {
+            int bits = 0;
+            for (int j = 0; j < 4; j++) {
+                byte b = src[i + j];
+                int value;
+                if (b == '=' && i + 4 == to && j >= 4 - padding) {
+                    value = 0;
+                } else if (b < 0 || (value = BASE64_VALUES[b]) < 0) {
+                    return null;
+                }
+                bits = (bits << 6) | value;
+            }
+            out[o++] = (byte) (bits >> 16);
+            if (o < out.length) {
+                out[o++] = (byte) (bits >> 8);
+            }
+            if (o < out.length) {
+                out[o++] = (byte) bits;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns whether the given bytes form a valid ID, which is a non-empty run of letters and digits.
+     * @param id A byte array containing the ID.
+     * @param length The number of bytes in the ID.
+     * @return A boolean based on whether the ID is valid.
+     */
+    private static boolean isValidID(byte[] id, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = id[i];
+            if (!((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9'))) {
+                return false;
+            }
+        }
+        return length > 0;
+    }
+
+    /**
+     * Reads a length-prefixed blob from a binary block.
+     * @param buffer A ByteBuffer containing the block.
+     * @param payload The index of the block's payload.
+     * @param payloadBytes The size of the block's payload.
+     * @param offset The offset of the blob's length within the payload.
+     * @return A byte array of the blob, or null if it lies outside the payload.
+     */
+    private static byte[] readBlob(ByteBuffer buffer, int payload, int payloadBytes, int offset) {
+        if (offset < 0 || offset > payloadBytes - 2) {
+            return null;
+        }
+        int length = buffer.getShort(payload + offset) & 0xFFFF;
+        if (offset + 2 + length > payloadBytes) {
+            return null;
+        }
+        byte[] blob = new byte[length];
+        buffer.get(payload + offset + 2, blob);
+        return blob;
+    }
+
+    /**
+     * Returns whether a file starts with the header of the binary format.
+     * @param channel A FileChannel reading the file.
+     * @param size The size of the file in bytes.
+     * @return A boolean based on whether the file is binary.
+     */
+    private static boolean isBinary(FileChannel channel, long size) throws IOException {
+        if (size < SnapshotWriter.BINARY_HEADER_BYTES) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(SnapshotWriter.BINARY_MAGIC.length);
+        channel.read(magic, 0);
+        return Arrays.equals(magic.array(), SnapshotWriter.BINARY_MAGIC);
+    }
+
+    /**
+     * Returns whether the given byte range starts with the given prefix.
+     */
+    private static boolean startsWith(byte[] line, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first occurrence of the given byte in the given range.
+     * @return An int representing the index of the byte, or -1 if it does not occur.
+     */
+    private static int indexOf(byte[] line, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the line between the given positions without its line ending.
+     * @param channel A FileChannel to read from.
+     * @param start The position of the line's first byte.
+     * @param end The position after the line's line feed.
+     * @return A String representing the line.
+     */
+    private static String readLine(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(end - start, MAX_LINE_BYTES));
+        channel.read(buffer, start);
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Finds the start of the line following the given position.
+     * @param channel A FileChannel to read from.
+     * @param position The position to search from.
+     * @param size The size of the file.
+     * @return A long representing the position after the next line feed, or the size of the file.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Represents the storage of accounts registered with the bank.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public interface AccountStore extends Iterable<Account> {
+
+    /**
+     * Gets the account with the given ID.
+     * @param id A String containing the ID of an account.
+     * @return An Account with the given ID, or null if no such account exists.
+     */
+    public Account get(String id);
+
+    /**
+     * Returns whether an account with the given ID is stored.
+     * @param id A String containing the ID of an account.
+     * @return A boolean based on whether an account with the given ID is stored.
+     */
+    public boolean contains(String id);
+
+    /**
+     * Adds the given account unless its ID is already taken.
+     * @param account An Account to be stored.
+     * @return A boolean based on whether the account was added.
+     */
+    public boolean add(Account account);
+
+    /**
+     * Gets the number of accounts stored.
+     * @return An int representing the number of accounts stored.
+     */
+    public int size();
+
+    /**
+     * Removes all stored accounts.
+     */
+    public void clear();
+}
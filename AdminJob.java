@@ -0,0 +1,214 @@
+/**
+ * Represents one run of an admin job over every account, such as accruing interest. The accounts
+ * are processed in chunks, possibly in parallel, and each chunk adds to the job's progress as it
+ * finishes, so the job can be reported on from another thread while it runs.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdminJob {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private String name;
+    private String changes;
+    private int parallelism;
+    private volatile long accounts;
+    private AtomicLong processed;
+    private AtomicLong changed;
+    private long startNanos;
+    private volatile long endNanos;
+    private volatile long cents;
+    private volatile String outcome;
+    private CountDownLatch done;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a job that has just started.
+     * @param name A String containing the name of the job, such as INTEREST.
+     * @param changes A String describing the accounts the job changes, such as "paid interest".
+     * @param parallelism The number of threads the job runs on.
+     */
+    public AdminJob(String name, String changes, int parallelism) {
+        this.name = name;
+        this.changes = changes;
+        this.parallelism = parallelism;
+        this.accounts = -1;
+        this.processed = new AtomicLong();
+        this.changed = new AtomicLong();
+        this.startNanos = System.nanoTime();
+        this.endNanos = 0;
+        this.cents = 0;
+        this.outcome = null;
+        this.done = new CountDownLatch(1);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the name of this job.
+     * @return A String containing the name of this job.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the number of threads this job runs on.
+     * @return An int representing the number of threads.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Gets the number of accounts this job processes.
+     * @return A long representing the number of accounts, or -1 if they have not been counted yet.
+     */
+    public long getAccounts() {
+        return this.accounts;
+    }
+
+    /**
+     * Gets the number of accounts this job has processed so far.
+     * @return A long representing the number of accounts processed.
+     */
+    public long getProcessed() {
+        return this.processed.get();
+    }
+
+    /**
+     * Gets the number of accounts this job has changed so far.
+     * @return A long representing the number of accounts changed.
+     */
+    public long getChanged() {
+        return this.changed.get();
+    }
+
+    /**
+     * Gets the amount this job moved, or for a reconciliation the total balance it found.
+     * @return A long representing the amount in cents, which is 0 until the job is done.
+     */
+    public long getCents() {
+        return this.cents;
+    }
+
+    /**
+     * Gets what this job found, such as whether the accounts reconciled with the ledger.
+     * @return A String describing the outcome, or null if the job is not done or has nothing to add.
+     */
+    public String getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * Returns whether this job has finished.
+     * @return A boolean based on whether this job is done.
+     */
+    public boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+
+    /**
+     * Gets the time this job has taken so far, or took if it is done.
+     * @return A long representing the time in nanoseconds.
+     */
+    public long getNanos() {
+        long end = this.endNanos;
+        return (end != 0 ? end : System.nanoTime()) - this.startNanos;
+    }
+
+    /**
+     * Gets the rate this job has processed accounts at so far.
+     * @return A double representing the number of accounts processed per second.
+     */
+    public double getAccountsPerSecond() {
+        long nanos = this.getNanos();
+        return nanos > 0 ? this.getProcessed() * 1e9 / nanos : 0;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Progress Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Records the number of accounts this job is about to process.
+     * @param accounts The number of accounts.
+     */
+    public void begin(long accounts) {
+        this.accounts = accounts;
+    }
+
+    /**
+     * Records that a chunk of accounts has been processed.
+     * @param processed The number of accounts in the chunk.
+     * @param changed The number of accounts in the chunk that were changed.
+     */
+    public void advance(long processed, long changed) {
+        this.processed.addAndGet(processed);
+        if (changed > 0) {
+            this.changed.addAndGet(changed);
+        }
+    }
+
+    /**
+     * Records that this job has finished, waking any threads waiting for it.
+     * @param cents A long containing the amount moved, or the total balance found.
+     * @param outcome A String describing what the job found, or null.
+     */
+    public void finish(long cents, String outcome) {
+        this.cents = cents;
+        this.outcome = outcome;
+        this.endNanos = System.nanoTime();
+        this.done.countDown();
+    }
+
+    /**
+     * Waits until this job has finished.
+     */
+    public void await() throws InterruptedException {
+        this.done.await();
+    }
+
+    /**
+     * Waits until this job has finished or the given time has passed.
+     * @param millis The longest time to wait in milliseconds.
+     * @return A boolean based on whether this job is done.
+     */
+    public boolean await(long millis) throws InterruptedException {
+        return this.done.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Describes this job's progress, or its result once it is done.
+     * @return A String describing this job.
+     */
+    public String report() {
+        long accounts = this.accounts;
+        long processed = this.getProcessed();
+        StringBuilder report = new StringBuilder(this.name).append(this.isDone() ? " done: " : " running: ");
+        if (accounts < 0) {
+            report.append("counting accounts");
+        } else {
+            report.append(String.format("%,d of %,d accounts (%.0f%%), %,d %s, %.1fs at %,.0f accounts/s",
+                processed, accounts, accounts > 0 ? 100.0 * processed / accounts : 100.0, this.getChanged(),
+                this.changes, this.getNanos() / 1e9, this.getAccountsPerSecond()));
+        }
+        String outcome = this.outcome;
+        if (outcome != null) {
+            report.append(". ").append(outcome);
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Runs end-of-day jobs over every account: accruing a day's interest, sweeping a fee from each
+ * account into a collecting account, and reconciling the total balance against the ledger. Each
+ * job copies references to the accounts into an array and processes it in chunks on a fork-join
+ * pool, so the work is spread over every core while deposits, withdrawals and transfers carry on.
+ * One job runs at a time, and its progress can be reported while it runs.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class AdminJobs {
+
+    // Threads jobs run on and accounts per chunk, tunable with -Dbank.jobs.parallelism and -Dbank.jobs.chunkAccounts
+    public static final int PARALLELISM = Integer.getInteger("bank.jobs.parallelism",
+        Runtime.getRuntime().availableProcessors());
+    public static final int CHUNK_ACCOUNTS = Integer.getInteger("bank.jobs.chunkAccounts", 4096);
+
+    // Interest rates are kept in parts per million a year, and a day's interest is a 365th of that
+    public static final long RATE_SCALE = 1_000_000;
+    public static final int DAYS_PER_YEAR = 365;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private ForkJoinPool pool;
+    private volatile AdminJob current;
+    private long baseCents;
+    private long baseExternalCents;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public AdminJobs(Bank bank) {
+        this(bank, PARALLELISM);
+    }
+
+    /**
+     * Creates the jobs of a bank, taking the bank's current total balance as the starting point
+     * for reconciling later totals against the ledger.
+     * @param bank The Bank whose accounts the jobs process.
+     * @param parallelism The number of threads jobs run on.
+     */
+    public AdminJobs(Bank bank, int parallelism) {
+        this.bank = bank;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.current = null;
+        this.rebase();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the job running, or the last job run.
+     * @return An AdminJob, or null if no job has been run.
+     */
+    public AdminJob getCurrent() {
+        return this.current;
+    }
+
+    /**
+     * Gets the number of threads jobs run on.
+     * @return An int representing the number of threads.
+     */
+    public int getParallelism() {
+        return this.pool.getParallelism();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Job Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts paying every account a day's interest on its balance at the given annual rate,
+     * rounded half up to the cent. Each payment is logged and posted to the ledger against the
+     * interest account.
+     * @param annualRate A long containing the annual rate in parts per million, such as 25000 for 2.5%.
+     * @return The AdminJob started, or null if another job is still running.
+     */
+    public AdminJob accrueInterest(long annualRate) {
+        TransactionEngine engine = this.bank.getEngine();
+        return this.start("INTEREST", "paid interest", job -> this.process(job, this.copyAccounts(), account -> {
+            long interest = dailyInterest(account.getBalanceCents(), annualRate);
+            return interest > 0 && engine.deposit(account, interest, LogRecord.INTEREST) == Status.OK ? interest : 0;
+        }), cents -> String.format("Paid %s in interest.", Money.display(cents)));
+    }
+
+    /**
+     * Starts transferring a fee from every account other than the collector to the collector. An
+     * account with less than the fee pays its whole balance, so no account is overdrawn.
+     * @param collector The Account the fees are paid to.
+     * @param fee A long containing the fee in cents.
+     * @return The AdminJob started, or null if another job is still running.
+     */
+    public AdminJob sweepFees(Account collector, long fee) {
+        TransactionEngine engine = this.bank.getEngine();
+        return this.start("FEES", "charged", job -> this.process(job, this.copyAccounts(), account -> {
+            if (account.getID().equals(collector.getID())) {
+                return 0;
+            }
+            // Retry with a smaller fee if the balance falls between reading and charging it
+            while (true) {
+                long cents = Math.min(fee, account.getBalanceCents());
+                if (cents <= 0) {
+                    return 0;
+                }
+                Status status = engine.transfer(account, collector, cents);
+                if (status != Status.INSUFFICIENT_FUNDS) {
+                    return status == Status.OK ? cents : 0;
+                }
+            }
+        }), cents -> String.format("Collected %s in fees into %s.", Money.display(cents), collector.getID()));
+    }
+
+    /**
+     * Starts summing every balance at one instant and checking the sum against the ledger: it must
+     * equal the total when the jobs were created or last rebased, plus the net amount paid into
+     * accounts from outside since, as the ledger recorded it at the same instant.
+     * @return The AdminJob started, or null if another job is still running.
+     */
+    public AdminJob reconcile() {
+        long[] external = new long[1];
+        return this.start("RECONCILE", "with a balance", job -> this.bank.getEngine().snapshot(
+            () -> external[0] = this.bank.getLedger().getExternalCents(),
+            balances -> this.process(job, this.copyAccounts(), balances)), total -> {
+                long expected;
+                synchronized (this) {
+                    expected = this.baseCents + external[0] - this.baseExternalCents;
+                }
+                if (total == expected) {
+                    return String.format("Balanced at %s.", Money.display(expected));
+                }
+                return String.format("Out of balance by %s: accounts total %s but the ledger expects %s.",
+                    Money.display(total - expected), Money.display(total), Money.display(expected));
+            });
+    }
+
+    /**
+     * Takes the current total balance as the new starting point for reconciliation, after
+     * balances have changed without being posted to the ledger, as when every account is reset.
+     */
+    public void rebase() {
+        long[] external = new long[1];
+        long total = this.bank.getEngine().snapshot(() -> external[0] = this.bank.getLedger().getExternalCents(),
+            balances -> {
+                long sum = 0;
+                for (Account account : this.bank.getAccounts()) {
+                    sum += balances.applyAsLong(account);
+                }
+                return sum;
+            });
+        synchronized (this) {
+            this.baseCents = total;
+            this.baseExternalCents = external[0];
+        }
+    }
+
+    /**
+     * Gets a day's interest on a balance, rounded half up to the cent, without overflowing.
+     * @param cents A long containing the balance in cents.
+     * @param annualRate A long containing the annual rate in parts per million.
+     * @return A long representing the interest in cents, or 0 if the balance is not positive.
+     */
+    public static long dailyInterest(long cents, long annualRate) {
+        if (cents <= 0 || annualRate <= 0) {
+            return 0;
+        }
+        long divisor = RATE_SCALE * DAYS_PER_YEAR;
+        return cents / divisor * annualRate + (cents % divisor * annualRate + divisor / 2) / divisor;
+    }
+
+    /**
+     * Parses an annual interest rate given as a percentage.
+     * @param percent A String containing the percentage, such as 2.5.
+     * @return A long representing the rate in parts per million, or -1 if it is not a percentage
+     *         from 0 to 100 with at most four decimal places.
+     */
+    public static long parseRate(String percent) {
+        try {
+            BigDecimal rate = new BigDecimal(percent.trim()).movePointRight(4);
+            if (rate.signum() < 0 || rate.compareTo(BigDecimal.valueOf(RATE_SCALE)) > 0) {
+                return -1;
+            }
+            return rate.setScale(0, RoundingMode.UNNECESSARY).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts a job on the pool unless another job is still running.
+     * @param name A String containing the name of the job.
+     * @param changes A String describing the accounts the job changes.
+     * @param work A function running the job and returning its amount in cents.
+     * @param outcome A function describing what the job found, given its amount in cents.
+     * @return The AdminJob started, or null if another job is still running.
+     */
+    private synchronized AdminJob start(String name, String changes, ToLongFunction<AdminJob> work,
+            LongFunction<String> outcome) {
+        if (this.current != null && !this.current.isDone()) {
+            return null;
+        }
+        AdminJob job = new AdminJob(name, changes, this.getParallelism());
+        this.current = job;
+        this.pool.execute(() -> {
+            try {
+                long cents = work.applyAsLong(job);
+                job.finish(cents, outcome.apply(cents));
+            } catch (RuntimeException e) {
+                job.finish(0, "Failed: " + e);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Copies references to every account into an array, so that it can be split into chunks.
+     * Accounts added meanwhile may be left out.
+     * @return An array of Accounts.
+     */
+    private Account[] copyAccounts() {
+        AccountStore store = this.bank.getAccounts();
+        Account[] accounts = new Account[store.size()];
+        int count = 0;
+        for (Account account : store) {
+            if (count == accounts.length) {
+                accounts = Arrays.copyOf(accounts, count * 2 + 1);
+            }
+            accounts[count++] = account;
+        }
+        return count == accounts.length ? accounts : Arrays.copyOf(accounts, count);
+    }
+
+    /**
+     * Applies an operation to every account in chunks processed in parallel, recording progress.
+     * @param job The AdminJob the operation belongs to.
+     * @param accounts An array of the accounts to process.
+     * @param operation A function applied to each account, returning the amount it moved in cents.
+     * @return A long representing the total amount moved in cents.
+     */
+    private long process(AdminJob job, Account[] accounts, ToLongFunction<Account> operation) {
+        job.begin(accounts.length);
+        return new Chunk(job, accounts, 0, accounts.length, operation).invoke();
+    }
+
+    /**
+     * Represents a range of accounts to process, split in half until it is at most CHUNK_ACCOUNTS long.
+     */
+    private static class Chunk extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private AdminJob job;
+        private Account[] accounts;
+        private int from;
+        private int to;
+        private ToLongFunction<Account> operation;
+
+        private Chunk(AdminJob job, Account[] accounts, int from, int to, ToLongFunction<Account> operation) {
+            this.job = job;
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+            this.operation = operation;
+        }
+
+        @Override
+        protected Long compute() {
+            if (this.to - this.from > CHUNK_ACCOUNTS) {
+                int middle = (this.from + this.to) >>> 1;
+                Chunk left = new Chunk(this.job, this.accounts, this.from, middle, this.operation);
+                left.fork();
+                long right = new Chunk(this.job, this.accounts, middle, this.to, this.operation).compute();
+                return right + left.join();
+            }
+            long total = 0;
+            int changed = 0;
+            for (int i = this.from; i < this.to; i++) {
+                long cents = this.operation.applyAsLong(this.accounts[i]);
+                total += cents;
+                changed += cents != 0 ? 1 : 0;
+            }
+            this.job.advance(this.to - this.from, changed);
+            return total;
+        }
+    }
+}
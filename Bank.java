@@ -7,14 +7,13 @@
 
 import java.io.*;
 import java.util.*;
-import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
 import java.nio.charset.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.stream.Collectors;
 
-public class Bank {
+public class Bank implements Closeable {
 
 	public static final String COMMANDS =
 		"""
@@ -26,27 +25,169 @@ public class Bank {
 		WITHDRAW: Withdraws a valid amount from account
 		DEPOSIT: Deposits a valid amount to account
 		TRANSFER: Transfers a valid amount to another account
+		STATEMENT: Lists the transactions of current user's account
 		EXIT: Ends the banking process
-		RESET: Clears all data in banking system (Admin only)""";
+		RESET: Clears all data in banking system (Admin only)
+		METRICS: Outputs counts and latencies of operations (Admin only)
+		ASSETS: Outputs the total balance of all accounts (Admin only)
+		JOB: Runs interest accrual, a fee sweep or reconciliation over all accounts (Admin only)
+		Amounts from the step-up amount, and resets, ask for the password again unless it was entered recently.""";
+
+	public static final String HEADINGS = "id,credential,balance";
+	public static final String LEGACY_HEADINGS = "id,encrypted,key,balance";
+	public static final String LSN_PREFIX = "#lsn=";
+
+	// Account file, tunable with -Dbank.dataFile; a name ending in .bin selects the binary format
+	public static final String DATA_FILE = System.getProperty("bank.dataFile", "accounts.csv");
+
+	// Keep accounts off the heap in columnar segments if started with -Dbank.store=offheap
+	public static final boolean OFF_HEAP = System.getProperty("bank.store", "heap").equals("offheap");
+
+	// IDs of accounts with sharded balances, such as admin, set with -Dbank.hotAccounts as a comma separated list
+	public static final Set<String> HOT_ACCOUNTS = Arrays.stream(System.getProperty("bank.hotAccounts", "").split(","))
+		.map(String::trim).filter(id -> !id.isEmpty()).collect(Collectors.toUnmodifiableSet());
+
+	// Apply deposits, withdrawals and transfers on a single writer thread if started with -Dbank.sequenced=true
+	public static final boolean SEQUENCED = Boolean.getBoolean("bank.sequenced");
+
+	// Size the transaction log may grow to before the account data is saved and the log truncated
+	public static final long CHECKPOINT_BYTES = Long.getLong("bank.wal.checkpointBytes", 64L << 20);
+
+	private static final int MAX_REPORTED_ERRORS = 20;
+
+	// File operation metrics are written to in the Prometheus text format, if set with -Dbank.metrics.file,
+	// every few seconds as set with -Dbank.metrics.dumpSeconds
+	public static final String METRICS_FILE = System.getProperty("bank.metrics.file");
+	public static final long METRICS_SECONDS = Long.getLong("bank.metrics.dumpSeconds", 10);
+
+	// Entries per page of a statement, shown with times in the local time zone
+	public static final int STATEMENT_PAGE = 20;
+	public static final DateTimeFormatter TIME_FORMAT =
+		DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	// Largest amount in cents per operation, a trillion units, keeping balances far from overflow
+	public static final long MAX_CENTS = Money.ofUnits(1_000_000_000_000L);
+
+	// Accounts recently looked up by a range of characters, so that requests need not allocate IDs,
+	// in a direct-mapped cache whose size is tunable with -Dbank.idCache.size and rounded to a power of two
+	private static final int ID_CACHE_SIZE =
+		Integer.highestOneBit(Math.max(1, Integer.getInteger("bank.idCache.size", 1 << 16) - 1) << 1);
 
 	//------------------------------------------------------------------------------------------------------------------
 	// Properties
 	//------------------------------------------------------------------------------------------------------------------
 
 	private Account currentSession;
-	private ArrayList<Account> accounts;
+	private String token;
+	private volatile AccountStore accounts;
+	private TransactionEngine engine;
+	private TransactionLog log;
+	private Ledger ledger;
+	private String dataPath;
 	private String sysMsg;
+	private SnapshotWriter snapshotWriter;
+	private Metrics metrics;
+	private volatile Account[] idCache;
+	private AdminJobs jobs;
+	private ScheduledExecutorService checkpointer;
+	private SequencedEngine sequencer;
+	private SessionCache sessions;
+	private Partitions partitions;
+	private CrossTransfers transfers;
+	private volatile Replica replica;
 
 	//------------------------------------------------------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------------------------------------------------------
 
 	public Bank() throws Exception {
+		this(DATA_FILE);
+	}
+
+	public Bank(String dataPath) throws Exception {
 		this.currentSession = null;
-		this.accounts = new ArrayList<Account>();
-		String accountsCSV = "accounts.csv";
-		this.loadAccountData(accountsCSV);
+		this.token = null;
+		this.accounts = newAccountStore();
+		this.engine = new TransactionEngine(Boolean.getBoolean("bank.lockFree"));
+		this.dataPath = dataPath;
 		this.sysMsg = "";
+		this.snapshotWriter = new SnapshotWriter();
+		this.metrics = new Metrics();
+		this.idCache = new Account[ID_CACHE_SIZE];
+		this.sessions = new SessionCache();
+		this.replica = null;
+
+		// Load last saved account data, then replay transactions logged since
+		long lsn = this.loadAccountData(dataPath);
+		this.log = new TransactionLog(dataPath);
+		this.ledger = new Ledger(dataPath);
+		this.partitions = Partitions.fromProperties();
+		this.transfers = this.partitions != null && this.partitions.getIndex() >= 0
+			? new CrossTransfers(this, this.partitions) : null;
+		int replayed = this.log.replay(lsn, this::applyRecord);
+		if (replayed > 0) {
+			System.out.println(String.format("Recovered %d logged transactions.", replayed));
+		}
+		// The ledger may have reached disk ahead of the log; the log's next records take over those numbers
+		this.ledger.truncate(this.log.getLastLsn());
+		this.engine.setLog(this.log);
+		this.log.addListener(this.ledger::post);
+		// Set up before anything else changes balances, as its writer must then be the only thread that does
+		this.sequencer = SEQUENCED ? new SequencedEngine(this.engine) : null;
+		if (this.transfers != null) {
+			this.log.addListener(this.transfers::track);
+			this.transfers.start();
+		}
+		this.jobs = new AdminJobs(this);
+
+		// Save account data in the background whenever the log grows large
+		this.checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.checkpointer.scheduleWithFixedDelay(() -> {
+			try {
+				if (this.log.getFileBytes() > CHECKPOINT_BYTES) {
+					this.saveAccountData(this.getDataPath());
+				}
+			} catch (Exception e) {
+				System.out.println("Failed to save account data.");
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+
+		// Dump metrics in the background if requested
+		if (METRICS_FILE != null) {
+			this.checkpointer.scheduleWithFixedDelay(() -> {
+				try {
+					this.metrics.writePrometheus(METRICS_FILE);
+				} catch (IOException e) {
+					System.out.println("Failed to write metrics.");
+				}
+			}, METRICS_SECONDS, METRICS_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stops background checkpoints and transfers, waits for changes already accepted to be applied,
+	 * and closes the transaction log and ledger. Account data is not saved; the log holds every change.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.checkpointer.shutdown();
+		try {
+			this.checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.sequencer != null) {
+			this.sequencer.close();
+		}
+		if (this.transfers != null) {
+			this.transfers.close();
+		}
+		this.log.close();
+		this.ledger.close();
 	}
 
 	//------------------------------------------------------------------------------------------------------------------
@@ -70,19 +211,118 @@ public class Bank {
 	}
 
 	/**
-	 * Gets a list of accounts registered with the bank.
-	 * @return An ArrayList representing the accounts registered with the bank.
+	 * Gets the sessions of users logged in, each known by the token issued at login.
+	 * @return A SessionCache holding the open sessions.
+	 */
+	public SessionCache getSessions() {
+		return this.sessions;
+	}
+
+	/**
+	 * Gets the store of accounts registered with the bank.
+	 * @return An AccountStore representing the accounts registered with the bank.
 	 */
-	public ArrayList<Account> getAccounts() {
+	public AccountStore getAccounts() {
 		return this.accounts;
 	}
 
 	/**
-	 * Sets the list of accounts registered with the bank.
-	 * @param accounts An ArrayList containing the list of accounts registered with the bank.
+	 * Sets the store of accounts registered with the bank.
+	 * @param accounts An AccountStore containing the accounts registered with the bank.
 	 */
-	public void setAccounts(ArrayList<Account> accounts) {
+	public void setAccounts(AccountStore accounts) {
+		// Set before the new cache, so that a thread seeing the new cache also sees the new store
 		this.accounts = accounts;
+		this.idCache = new Account[ID_CACHE_SIZE];
+	}
+
+	/**
+	 * Gets the engine applying balance changes to accounts.
+	 * @return A TransactionEngine applying balance changes to accounts.
+	 */
+	public TransactionEngine getEngine() {
+		return this.engine;
+	}
+
+	/**
+	 * Gets the single writer applying deposits, withdrawals and transfers, if the bank uses one.
+	 * @return A SequencedEngine, or null if changes are applied by the threads making them.
+	 */
+	public SequencedEngine getSequencer() {
+		return this.sequencer;
+	}
+
+	/**
+	 * Gets the write-ahead log of mutations made since the account data was last saved.
+	 * @return A TransactionLog recording mutations.
+	 */
+	public TransactionLog getLog() {
+		return this.log;
+	}
+
+	/**
+	 * Gets the ledger of every transaction made.
+	 * @return A Ledger of transactions.
+	 */
+	public Ledger getLedger() {
+		return this.ledger;
+	}
+
+	/**
+	 * Gets the end-of-day jobs run over every account.
+	 * @return An AdminJobs running jobs over the accounts.
+	 */
+	public AdminJobs getJobs() {
+		return this.jobs;
+	}
+
+	/**
+	 * Gets the transfers to and from accounts on other nodes, if the bank is a node of a partitioned bank.
+	 * @return A CrossTransfers, or null if the bank is not a node.
+	 */
+	public CrossTransfers getTransfers() {
+		return this.transfers;
+	}
+
+	/**
+	 * Gets the replication of the primary's log to this bank, if the bank is a read replica.
+	 * @return A Replica, or null if the bank accepts writes.
+	 */
+	public Replica getReplica() {
+		return this.replica;
+	}
+
+	/**
+	 * Sets whether the bank is a read replica of another.
+	 * @param replica The Replica following the primary, or null once the bank accepts writes.
+	 */
+	public void setReplica(Replica replica) {
+		this.replica = replica;
+	}
+
+	/**
+	 * Gets the metrics of operations performed.
+	 * @return A Metrics recording operations.
+	 */
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Gets the total balance of every account at one instant, without pausing deposits,
+	 * withdrawals or transfers.
+	 * @return A long representing the total balance in cents.
+	 */
+	public long getTotalAssets() {
+		return this.getEngine().totalBalance(this.getAccounts());
+	}
+
+	/**
+	 * Gets the file path account data is loaded from and saved to.
+	 * @return A String representing the file path of the account data.
+	 */
+	public String getDataPath() {
+		return this.dataPath;
 	}
 
 	/**
@@ -91,12 +331,34 @@ public class Bank {
 	 * @return An Account with the given ID.
 	 */
 	public Account getAccount(String id) {
-		for (Account account : this.getAccounts()) {
-			if (account.getID().equals(id)) {
-				return account;
-			}
+		return this.getAccounts().get(id);
+	}
+
+	/**
+	 * Gets the account whose ID is the given range of characters, allocating the ID as a String
+	 * only the first time it is looked up.
+	 * @param s A CharSequence containing the ID.
+	 * @param from The index of the ID's first character.
+	 * @param to The index after the ID's last character.
+	 * @return An Account with the given ID, or null if no such account exists.
+	 */
+	public Account getAccount(CharSequence s, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		// Slots are written without locks, which is safe as an account's ID is final and its other fields volatile
+		Account[] cache = this.idCache;
+		int slot = (h ^ (h >>> 16)) & (cache.length - 1);
+		Account cached = cache[slot];
+		if (cached != null && regionEquals(cached.getID(), s, from, to)) {
+			return cached;
+		}
+		Account account = this.getAccount(s.subSequence(from, to).toString());
+		if (account != null) {
+			cache[slot] = account;
 		}
-		return null;
+		return account;
 	}
 
 	/**
@@ -125,37 +387,65 @@ public class Bank {
 	 */
 	public void processCommand(String command) throws Exception {
 		clearTerminal();
-		switch (command.toUpperCase()) {
-			case "HELP":
+		Command parsed = Command.match(command);
+		if (parsed == null || !parsed.isConsole()) {
+			this.setSysMsg("Please enter a valid command.");
+			return;
+		}
+		switch (parsed) {
+			case HELP:
 				this.setSysMsg(COMMANDS);
 				break;
-			case "LOGIN":
+			case LOGIN:
 				this.login();
 				break;
-			case "LOGOUT":
+			case LOGOUT:
+				this.getSessions().revoke(this.token);
+				this.token = null;
 				this.setCurrentSession(null);
 				break;
-			case "REGISTER":
+			case REGISTER:
 				this.register();
 				break;
-			case "CHANGE PASSWORD":
+			case CHANGE_PASSWORD:
 				this.changePw();
 				break;
-			case "WITHDRAW":
+			case WITHDRAW:
 				this.transaction("withdraw");
 				break;
-			case "DEPOSIT":
+			case DEPOSIT:
 				this.transaction("deposit");
 				break;
-			case "TRANSFER":
+			case TRANSFER:
 				this.transfer();
 				break;
-			case "EXIT":
-				saveAccountData("accounts.csv");
+			case EXIT:
+				saveAccountData(this.getDataPath());
+				this.close();
 				System.exit(0);
-			case "RESET":
+			case STATEMENT:
+				this.statement();
+				break;
+			case RESET:
 				this.reset();
 				break;
+			case METRICS:
+				if (this.getCurrentSession() == null || !this.getCurrentSession().getID().equals("admin")) {
+					this.setSysMsg("Only admin can view metrics.");
+				} else {
+					this.setSysMsg(this.getMetrics().report());
+				}
+				break;
+			case ASSETS:
+				if (this.getCurrentSession() == null || !this.getCurrentSession().getID().equals("admin")) {
+					this.setSysMsg("Only admin can view total assets.");
+				} else {
+					this.setSysMsg("Total assets: " + Money.display(this.getTotalAssets()));
+				}
+				break;
+			case JOB:
+				this.job();
+				break;
 			default:
 				this.setSysMsg("Please enter a valid command.");
 				break;
@@ -192,18 +482,14 @@ public class Bank {
 			return;
 		}
 		
-		// Search account database to find matching account
-		for (Account account : this.getAccounts()) {
-			if (account.getID().equals(id) && account.getDecryptedPw().equals(pw)) {
-				this.setCurrentSession(account);
-				break;
-			}
-		}
+		// Look up account and check password
+		this.setCurrentSession(this.authenticate(id, pw));
 		
-		// Update system message
+		// Update system message, starting a session so that later operations need not check the password
 		if (this.getCurrentSession() == null) {
 			this.setSysMsg("Login failed.");
 		} else {
+			this.token = this.getSessions().issue(this.getCurrentSession());
 			this.setSysMsg("Login successful.");
 		}
 	}
@@ -248,7 +534,11 @@ public class Bank {
         }
 
         // Create and add account to database
-        this.getAccounts().add(new Account(id, pw, 0));
+        Status status = this.register(id, pw);
+        if (status != Status.OK) {
+        	this.setSysMsg(status.getMessage() + " Registration cancelled.");
+        	return;
+        }
         this.setSysMsg("Registration successful.");
 	}
 
@@ -272,7 +562,7 @@ public class Bank {
         // Prompt old password to authenticate user
         char[] ch = console.readPassword("Enter old password: ");
         String pw = String.valueOf(ch);
-        if (!this.getCurrentSession().getDecryptedPw().equals(pw)) {
+        if (!this.checkPw(this.getCurrentSession(), pw)) {
         	this.setSysMsg("Wrong password. Operation cancelled.");
         	return;
         }
@@ -280,7 +570,7 @@ public class Bank {
         // Get new password and check if valid
         ch = console.readPassword("Enter new password: ");
         pw = String.valueOf(ch);
-        while (pw.matches(".*\\s+.*") || pw.matches("^.*[^a-zA-Z0-9 ].*$")) {
+        while (!pw.isEmpty() && !isValidPw(pw)) {
         	clearTerminal();
         	pw = console.readLine("Invalid password. Please enter a valid password: ");
         }
@@ -289,8 +579,10 @@ public class Bank {
         	return;
         }
 
-        // Set new password
-        this.getCurrentSession().setPw(pw);
+        // Set new password, ending the account's other sessions
+        if (this.changePw(this.getCurrentSession(), pw) == Status.OK) {
+        	this.getSessions().revokeAll(this.getCurrentSession(), this.token);
+        }
 	}
 
 	/**
@@ -312,34 +604,29 @@ public class Bank {
         }
 
 		// Get amount to withdraw or deposit and check if valid
-		String raw = console.readLine(String.format("Enter amount to %s: ", type));
-		double amount;
-		try {
-			amount = Double.valueOf(raw);
-			if (amount < 0) {
-				throw new NumberFormatException();
-			} else if (type.equals("withdraw") && this.getCurrentSession().getBalance() - amount < 0) {
-				throw new NumberFormatException();
-			}
-		} catch (NumberFormatException e) {
+		String raw = console.readLine(String.format("Enter amount to %s: ", type)).trim();
+		long cents = Money.parse(raw, 0, raw.length());
+		if (cents < 0 || (type.equals("withdraw") && this.getCurrentSession().getBalanceCents() < cents)) {
 			clearTerminal();
 			this.setSysMsg(String.format("Invalid %s amount.", type));
 			return;
 		}
 
-		// Prompt password to authenticate user
-        char[] ch = console.readPassword("Enter password to confirm transaction: ");
-        String pw = String.valueOf(ch);
-        if (!this.getCurrentSession().getDecryptedPw().equals(pw)) {
-        	this.setSysMsg("Wrong password. Transfer cancelled.");
-        	return;
-        }
+		// Check the session, and the password again only for a large amount
+		if (!this.confirm(console, cents, type.equals("withdraw") ? "Withdrawal" : "Deposit")) {
+			return;
+		}
 
 		// Update balance
+		Status status;
 		if (type.equals("withdraw")) {
-			this.getCurrentSession().setBalance(this.getCurrentSession().getBalance() - amount);
+			status = this.withdraw(this.getCurrentSession(), cents);
 		} else {
-			this.getCurrentSession().setBalance(this.getCurrentSession().getBalance() + amount);
+			status = this.deposit(this.getCurrentSession(), cents);
+		}
+		if (status != Status.OK) {
+			this.setSysMsg(String.format("Invalid %s amount.", type));
+			return;
 		}
 
 		// Capitalise the first letter for system message
@@ -375,35 +662,72 @@ public class Bank {
 		}
 
 		// Get amount to transfer and check if valid
-		String raw = console.readLine("Enter amount to transfer: ");
-		double amount;
-		try {
-			amount = Double.valueOf(raw);
-			if (amount < 0 || this.getCurrentSession().getBalance() - amount < 0) {
-				throw new NumberFormatException();
-			}
-		} catch (NumberFormatException e) {
+		String raw = console.readLine("Enter amount to transfer: ").trim();
+		long cents = Money.parse(raw, 0, raw.length());
+		if (cents < 0 || this.getCurrentSession().getBalanceCents() < cents) {
 			clearTerminal();
 			this.setSysMsg("Invalid transfer amount.");
 			return;
 		}
 
-		// Prompt password to authenticate user
-        char[] ch = console.readPassword("Enter password to confirm transaction: ");
-        String pw = String.valueOf(ch);
-        if (!this.getCurrentSession().getDecryptedPw().equals(pw)) {
-        	this.setSysMsg("Wrong password. Transfer cancelled.");
-        	return;
-        }
+		// Check the session, and the password again only for a large amount
+		if (!this.confirm(console, cents, "Transfer")) {
+			return;
+		}
 
 		// Update balances
-		this.getCurrentSession().setBalance(this.getCurrentSession().getBalance() - amount);
-		recipient.setBalance(recipient.getBalance() + amount);
+		if (this.transfer(this.getCurrentSession(), recipient, cents) != Status.OK) {
+			this.setSysMsg("Invalid transfer amount.");
+			return;
+		}
 
 		// Update system message with success message
 		this.setSysMsg("Transfer successful.");
 	}
 
+	/**
+	 * Prints the current user's transactions from a given date a page at a time.
+	 */
+	public void statement() throws Exception {
+		// Check if current session exists
+		if (this.getCurrentSession() == null) {
+			this.setSysMsg("You must login to view your statement.");
+			return;
+		}
+
+		// Create the console object
+		Console console = System.console();
+		if (console == null) {
+			System.out.println("No console available.");
+			return;
+		}
+
+		// Get date to start from, defaulting to the last 30 days
+		String raw = console.readLine("Enter start date (YYYY-MM-DD), or leave blank for the last 30 days: ");
+		long from;
+		try {
+			LocalDate date = raw.isBlank() ? LocalDate.now().minusDays(30) : LocalDate.parse(raw.trim());
+			from = date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		} catch (DateTimeException e) {
+			this.setSysMsg("Invalid date.");
+			return;
+		}
+
+		// Print pages until the user stops or entries run out
+		long afterSeq = 0;
+		while (true) {
+			List<LedgerEntry> page = this.statement(this.getCurrentSession(), from, Long.MAX_VALUE, afterSeq);
+			for (LedgerEntry entry : page) {
+				System.out.println(formatEntry(entry));
+			}
+			if (page.size() < STATEMENT_PAGE || !console.readLine("Enter M for more: ").equalsIgnoreCase("M")) {
+				break;
+			}
+			afterSeq = page.get(page.size() - 1).getSeq();
+		}
+		console.readLine("End of statement. Press Enter to continue.");
+	}
+
 	/**
 	 * Clears all data in banking system.
 	 */
@@ -431,97 +755,603 @@ public class Bank {
         	return;
         }
 
-        // Prompt admin to confirm reset by entering password again
-        char[] ch = console.readPassword("Enter password to reset ALL data: ");
-        String pw = String.valueOf(ch);
-        if (!this.getCurrentSession().getDecryptedPw().equals(pw)) {
-        	this.setSysMsg("Wrong password. Reset cancelled.");
+        // Prompt admin to confirm reset by entering password again, unless entered recently
+        if (!this.confirm(console, Long.MAX_VALUE, "Reset")) {
         	return;
         }
 
-	// Assign new ArrayList of accounts containing admin account
-	ArrayList<Account> resetted = new ArrayList<Account>();
+	// Assign new store of accounts containing admin account
+	AccountStore resetted = newAccountStore();
 	resetted.add(this.getCurrentSession());
-	this.setAccounts(resetted);
+	this.getLog().beginMutation();
+	try {
+		this.setAccounts(resetted);
+		this.setCurrentSession(resetted.get(this.getCurrentSession().getID()));
+		this.getLog().append(LogRecord.RESET, this.getCurrentSession().getID(), null, 0, null);
+	} finally {
+		this.getLog().endMutation();
+	}
+
+        // Sessions may hold accounts that no longer exist, so end them all but the admin's new one
+        this.getSessions().clear();
+        this.token = this.getSessions().issue(this.getCurrentSession());
+
+        // Balances were cleared without ledger entries, so reconcile from here on
+        this.getJobs().rebase();
 
         // Save changes to file
-        this.saveAccountData("accounts.csv");
+        this.saveAccountData(this.getDataPath());
 
 	// Update system message with success message
 	this.setSysMsg("Reset successful.");
 	}
 
+	/**
+	 * Prompts admin to run a job over every account, printing its progress until it is done.
+	 */
+	public void job() throws Exception {
+		// Check if admin account
+		if (this.getCurrentSession() == null || !this.getCurrentSession().getID().equals("admin")) {
+			this.setSysMsg("Only admin can run jobs.");
+			return;
+		}
+
+		// Create the console object
+		Console console = System.console();
+		if (console == null) {
+			System.out.println("No console available.");
+			return;
+		}
+
+		// Get the job to run and its argument
+		String name = console.readLine("Enter job (INTEREST, FEES or RECONCILE): ").trim();
+		AdminJob job;
+		if (name.equalsIgnoreCase("INTEREST")) {
+			long rate = AdminJobs.parseRate(console.readLine("Enter annual interest rate in percent: "));
+			if (rate < 0) {
+				this.setSysMsg("Invalid interest rate.");
+				return;
+			}
+			job = this.getJobs().accrueInterest(rate);
+		} else if (name.equalsIgnoreCase("FEES")) {
+			String raw = console.readLine("Enter fee to charge each account: ").trim();
+			long cents = Money.parse(raw, 0, raw.length());
+			if (!isValidAmount(cents)) {
+				this.setSysMsg("Invalid fee.");
+				return;
+			}
+			job = this.getJobs().sweepFees(this.getCurrentSession(), cents);
+		} else if (name.equalsIgnoreCase("RECONCILE")) {
+			job = this.getJobs().reconcile();
+		} else {
+			this.setSysMsg("Invalid job.");
+			return;
+		}
+		if (job == null) {
+			this.setSysMsg("A job is already running.");
+			return;
+		}
+
+		// Report progress every second until the job is done
+		while (!job.await(1000)) {
+			System.out.println(job.report());
+		}
+		this.setSysMsg(job.report());
+	}
+
 	//------------------------------------------------------------------------------------------------------------------
-	// Helper Functions
+	// Transaction Functions
 	//------------------------------------------------------------------------------------------------------------------
 
 	/**
-	 * Read and load account data from file from given pathname.
-	 * @param pathname The file path of file containing account data.
+	 * Gets the account with the given ID if the given password matches, without prompting.
+	 * @param id A String containing the ID of an account.
+	 * @param pw A String containing the password of the account.
+	 * @return An Account with the given ID and password, or null if there is none.
+	 */
+	public Account authenticate(String id, String pw) throws Exception {
+		long start = System.nanoTime();
+		Account account = this.getAccount(id);
+		if (account != null && !this.checkPw(account, pw)) {
+			account = null;
+		}
+		this.getMetrics().record(Metrics.LOGIN, start, account != null);
+		return account;
+	}
+
+	/**
+	 * Registers an account with the given ID and password without prompting.
+	 * @param id A String containing the ID of the new account.
+	 * @param pw A String containing the password of the new account.
+	 * @return A Status representing the outcome of the registration.
 	 */
-	public void loadAccountData(String pathname) throws Exception {
+	public Status register(String id, String pw) throws Exception {
+		long start = System.nanoTime();
+		Status status = this.addAccount(id, pw);
+		this.getMetrics().record(Metrics.REGISTER, start, status == Status.OK);
+		return status;
+	}
+
+	/**
+	 * Validates, adds and logs an account with the given ID and password.
+	 * @param id A String containing the ID of the new account.
+	 * @param pw A String containing the password of the new account.
+	 * @return A Status representing the outcome of the registration.
+	 */
+	private Status addAccount(String id, String pw) throws Exception {
+		if (!isValidID(id)) {
+			return Status.INVALID_ID;
+		} else if (!isValidPw(pw)) {
+			return Status.INVALID_PASSWORD;
+		} else if (!this.isUniqueID(id)) {
+			return Status.ID_TAKEN;
+		} else if (this.transfers != null && !this.partitions.keeps(id)) {
+			return Status.INVALID_ID;
+		}
+
+		Account account = new Account(id, pw, 0);
+		long lsn;
+		this.getLog().beginMutation();
 		try {
-			Scanner sc = new Scanner(new File(pathname));
-			sc.useDelimiter("\n");
+			if (!this.getAccounts().add(account)) {
+				return Status.ID_TAKEN;
+			}
+			lsn = this.getLog().append(LogRecord.REGISTER, id, null, 0, account.getCredential().encode());
+		} finally {
+			this.getLog().endMutation();
+		}
+		return this.getLog().commit(lsn) ? Status.OK : Status.UNAVAILABLE;
+	}
+
+	/**
+	 * Sets the password of the given account without prompting.
+	 * @param account An Account to change the password of.
+	 * @param pw A String containing the new password.
+	 * @return A Status representing the outcome of the change.
+	 */
+	public Status changePw(Account account, String pw) throws Exception {
+		if (!isValidPw(pw)) {
+			return Status.INVALID_PASSWORD;
+		}
+		return this.setCredential(account, Credential.create(pw)) ? Status.OK : Status.UNAVAILABLE;
+	}
+
+	/**
+	 * Checks the given password against the given account's credential without prompting. A legacy
+	 * encrypted credential is replaced by a salted hash, and logged like a password change, the first
+	 * time its password is checked.
+	 * @param account An Account to check the password of.
+	 * @param pw A String containing the password to check.
+	 * @return A boolean based on whether the password matches.
+	 */
+	public boolean checkPw(Account account, String pw) throws Exception {
+		Credential credential = account.getCredential();
+		if (!credential.verify(pw)) {
+			return false;
+		}
+		if (credential.isLegacy()) {
+			// If interrupted before the upgrade is on disk, it is simply made again at the next login
+			this.setCredential(account, Credential.create(pw));
+		}
+		return true;
+	}
+
+	/**
+	 * Sets and logs the credential of the given account.
+	 * @param account An Account to set the credential of.
+	 * @param credential A Credential to set.
+	 * @return A boolean based on whether the change was committed to the log.
+	 */
+	private boolean setCredential(Account account, Credential credential) throws Exception {
+		long lsn;
+		this.getLog().beginMutation();
+		try {
+			account.setCredential(credential);
+			lsn = this.getLog().append(LogRecord.PASSWORD, account.getID(), null, 0, credential.encode());
+		} finally {
+			this.getLog().endMutation();
+		}
+		return this.getLog().commit(lsn);
+	}
+
+	/**
+	 * Deposits the given amount in cents to the given account without prompting.
+	 * @param account An Account to deposit to.
+	 * @param cents A long containing the amount in cents to deposit.
+	 * @return A Status representing the outcome of the deposit.
+	 */
+	public Status deposit(Account account, long cents) {
+		long start = System.nanoTime();
+		Status status;
+		if (!isValidAmount(cents)) {
+			status = Status.INVALID_AMOUNT;
+		} else if (this.getSequencer() != null) {
+			status = this.getSequencer().deposit(account, cents);
+		} else {
+			status = this.getEngine().deposit(account, cents);
+		}
+		this.getMetrics().record(Metrics.DEPOSIT, start, status == Status.OK);
+		return status;
+	}
 
-			sc.next(); // Skip column headings
-			while (sc.hasNext()) {
-				String[] info = sc.next().split(",");
+	/**
+	 * Withdraws the given amount in cents from the given account without prompting.
+	 * @param account An Account to withdraw from.
+	 * @param cents A long containing the amount in cents to withdraw.
+	 * @return A Status representing the outcome of the withdrawal.
+	 */
+	public Status withdraw(Account account, long cents) {
+		long start = System.nanoTime();
+		Status status;
+		if (!isValidAmount(cents)) {
+			status = Status.INVALID_AMOUNT;
+		} else if (this.getSequencer() != null) {
+			status = this.getSequencer().withdraw(account, cents);
+		} else {
+			status = this.getEngine().withdraw(account, cents);
+		}
+		this.getMetrics().record(Metrics.WITHDRAW, start, status == Status.OK);
+		return status;
+	}
 
-				// Decode the base64 encoded encrypted password
-				byte[] encryptedPw = Base64.getDecoder().decode(info[1]);
+	/**
+	 * Transfers the given amount in cents between the given accounts without prompting.
+	 * @param sender An Account to transfer from.
+	 * @param recipient An Account to transfer to.
+	 * @param cents A long containing the amount in cents to transfer.
+	 * @return A Status representing the outcome of the transfer.
+	 */
+	public Status transfer(Account sender, Account recipient, long cents) {
+		long start = System.nanoTime();
+		Status status;
+		if (!isValidAmount(cents)) {
+			status = Status.INVALID_AMOUNT;
+		} else if (this.getSequencer() != null) {
+			status = this.getSequencer().transfer(sender, recipient, cents);
+		} else {
+			status = this.getEngine().transfer(sender, recipient, cents);
+		}
+		this.getMetrics().record(Metrics.TRANSFER, start, status == Status.OK);
+		return status;
+	}
 
-				// Decode the base64 encoded key
-				byte[] decodedKey = Base64.getDecoder().decode(info[2]);
+	/**
+	 * Gets a page of the given account's ledger entries between two times, oldest first.
+	 * @param account An Account to list the entries of.
+	 * @param from The earliest time to include, in milliseconds since the epoch.
+	 * @param to The latest time to include, in milliseconds since the epoch.
+	 * @param afterSeq The sequence number of the last entry of the previous page, or 0 for the first page.
+	 * @return A List of at most STATEMENT_PAGE LedgerEntry objects.
+	 */
+	public List<LedgerEntry> statement(Account account, long from, long to, long afterSeq) throws IOException {
+		return this.getLedger().entries(account.getID(), from, to, afterSeq, STATEMENT_PAGE);
+	}
 
-				// Rebuild key using SecretKeySpec
-				SecretKey key = new SecretKeySpec(decodedKey, 0, decodedKey.length, "AES");
+	//------------------------------------------------------------------------------------------------------------------
+	// Helper Functions
+	//------------------------------------------------------------------------------------------------------------------
 
-				// Add account to this bank's account database
-				this.getAccounts().add(new Account(info[0], encryptedPw, key, Double.valueOf(info[3])));
+	/**
+	 * Checks the current session is still open before an operation, and prompts for the password
+	 * again if the amount needs a step-up. Logs out if the session has ended.
+	 * @param console The Console to prompt on.
+	 * @param cents A long containing the amount in cents, or Long.MAX_VALUE if the operation needs
+	 *              the password unless it was entered again recently.
+	 * @param operation A String naming the operation in the system message, such as Transfer.
+	 * @return A boolean based on whether the operation may go ahead.
+	 */
+	private boolean confirm(Console console, long cents, String operation) throws Exception {
+		if (this.getSessions().verify(this.token) == null) {
+			this.token = null;
+			this.setCurrentSession(null);
+			this.setSysMsg(String.format("Session expired. Please login again. %s cancelled.", operation));
+			return false;
+		}
+		if (this.getSessions().needsStepUp(this.token, cents)) {
+			char[] ch = console.readPassword("Enter password to confirm: ");
+			if (!this.getSessions().stepUp(this.token, String.valueOf(ch))) {
+				this.setSysMsg(String.format("Wrong password. %s cancelled.", operation));
+				return false;
 			}
-			sc.close();
-		} catch (Exception e) {
+		}
+		return true;
+	}
+
+	/**
+	 * Read and load account data from file from given pathname.
+	 * Malformed rows are reported and skipped.
+	 * @param pathname The file path of file containing account data.
+	 * @return A long representing the log sequence number the file was saved at.
+	 */
+	public long loadAccountData(String pathname) throws Exception {
+		long start = System.nanoTime();
+		AccountLoader loader = new AccountLoader(this.getAccounts());
+		try {
+			loader.load(pathname);
+			this.getMetrics().record(Metrics.LOAD, start, loader.getErrors().isEmpty());
+		} catch (IOException e) {
 			System.out.println("Failed to load data.");
 			System.exit(0);
 		}
+
+		// Report malformed rows
+		List<String> errors = loader.getErrors();
+		for (int i = 0; i < Math.min(errors.size(), MAX_REPORTED_ERRORS); i++) {
+			System.out.println("Skipped row. " + errors.get(i));
+		}
+		if (errors.size() > MAX_REPORTED_ERRORS) {
+			System.out.println(String.format("Skipped %d more rows.", errors.size() - MAX_REPORTED_ERRORS));
+		}
+		return loader.getLsn();
 	}
 
 	/**
-	 * Save account data to file at given pathname.
-	 * @param pathname The file path of file to save account data to.
+	 * Applies a mutation shipped from the primary's transaction log to the accounts, and appends it
+	 * to this bank's own log with the primary's sequence number, so that it survives a restart and
+	 * the log continues the primary's once promoted.
+	 * @param record A LogRecord describing the mutation.
 	 */
-	public void saveAccountData(String pathname) throws Exception {
+	public void replicate(LogRecord record) {
+		this.getLog().beginMutation();
 		try {
-			FileWriter fw = new FileWriter(pathname);
-
-			// Write headings of columns to file
-			fw.append("id,encrypted,key,balance\n");
-
-			// Write all account data to file
-			for (Account account : this.getAccounts()) {
-				fw.append(
-					account.getID() + "," +
-					new String(Base64.getEncoder().encodeToString(account.getEncryptedPw())) + "," +
-					new String(Base64.getEncoder().encodeToString(account.getKey().getEncoded())) + "," +
-					account.getBalance() + "\n"
-				);
+			this.applyRecord(record);
+			this.getLog().copy(record);
+		} finally {
+			this.getLog().endMutation();
+		}
+	}
+
+	/**
+	 * Applies a mutation read from the transaction log to the accounts.
+	 * @param record A LogRecord describing the mutation.
+	 */
+	private void applyRecord(LogRecord record) {
+		Account account = this.getAccount(record.getID());
+		switch (record.getType()) {
+			case LogRecord.DEPOSIT:
+			case LogRecord.INTEREST:
+				if (account != null) {
+					account.credit(record.getCents());
+				}
+				break;
+			case LogRecord.WITHDRAW:
+			case LogRecord.SEND:
+				if (account != null) {
+					account.credit(-record.getCents());
+				}
+				break;
+			case LogRecord.SEND_ABORT:
+			case LogRecord.RECEIVE:
+				if (account != null) {
+					account.credit(record.getCents());
+				}
+				break;
+			case LogRecord.TRANSFER:
+				Account recipient = this.getAccount(record.getRecipientID());
+				if (account != null && recipient != null) {
+					account.credit(-record.getCents());
+					recipient.credit(record.getCents());
+				}
+				break;
+			case LogRecord.REGISTER:
+				this.getAccounts().add(new Account(record.getID(), Credential.decode(record.getCredential()), 0));
+				break;
+			case LogRecord.PASSWORD:
+				if (account != null) {
+					account.setCredential(Credential.decode(record.getCredential()));
+				}
+				break;
+			case LogRecord.RESET:
+				AccountStore resetted = newAccountStore();
+				if (account != null) {
+					resetted.add(account);
+				}
+				this.setAccounts(resetted);
+				break;
+			default:
+				break;
+		}
+		if (this.transfers != null) {
+			this.transfers.track(record);
+		}
+		this.getLedger().post(record);
+	}
+
+	/**
+	 * Save account data to file at given pathname. Saving to this bank's own data file
+	 * also truncates the transaction log, since the file then includes every logged mutation.
+	 * The file is replaced atomically, and transactions continue while it is written.
+	 * @param pathname The file path of file to save account data to.
+	 * @return A SnapshotWriter reporting the size of the file and time taken to save it.
+	 */
+	public SnapshotWriter saveAccountData(String pathname) throws Exception {
+		long start = System.nanoTime();
+		boolean checkpoint = pathname.equals(this.getDataPath());
+
+		// One snapshot at a time, so an older one never replaces a newer one
+		synchronized (this.snapshotWriter) {
+			// Copy account data while mutations are paused, so it matches the log sequence number.
+			// Copying only references and longs keeps the pause short; encoding happens after.
+			int size = this.getAccounts().size();
+			String[] ids = new String[size];
+			Credential[] credentials = new Credential[size];
+			long[] balances = new long[size];
+			int count = 0;
+			long lsn;
+			this.getLog().lockCheckpoint();
+			try {
+				lsn = this.getLog().getLastLsn();
+				for (Account account : this.getAccounts()) {
+					if (count == ids.length) {
+						ids = Arrays.copyOf(ids, count * 2 + 1);
+						credentials = Arrays.copyOf(credentials, count * 2 + 1);
+						balances = Arrays.copyOf(balances, count * 2 + 1);
+					}
+					ids[count] = account.getID();
+					credentials[count] = account.getCredential();
+					balances[count] = account.getBalanceCents();
+					count++;
+				}
+				if (checkpoint) {
+					this.getLog().rotate();
+					if (this.transfers != null) {
+						this.transfers.checkpoint();
+					}
+				}
+			} finally {
+				this.getLog().unlockCheckpoint();
 			}
 
-			fw.flush();
-			fw.close();
-		} catch (Exception e) {
-			System.out.println("Failed to save account data.");
+			// Transactions continue while the copy is written out
+			try {
+				// The ledger must hold every transaction before the log files covering them are deleted
+				if (checkpoint) {
+					this.getLedger().flush();
+				}
+				this.snapshotWriter.write(pathname, lsn, ids, credentials, balances, count);
+
+				// Logged mutations up to the saved sequence number are no longer needed, once any
+				// transfers between partitions still open have been copied to disk after them
+				if (checkpoint) {
+					this.getLog().flush();
+					this.getLog().deleteRotated();
+				}
+				this.getMetrics().record(Metrics.SAVE, start, true);
+			} catch (IOException e) {
+				this.getMetrics().record(Metrics.SAVE, start, false);
+				System.out.println("Failed to save account data.");
+			}
+			return this.snapshotWriter;
 		}
 	}
 
+	/**
+	 * Converts an account file between CSV and binary, keeping the log sequence number it was saved at.
+	 * Files ending in .bin are binary, others CSV. Malformed rows are reported and skipped.
+	 * @param from The file path of the file to convert.
+	 * @param to The file path of the file to write.
+	 */
+	public static void convertAccountData(String from, String to) throws Exception {
+		AccountStore store = newAccountStore();
+		AccountLoader loader = new AccountLoader(store);
+		long start = System.nanoTime();
+		loader.load(from);
+		double loadMillis = (System.nanoTime() - start) / 1e6;
+		List<String> errors = loader.getErrors();
+		for (int i = 0; i < Math.min(errors.size(), MAX_REPORTED_ERRORS); i++) {
+			System.out.println("Skipped row. " + errors.get(i));
+		}
+
+		int size = store.size();
+		String[] ids = new String[size];
+		Credential[] credentials = new Credential[size];
+		long[] balances = new long[size];
+		int count = 0;
+		for (Account account : store) {
+			ids[count] = account.getID();
+			credentials[count] = account.getCredential();
+			balances[count] = account.getBalanceCents();
+			count++;
+		}
+		SnapshotWriter writer = new SnapshotWriter();
+		writer.write(to, loader.getLsn(), ids, credentials, balances, count);
+
+		System.out.println(String.format("Converted %,d accounts: %,d bytes loaded in %.1fms, %,d bytes saved in %.1fms",
+			count, new File(from).length(), loadMillis, writer.getBytes(), writer.getNanos() / 1e6));
+	}
+
 	/**
 	 * Return whether the given ID is unique.
 	 * @return A boolean based on whether the given ID is unique.
 	 */
 	public boolean isUniqueID(String id) {
-		for (Account account : this.getAccounts()) {
-			if (account.getID().equals(id)) {
+		return !this.getAccounts().contains(id);
+	}
+
+	/**
+	 * Return whether the given ID is well formed.
+	 * @param id A String containing an ID.
+	 * @return A boolean based on whether the given ID is non-empty and alphanumeric.
+	 */
+	public static boolean isValidID(String id) {
+		return isAlphanumeric(id);
+	}
+
+	/**
+	 * Return whether the given password is well formed.
+	 * @param pw A String containing a password.
+	 * @return A boolean based on whether the given password is non-empty and alphanumeric.
+	 */
+	public static boolean isValidPw(String pw) {
+		return isAlphanumeric(pw);
+	}
+
+	/**
+	 * Return whether the given amount can be deposited, withdrawn or transferred.
+	 * @param cents A long containing an amount in cents.
+	 * @return A boolean based on whether the given amount is a non-negative number of at most MAX_CENTS.
+	 */
+	public static boolean isValidAmount(long cents) {
+		return cents >= 0 && cents <= MAX_CENTS;
+	}
+
+	/**
+	 * Formats a ledger entry as a line of a statement.
+	 * @param entry A LedgerEntry to format.
+	 * @return A String of the entry's sequence number, time, signed amount and counterparty.
+	 */
+	public static String formatEntry(LedgerEntry entry) {
+		StringBuilder line = new StringBuilder(64).append('#').append(entry.getSeq()).append(' ')
+			.append(TIME_FORMAT.format(Instant.ofEpochMilli(entry.getTime()))).append(' ');
+		if (entry.getCents() >= 0) {
+			line.append('+');
+		}
+		return Money.appendGrouped(line, entry.getCents()).append(' ').append(entry.getCounterpartyID()).toString();
+	}
+
+	/**
+	 * Creates an empty store of the kind selected when the bank system was started.
+	 * @return An AccountStore kept off the heap if -Dbank.store=offheap, or in a hash table otherwise,
+	 *         with sharded balances for the accounts listed in -Dbank.hotAccounts.
+	 */
+	public static AccountStore newAccountStore() {
+		AccountStore store = OFF_HEAP ? new OffHeapAccountStore() : new HashAccountStore();
+		return HOT_ACCOUNTS.isEmpty() ? store : new HotAccountStore(store, HOT_ACCOUNTS);
+	}
+
+	/**
+	 * Returns whether the given String is made only of ASCII letters and digits, checking each
+	 * character directly rather than matching a regular expression.
+	 * @param s A String to check.
+	 * @return A boolean based on whether the String is non-empty and alphanumeric.
+	 */
+	private static boolean isAlphanumeric(String s) {
+		if (s == null || s.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether a String equals a range of characters.
+	 * @param s A String to compare.
+	 * @param chars A CharSequence containing the range.
+	 * @param from The index of the range's first character.
+	 * @param to The index after the range's last character.
+	 * @return A boolean based on whether the String and the range hold the same characters.
+	 */
+	private static boolean regionEquals(String s, CharSequence chars, int from, int to) {
+		if (s.length() != to - from) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) != chars.charAt(from + i)) {
 				return false;
 			}
 		}
@@ -543,19 +1373,99 @@ public class Bank {
 	public static void main(String[] args) throws Exception {
 		Scanner sc = new Scanner(System.in);
 
+		// Convert an account file between CSV and binary without starting the bank if requested
+		if (args.length > 0 && args[0].equals("--convert")) {
+			if (args.length != 3) {
+				System.out.println("Usage: java Bank --convert <from> <to>\nFiles ending in .bin are binary, others CSV.");
+				return;
+			}
+			convertAccountData(args[1], args[2]);
+			return;
+		}
+
+		// Route sessions to the nodes of a partitioned bank if requested, without holding any accounts
+		if (args.length > 0 && args[0].equals("--router")) {
+			Partitions partitions = Partitions.fromProperties();
+			if (partitions == null) {
+				System.out.println("Usage: java -Dbank.partition.nodes=<host:port,...> Bank --router [port]");
+				return;
+			}
+			new Router(partitions, args.length > 1 ? Integer.parseInt(args[1]) : BankServer.DEFAULT_PORT).run();
+			return;
+		}
+
+		// Serve reads from a copy of a primary's accounts if requested, following its transaction log
+		if (args.length > 0 && args[0].equals("--replica")) {
+			Replica replica = Replica.fromProperties();
+			if (replica == null) {
+				System.out.println("Usage: java -Dbank.replication.primary=<host:port> -Dbank.replication.secret=<secret> Bank --replica [port]");
+				return;
+			}
+			Bank bank;
+			try {
+				bank = replica.open(DATA_FILE);
+			} catch (IOException e) {
+				System.out.println("Failed to copy the primary. " + e.getMessage());
+				return;
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					bank.saveAccountData(bank.getDataPath());
+					bank.close();
+				} catch (Exception e) {
+					System.out.println("Failed to save account data.");
+				}
+			}));
+			new BankServer(bank, args.length > 1 ? Integer.parseInt(args[1]) : BankServer.DEFAULT_PORT).run();
+			return;
+		}
+
 		// Create Bank system and UI
 		Bank bank = new Bank();
 		UI ui = new UI(bank);
 
 		// Create admin account if doesn't exist
-		boolean adminExists = false;
-		for (Account account : bank.getAccounts()) {
-			if (account.getID().equals("admin")) {
-				adminExists = true;
+		if (bank.getAccount("admin") == null) {
+			bank.register("admin", "admin");
+		}
+
+		// Replay a batch file without the console if requested
+		if (args.length > 0 && args[0].equals("--batch")) {
+			if (args.length < 2 || args.length > 3 || (args.length == 3 && !args[2].equals("--net"))) {
+				System.out.println("Usage: java Bank --batch <file> [--net]\n" + BatchRunner.FORMAT);
+				return;
+			}
+			if (args.length == 3 && bank.getSequencer() != null) {
+				System.out.println("Netting is off in sequenced mode, which commits transfers in batches already.");
 			}
+			new BatchRunner(bank, args.length == 3).run(args[1]);
+			SnapshotWriter saved = bank.saveAccountData(bank.getDataPath());
+			System.out.println(String.format("Saved %,d accounts (%,d bytes) in %.1fms at %.1fMB/s",
+				saved.getRows(), saved.getBytes(), saved.getNanos() / 1e6, saved.getBytesPerSecond() / 1e6));
+			bank.close();
+			return;
 		}
-		if (!adminExists) {
-			bank.getAccounts().add(new Account("admin", "admin", 0));
+
+		// Serve client sessions over a socket if requested, saving on shutdown
+		if (args.length > 0 && args[0].equals("--server")) {
+			int port = args.length > 1 ? Integer.parseInt(args[1]) : BankServer.DEFAULT_PORT;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					bank.saveAccountData(bank.getDataPath());
+					bank.close();
+				} catch (Exception e) {
+					System.out.println("Failed to save account data.");
+				}
+			}));
+			if (bank.getTransfers() != null) {
+				System.out.println(String.format("Node %d of %d of a partitioned bank.",
+					bank.getTransfers().getPartitions().getIndex(), bank.getTransfers().getPartitions().size()));
+			}
+			if (LogShipper.PORT > 0) {
+				new LogShipper(bank, LogShipper.PORT, LogShipper.SECRET).start();
+			}
+			new BankServer(bank, port).run();
+			return;
 		}
 
 		// Main loop
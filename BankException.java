@@ -0,0 +1,39 @@
+/**
+ * Represents the failure of a banking operation requested through a BankService, carrying the
+ * Status describing why it failed.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public class BankException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private final Status status;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public BankException(Status status) {
+        super(status.getMessage());
+        this.status = status;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the outcome that made the operation fail.
+     * @return A Status other than Status.OK.
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+}
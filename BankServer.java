@@ -0,0 +1,116 @@
+/**
+ * Represents a server accepting many concurrent client sessions with the bank over TCP.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BankServer {
+
+    public static final int DEFAULT_PORT = 9000;
+
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private int port;
+    private AtomicInteger openSessions;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public BankServer(Bank bank, int port) {
+        this.bank = bank;
+        this.port = port;
+        this.openSessions = new AtomicInteger();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of sessions currently connected.
+     * @return An int representing the number of sessions connected.
+     */
+    public int getOpenSessions() {
+        return this.openSessions.get();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Accepts connections until the process ends, serving each on its own thread.
+     */
+    public void run() throws IOException {
+        ExecutorService executor = newSessionExecutor();
+        try (ServerSocket server = new ServerSocket(this.port, ACCEPT_BACKLOG)) {
+            System.out.println(String.format("Serving sessions on port %d.", this.port));
+            while (true) {
+                Socket socket = server.accept();
+                executor.execute(() -> this.serve(socket));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Serves a single client connection, one response line per request line.
+     * @param socket A Socket connected to the client.
+     */
+    private void serve(Socket socket) {
+        this.openSessions.incrementAndGet();
+        Session session = new Session(this.bank);
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while (!session.isClosed() && (line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                out.write(session.process(line));
+                out.newLine();
+                out.flush();
+            }
+        } catch (Exception e) {
+            // The client disconnected or sent an unreadable request; its session ends either way
+        } finally {
+            this.openSessions.decrementAndGet();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an executor running each task on its own thread, using virtual threads when the
+     * running JVM supports them (Java 21+) and falling back to a cached pool of platform threads.
+     * @return An ExecutorService running each task on its own thread.
+     */
+    public static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * Represents a programmatic interface to a bank, for callers that pipeline many requests instead
+ * of waiting for each in turn. Every request returns a CompletableFuture, completed with its result
+ * or exceptionally with a BankException giving the Status it failed with. Deposits, withdrawals and
+ * transfers are applied on the caller's thread in the order requested, and their futures complete
+ * once they are on disk, so a caller with many in flight shares each sync of the log among them.
+ * Requests checking a password, and transfers to accounts on other partitions, run on a fixed
+ * pool of threads. Once the most requests allowed are in flight, callers wait for one to finish.
+ * Futures may be completed on the thread writing the log, so stages chained on them must be quick
+ * and must not wait for other requests; chain slower work with an async variant.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BankService implements Closeable {
+
+    // Threads checking passwords and making transfers to other partitions, tunable with
+    // -Dbank.service.threads
+    public static final int THREADS = Integer.getInteger("bank.service.threads",
+        Runtime.getRuntime().availableProcessors());
+
+    // Most requests in flight at once, tunable with -Dbank.service.maxInFlight, and the longest a
+    // caller waits for one to finish before its request fails as busy, -Dbank.service.waitMillis
+    public static final int MAX_IN_FLIGHT = Integer.getInteger("bank.service.maxInFlight", 16_384);
+    public static final long WAIT_MILLIS = Long.getLong("bank.service.waitMillis", 10_000);
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private ThreadPoolExecutor executor;
+    private Semaphore slots;
+    private int maxInFlight;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public BankService(Bank bank) {
+        this(bank, THREADS, MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates a service over the given bank and starts its threads.
+     * @param bank The Bank requests are made on.
+     * @param threads The number of threads checking passwords.
+     * @param maxInFlight The most requests in flight at once.
+     */
+    public BankService(Bank bank, int threads, int maxInFlight) {
+        AtomicInteger count = new AtomicInteger();
+        this.bank = bank;
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight);
+        // Every task holds a slot, so the queue never fills and nothing is rejected until closed
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(maxInFlight), runnable -> {
+                Thread thread = new Thread(runnable, "bank-service-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of requests in flight.
+     * @return An int representing the number of requests not yet completed.
+     */
+    public int getInFlight() {
+        return this.maxInFlight - this.slots.availablePermits();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Account Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Registers an account with the given ID and password.
+     * @param id A String containing the ID of the new account.
+     * @param pw A String containing the password of the new account.
+     * @return A CompletableFuture completed once the account is registered.
+     */
+    public CompletableFuture<Void> register(String id, String pw) {
+        return this.call(() -> {
+            check(this.bank.getReplica() != null ? Status.READ_ONLY : this.bank.register(id, pw));
+            return null;
+        });
+    }
+
+    /**
+     * Logs in to the account with the given ID and password, starting a session.
+     * @param id A String containing the ID of an account.
+     * @param pw A String containing the password of the account.
+     * @return A CompletableFuture of the session's token, given to later requests.
+     */
+    public CompletableFuture<String> login(String id, String pw) {
+        return this.call(() -> {
+            Account account = this.bank.authenticate(id, pw);
+            if (account == null) {
+                throw new BankException(Status.LOGIN_FAILED);
+            }
+            return this.bank.getSessions().issue(account);
+        });
+    }
+
+    /**
+     * Checks the password of a session's account again, so that large amounts can be moved for a while.
+     * @param token A String containing the session's token.
+     * @param pw A String containing the password of the account.
+     * @return A CompletableFuture completed once the password is verified.
+     */
+    public CompletableFuture<Void> verify(String token, String pw) {
+        return this.call(() -> {
+            SessionCache sessions = this.bank.getSessions();
+            if (sessions.verify(token) == null) {
+                throw new BankException(Status.SESSION_EXPIRED);
+            }
+            check(sessions.stepUp(token, pw) ? Status.OK : Status.WRONG_PASSWORD);
+            return null;
+        });
+    }
+
+    /**
+     * Ends a session, so that its token is no longer accepted.
+     * @param token A String containing the session's token.
+     * @return A completed CompletableFuture.
+     */
+    public CompletableFuture<Void> logout(String token) {
+        this.bank.getSessions().revoke(token);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Gets the balance of a session's account. Without a sequencer, it includes every change the
+     * calling thread requested before, even those not yet on disk. With one, changes are applied
+     * on the sequencer's writer thread, so it includes only those whose futures have completed.
+     * @param token A String containing the session's token.
+     * @return A CompletableFuture of the balance in cents.
+     */
+    public CompletableFuture<Long> balance(String token) {
+        Account account = this.bank.getSessions().verify(token);
+        Replica replica = this.bank.getReplica();
+        if (account == null) {
+            return failed(Status.SESSION_EXPIRED);
+        } else if (replica != null && replica.isStale()) {
+            return failed(Status.STALE);
+        }
+        return CompletableFuture.completedFuture(account.getBalanceCents());
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Transaction Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Deposits the given amount to a session's account.
+     * @param token A String containing the session's token.
+     * @param cents A long containing the amount in cents to deposit.
+     * @return A CompletableFuture completed once the deposit is on disk.
+     */
+    public CompletableFuture<Void> deposit(String token, long cents) {
+        return this.change(Metrics.DEPOSIT, LogRecord.DEPOSIT, token, null, cents);
+    }
+
+    /**
+     * Withdraws the given amount from a session's account.
+     * @param token A String containing the session's token.
+     * @param cents A long containing the amount in cents to withdraw.
+     * @return A CompletableFuture completed once the withdrawal is on disk.
+     */
+    public CompletableFuture<Void> withdraw(String token, long cents) {
+        return this.change(Metrics.WITHDRAW, LogRecord.WITHDRAW, token, null, cents);
+    }
+
+    /**
+     * Transfers the given amount from a session's account to another account, which may be on
+     * another partition.
+     * @param token A String containing the session's token.
+     * @param recipientID A String containing the ID of the account to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A CompletableFuture completed once the transfer is on disk.
+     */
+    public CompletableFuture<Void> transfer(String token, String recipientID, long cents) {
+        CrossTransfers transfers = this.bank.getTransfers();
+        if (recipientID == null) {
+            return failed(Status.INVALID_ID);
+        } else if (transfers == null || transfers.isLocal(recipientID, 0, recipientID.length())) {
+            return this.change(Metrics.TRANSFER, LogRecord.TRANSFER, token, this.bank.getAccount(recipientID), cents);
+        }
+        Account account = this.bank.getSessions().verify(token);
+        Status status = this.authorize(account, token, cents);
+        if (status != Status.OK) {
+            return failed(status);
+        }
+        return this.call(() -> {
+            check(transfers.transfer(account, recipientID, cents));
+            return null;
+        });
+    }
+
+    /**
+     * Stops the service's threads once the requests given to them are done.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Applies and logs a deposit, withdrawal or transfer on the caller's thread, or publishes it to
+     * the bank's sequencer, completing the future once it is on disk.
+     * @param operation An int representing the operation recorded, such as Metrics.DEPOSIT.
+     * @param type The type of change, LogRecord.DEPOSIT, LogRecord.WITHDRAW or LogRecord.TRANSFER.
+     * @param token A String containing the token of the session making the change.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @return A CompletableFuture completed with the change's outcome.
+     */
+    private CompletableFuture<Void> change(int operation, byte type, String token, Account recipient, long cents) {
+        long start = System.nanoTime();
+        Metrics metrics = this.bank.getMetrics();
+        Account account = this.bank.getSessions().verify(token);
+        Status status = this.authorize(account, token, cents);
+        if (status != Status.OK) {
+            metrics.record(operation, start, false);
+            return failed(status);
+        }
+        CompletableFuture<Void> result = this.begin();
+        if (result == null) {
+            metrics.record(operation, start, false);
+            return failed(Status.BUSY);
+        }
+        result.whenComplete((ignored, e) -> metrics.record(operation, start, e == null));
+
+        SequencedEngine sequencer = this.bank.getSequencer();
+        if (sequencer != null) {
+            sequencer.publish(type, account, recipient, cents, outcome -> complete(result, outcome));
+            return result;
+        }
+        long[] lsn = new long[1];
+        status = this.bank.getEngine().apply(type, account, recipient, cents, lsn);
+        if (status != Status.OK) {
+            complete(result, status);
+        } else {
+            this.bank.getLog().commitAsync(lsn[0]).thenRun(() -> result.complete(null));
+        }
+        return result;
+    }
+
+    /**
+     * Runs a task on the service's threads.
+     * @param task A Callable returning the request's result or throwing a BankException.
+     * @return A CompletableFuture completed with the task's result.
+     */
+    private <T> CompletableFuture<T> call(Callable<T> task) {
+        CompletableFuture<T> result = this.begin();
+        if (result == null) {
+            return failed(Status.BUSY);
+        }
+        try {
+            this.executor.execute(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Takes a slot for a request, waiting for one to be free, and gives it back once the request completes.
+     * @return A CompletableFuture for the request, or null if no slot became free in time.
+     */
+    private <T> CompletableFuture<T> begin() {
+        try {
+            if (!this.slots.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        result.whenComplete((ignored, e) -> this.slots.release());
+        return result;
+    }
+
+    /**
+     * Checks that a session may move the given amount from its account.
+     * @param account The Account of the session, or null if its token is not accepted.
+     * @param token A String containing the session's token.
+     * @param cents A long containing the amount in cents.
+     * @return A Status representing whether the change may be made.
+     */
+    private Status authorize(Account account, String token, long cents) {
+        if (account == null) {
+            return Status.SESSION_EXPIRED;
+        } else if (this.bank.getReplica() != null) {
+            return Status.READ_ONLY;
+        } else if (!Bank.isValidAmount(cents)) {
+            return Status.INVALID_AMOUNT;
+        } else if (this.bank.getSessions().needsStepUp(token, cents)) {
+            return Status.PASSWORD_NEEDED;
+        }
+        return Status.OK;
+    }
+
+    /**
+     * Completes a future with nothing if the given outcome is OK, or with a BankException if not.
+     * @param future The CompletableFuture of the request.
+     * @param status The Status the request ended with.
+     */
+    private static void complete(CompletableFuture<Void> future, Status status) {
+        if (status == Status.OK) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(new BankException(status));
+        }
+    }
+
+    /**
+     * Throws a BankException unless the given outcome is OK.
+     * @param status The Status a request ended with.
+     */
+    private static void check(Status status) throws BankException {
+        if (status != Status.OK) {
+            throw new BankException(status);
+        }
+    }
+
+    /**
+     * Returns a future already failed with the given outcome.
+     * @param status The Status the request failed with.
+     * @return A CompletableFuture completed exceptionally with a BankException.
+     */
+    private static <T> CompletableFuture<T> failed(Status status) {
+        return CompletableFuture.failedFuture(new BankException(status));
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * Replays a file of banking operations against a bank without prompting. If netting is enabled,
+ * runs of consecutive transfers are committed in micro-batches by a TransferBatcher, so a transfer
+ * may succeed on the strength of a later transfer into its sender within the same batch. Netting
+ * is off if the bank has a sequencer, whose writer must make every change and already commits
+ * transfers in batches. Lines
+ * are read into one reused buffer and parsed in place, so replaying deposits, withdrawals and
+ * transfers between known accounts does not allocate per line.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class BatchRunner {
+
+    public static final String FORMAT =
+        """
+        register,<id>,<password>
+        deposit,<id>,<amount>
+        withdraw,<id>,<amount>
+        transfer,<sender id>,<recipient id>,<amount>""";
+
+    public static final int DEFAULT_BATCH_SIZE = 100_000;
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private static final int READ_BUFFER_CHARS = 1 << 16;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private int batchSize;
+    private TransferBatcher batcher;
+    private long[] pendingLines;
+    private Fields fields;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private long applied;
+    private long rejected;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public BatchRunner(Bank bank) {
+        this(bank, DEFAULT_BATCH_SIZE, false);
+    }
+
+    public BatchRunner(Bank bank, boolean netting) {
+        this(bank, DEFAULT_BATCH_SIZE, netting);
+    }
+
+    public BatchRunner(Bank bank, int batchSize, boolean netting) {
+        this.bank = bank;
+        this.batchSize = batchSize;
+        netting &= bank.getSequencer() == null;
+        this.batcher = netting ? new TransferBatcher(bank) : null;
+        this.pendingLines = netting ? new long[TransferBatcher.DEFAULT_CAPACITY] : null;
+        this.fields = new Fields();
+        this.buffer = new char[READ_BUFFER_CHARS];
+        this.applied = 0;
+        this.rejected = 0;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of operations applied successfully.
+     * @return A long representing the number of operations applied.
+     */
+    public long getApplied() {
+        return this.applied;
+    }
+
+    /**
+     * Gets the number of operations rejected.
+     * @return A long representing the number of operations rejected.
+     */
+    public long getRejected() {
+        return this.rejected;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Applies every operation in the file at the given pathname in order, reporting throughput per batch.
+     * @param pathname The file path of the file containing operations.
+     */
+    public void run(String pathname) throws Exception {
+        // Sync the log once per batch rather than once per operation
+        TransactionLog log = this.bank.getLog();
+        log.setSyncCommit(false);
+        try (Reader reader = new FileReader(pathname)) {
+            long lineNumber = 0;
+            long inBatch = 0;
+            long batch = 0;
+            long runStart = System.nanoTime();
+            long batchStart = runStart;
+
+            this.position = 0;
+            this.limit = 0;
+            StringBuilder line = new StringBuilder();
+            while (this.readLine(reader, line)) {
+                lineNumber++;
+                if (line.length() > 0 && line.charAt(0) == '#') {
+                    continue;
+                }
+                trim(line);
+                if (line.length() == 0) {
+                    continue;
+                }
+
+                // Queue transfers when netting, otherwise apply operation and tally outcome
+                if (this.batcher == null || !this.offer(line, lineNumber)) {
+                    this.commitPending();
+                    this.tally(this.apply(line), lineNumber);
+                }
+
+                // Report throughput of completed batch
+                if (++inBatch == this.batchSize) {
+                    this.commitPending();
+                    log.flush();
+                    long now = System.nanoTime();
+                    report(String.format("Batch %d", ++batch), inBatch, now - batchStart);
+                    inBatch = 0;
+                    batchStart = now;
+                }
+            }
+            this.commitPending();
+            log.flush();
+            if (inBatch > 0) {
+                report(String.format("Batch %d", ++batch), inBatch, System.nanoTime() - batchStart);
+            }
+            report("Total", this.applied + this.rejected, System.nanoTime() - runStart);
+            System.out.println(String.format("%d applied, %d rejected.", this.applied, this.rejected));
+            if (this.batcher != null) {
+                System.out.println(String.format("%d transfer batches, %d balance changes netted out.",
+                    this.batcher.getBatches(), this.batcher.getNetted()));
+            }
+        } finally {
+            log.setSyncCommit(true);
+        }
+    }
+
+    /**
+     * Applies a single operation record.
+     * @param record A CharSequence containing a comma separated operation record.
+     * @return A Status representing the outcome of the operation.
+     */
+    public Status apply(CharSequence record) throws Exception {
+        Fields fields = this.fields.split(record, ',');
+        Command command = Command.match(record, fields.start(0), fields.end(0));
+        if (command == null) {
+            return Status.INVALID_OPERATION;
+        }
+        switch (command) {
+            case REGISTER:
+                return fields.size() == 3 ? this.bank.register(fields.get(1), fields.get(2)) : Status.INVALID_OPERATION;
+            case DEPOSIT:
+                return fields.size() == 3 ? this.depositOrWithdraw(fields, true) : Status.INVALID_OPERATION;
+            case WITHDRAW:
+                return fields.size() == 3 ? this.depositOrWithdraw(fields, false) : Status.INVALID_OPERATION;
+            case TRANSFER:
+                if (fields.size() != 4) {
+                    return Status.INVALID_OPERATION;
+                }
+                Account sender = this.bank.getAccount(record, fields.start(1), fields.end(1));
+                if (sender == null) {
+                    return Status.INVALID_ID;
+                }
+                return this.bank.transfer(sender, this.bank.getAccount(record, fields.start(2), fields.end(2)),
+                    fields.cents(3));
+            default:
+                return Status.INVALID_OPERATION;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Queues a transfer record in the batcher, committing the batch first if it is full.
+     * @param record A CharSequence containing a comma separated operation record.
+     * @param lineNumber The line number of the record, reported if it is rejected.
+     * @return A boolean based on whether the record was queued, or false if it is not a well-formed transfer.
+     */
+    private boolean offer(CharSequence record, long lineNumber) {
+        Fields fields = this.fields.split(record, ',');
+        if (fields.size() != 4 || !fields.equalsIgnoreCase(0, "transfer")) {
+            return false;
+        }
+        Account sender = this.bank.getAccount(record, fields.start(1), fields.end(1));
+        Account recipient = this.bank.getAccount(record, fields.start(2), fields.end(2));
+        long cents = fields.cents(3);
+        if (!this.batcher.offer(sender, recipient, cents)) {
+            this.commitPending();
+            this.batcher.offer(sender, recipient, cents);
+        }
+        this.pendingLines[this.batcher.size() - 1] = lineNumber;
+        return true;
+    }
+
+    /**
+     * Commits the transfers queued in the batcher, if any, and tallies their outcomes.
+     */
+    private void commitPending() {
+        if (this.batcher == null || this.batcher.size() == 0) {
+            return;
+        }
+        Status[] statuses = this.batcher.commit();
+        for (int i = 0; i < statuses.length; i++) {
+            this.tally(statuses[i], this.pendingLines[i]);
+        }
+    }
+
+    /**
+     * Counts the outcome of an operation, reporting the first few rejections.
+     * @param status A Status representing the outcome of the operation.
+     * @param lineNumber The line number of the operation's record.
+     */
+    private void tally(Status status, long lineNumber) {
+        if (status == Status.OK) {
+            this.applied++;
+        } else {
+            this.rejected++;
+            if (this.rejected <= MAX_REPORTED_ERRORS) {
+                System.out.println(String.format("Line %d rejected: %s", lineNumber, status.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Deposits to or withdraws from the account in a record's second field.
+     * @param fields The Fields of the record: operation, ID and amount.
+     * @param deposit A boolean based on whether to deposit rather than withdraw.
+     * @return A Status representing the outcome of the operation.
+     */
+    private Status depositOrWithdraw(Fields fields, boolean deposit) {
+        Account account = this.bank.getAccount(fields.getLine(), fields.start(1), fields.end(1));
+        if (account == null) {
+            return Status.INVALID_ID;
+        }
+        long cents = fields.cents(2);
+        return deposit ? this.bank.deposit(account, cents) : this.bank.withdraw(account, cents);
+    }
+
+    /**
+     * Reads the next line into the given buffer, without its line terminator.
+     * @param reader The Reader to read from.
+     * @param line A StringBuilder to replace the contents of with the line.
+     * @return A boolean based on whether a line was read, or false at the end of the file.
+     */
+    private boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (this.position == this.limit) {
+                this.position = 0;
+                this.limit = Math.max(0, reader.read(this.buffer, 0, this.buffer.length));
+                if (this.limit == 0) {
+                    return line.length() > 0;
+                }
+            }
+            int start = this.position;
+            while (this.position < this.limit && this.buffer[this.position] != '\n') {
+                this.position++;
+            }
+            line.append(this.buffer, start, this.position - start);
+            if (this.position < this.limit) {
+                this.position++;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes leading and trailing whitespace, including a carriage return, from a line in place.
+     * @param line A StringBuilder containing the line.
+     */
+    private static void trim(StringBuilder line) {
+        int end = line.length();
+        while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        int start = 0;
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        line.setLength(end);
+        line.delete(0, start);
+    }
+
+    /**
+     * Prints the throughput of a number of operations applied over the given time.
+     * @param label A String labelling the operations.
+     * @param ops The number of operations applied.
+     * @param nanos The time taken in nanoseconds.
+     */
+    private static void report(String label, long ops, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%s: %,d ops in %.3fs (%,.0f ops/s)",
+            label, ops, seconds, seconds > 0 ? ops / seconds : 0));
+    }
+}
@@ -0,0 +1,1921 @@
+/**
+ * Runs microbenchmarks of the bank system's hot paths.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.*;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+public class Benchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int LOOKUPS_PER_ROUND = 1_000_000;
+    private static final int TRANSFER_ACCOUNTS = 10_000;
+    private static final long TRANSFER_MILLIS = 2_000;
+
+    // Accounts per node and clients per node of the partitions benchmark, with the share of transfers
+    // its mixed traffic sends to other nodes, and the balance of each account, enough that the few
+    // accounts sending never run out
+    private static final int PARTITION_ACCOUNTS = 1_000;
+    private static final long PARTITION_CENTS = Money.ofUnits(1_000_000);
+    private static final int PARTITION_CLIENTS = 8;
+    private static final int CROSS_PERCENT = 10;
+
+    // Clients reading balances from each server and clients writing to the primary in the replicas benchmark
+    private static final int READERS_PER_SERVER = 8;
+    private static final int REPLICA_WRITERS = 4;
+
+    // Sessions the service benchmark transfers from
+    private static final int SERVICE_SESSIONS = 64;
+
+    // Shared by generated accounts, since hashing a password per account would dominate setup
+    private static final Credential CREDENTIAL = Credential.create("pw");
+
+    // Results are also appended as JSON lines to the file set with -Dbench.output, labelled with -Dbench.label
+    private static final String OUTPUT = System.getProperty("bench.output");
+    private static final String LABEL = System.getProperty("bench.label", "");
+
+    // Keeps results reachable so the JIT cannot remove measured work
+    private static volatile Object sink;
+
+    // An operation measured by the alloc benchmark
+    private interface Operation {
+        Object run(String record) throws Exception;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Benchmarks
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Measures the latency of looking up accounts by ID for stores of the given sizes.
+     * @param sizes The numbers of accounts to store.
+     */
+    public static void lookup(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            // Populate store
+            AccountStore store = new HashAccountStore(size);
+            String[] ids = new String[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = "user" + i;
+                store.add(new Account(ids[i], CREDENTIAL, 0));
+            }
+
+            // Pre-compute a random access pattern over existing IDs
+            Random random = new Random(42);
+            String[] probes = new String[LOOKUPS_PER_ROUND];
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = ids[random.nextInt(size)];
+            }
+
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (String probe : probes) {
+                    sink = store.get(probe);
+                }
+                double nsPerOp = (double) (System.nanoTime() - start) / probes.length;
+                if (round >= WARMUP_ROUNDS) {
+                    best = Math.min(best, nsPerOp);
+                }
+            }
+            result("lookup", String.format("size=%d", size), String.format("ns/op=%.1f", best));
+        }
+    }
+
+    /**
+     * Measures transfer throughput between random accounts for each of the given thread counts,
+     * checking that the total balance is conserved.
+     * @param threadCounts The numbers of threads transferring concurrently.
+     */
+    public static void transfer(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) for (boolean lockFree : new boolean[] {false, true}) {
+            // Populate accounts with equal balances
+            Account[] accounts = new Account[TRANSFER_ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+            }
+            long expected = total(accounts);
+            TransactionEngine engine = new TransactionEngine(lockFree);
+
+            // Transfer between random pairs until time is up
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    while (running.get()) {
+                        Account sender = accounts[random.nextInt(accounts.length)];
+                        Account recipient = accounts[random.nextInt(accounts.length)];
+                        engine.transfer(sender, recipient, random.nextInt(1, 100));
+                        ops++;
+                    }
+                    return ops;
+                }));
+            }
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            long ops = 0;
+            for (Future<Long> count : counts) {
+                ops += count.get();
+            }
+            pool.shutdown();
+
+            boolean conserved = total(accounts) == expected;
+            result("transfer", String.format("mode=%s threads=%d", lockFree ? "lockfree" : "locked", threads),
+                String.format("ops/s=%.0f conserved=%b", ops * 1000.0 / TRANSFER_MILLIS, conserved));
+            if (!conserved) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures deposit throughput into a single hot account for each of the given thread counts,
+     * comparing the engine's compare-and-set credit against a locked read-modify-write.
+     * @param threadCounts The numbers of threads depositing concurrently.
+     */
+    public static void credit(int[] threadCounts) throws Exception {
+        TransactionEngine engine = new TransactionEngine(true);
+
+        for (int threads : threadCounts) for (boolean locked : new boolean[] {true, false}) {
+            Account hot = new Account("admin", CREDENTIAL, 0);
+            ReentrantLock lock = new ReentrantLock();
+
+            // Credit one cent per operation until time is up
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    long ops = 0;
+                    while (running.get()) {
+                        if (locked) {
+                            lock.lock();
+                            try {
+                                hot.setBalanceCents(hot.getBalanceCents() + 1);
+                            } finally {
+                                lock.unlock();
+                            }
+                        } else {
+                            engine.deposit(hot, 1);
+                        }
+                        ops++;
+                    }
+                    return ops;
+                }));
+            }
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            long ops = 0;
+            for (Future<Long> count : counts) {
+                ops += count.get();
+            }
+            pool.shutdown();
+
+            boolean exact = hot.getBalanceCents() == ops;
+            result("credit", String.format("mode=%s threads=%d", locked ? "locked" : "cas", threads),
+                String.format("ops/s=%.0f exact=%b", ops * 1000.0 / TRANSFER_MILLIS, exact));
+            if (!exact) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures the latency of checking a password against a hashed credential for each of the
+     * given iteration counts, and against a legacy encrypted credential.
+     * @param iterationCounts The numbers of hashing iterations.
+     */
+    public static void verify(int[] iterationCounts) throws Exception {
+        // Legacy credential, encrypted the way earlier versions did
+        SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        Cipher ciph = Cipher.getInstance("AES");
+        ciph.init(Cipher.ENCRYPT_MODE, key);
+        Credential legacy = Credential.legacy(ciph.doFinal("password1".getBytes("UTF8")), key.getEncoded());
+        result("verify", "scheme=aes", String.format("us/op=%.2f", verifyMicros(legacy, "password2", 20_000)));
+
+        for (int iterations : iterationCounts) {
+            Credential hashed = new Credential(Credential.HASH_SCHEME, iterations, new byte[16], new byte[32]);
+            int rounds = (int) Math.max(20, 20_000_000L / iterations);
+            result("verify", String.format("scheme=pbkdf2 iterations=%d", iterations),
+                String.format("us/op=%.2f", verifyMicros(hashed, "password2", rounds)));
+        }
+
+        // Repeated checks of a password that was already verified
+        Credential created = Credential.create("password1");
+        created.verify("password1");
+        result("verify", "scheme=pbkdf2 cached=true",
+            String.format("us/op=%.2f", verifyMicros(created, "password1", 1_000_000)));
+    }
+
+    /**
+     * Measures the time and heap taken to load an account file for each of the given sizes.
+     * @param sizes The numbers of accounts in the file.
+     */
+    public static void load(int[] sizes) throws Exception {
+        String credential = CREDENTIAL.encode();
+        for (int size : sizes) {
+            // Write account file
+            File file = File.createTempFile("accounts", ".csv");
+            file.deleteOnExit();
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+                writer.write(Bank.HEADINGS + "\n");
+                for (int i = 0; i < size; i++) {
+                    writer.write("user" + i + "," + credential + ",100.0\n");
+                }
+            }
+
+            // Load file, measuring heap retained by the loaded accounts
+            System.gc();
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+            Bank bank = new Bank(file.getPath());
+            double millis = (System.nanoTime() - start) / 1e6;
+            System.gc();
+            long heapAfter = usedHeap();
+            sink = bank;
+
+            result("load", String.format("size=%d", size),
+                String.format("ms=%.0f bytes/account=%d", millis, (heapAfter - heapBefore) / Math.max(1, size)));
+            bank.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Measures the time and write rate of saving an account file for each of the given sizes.
+     * @param sizes The numbers of accounts to save.
+     */
+    public static void save(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            File dir = Files.createTempDirectory("save").toFile();
+            File file = new File(dir, "accounts.csv");
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write(Bank.HEADINGS + "\n");
+            }
+            Bank bank = new Bank(file.getPath());
+            for (int i = 0; i < size; i++) {
+                Account account = new Account("user" + i, CREDENTIAL, 0);
+                account.setBalanceCents(i);
+                bank.getAccounts().add(account);
+            }
+
+            double best = Double.MAX_VALUE;
+            long bytes = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                SnapshotWriter saved = bank.saveAccountData(file.getPath());
+                bytes = saved.getBytes();
+                if (round >= WARMUP_ROUNDS) {
+                    best = Math.min(best, saved.getNanos() / 1e6);
+                }
+            }
+
+            result("save", String.format("size=%d", size),
+                String.format("ms=%.1f bytes=%d MB/s=%.1f", best, bytes, bytes / best / 1e3));
+            bank.close();
+            for (File created : dir.listFiles()) {
+                created.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Compares the file size, save time and load time of the CSV and binary formats for each of the
+     * given sizes.
+     * @param sizes The numbers of accounts to save and load.
+     */
+    public static void format(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String[] ids = new String[size];
+            Credential[] credentials = new Credential[size];
+            long[] balances = new long[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = "user" + i;
+                credentials[i] = CREDENTIAL;
+                balances[i] = i;
+            }
+
+            for (String extension : new String[] {".csv", SnapshotWriter.BINARY_EXTENSION}) {
+                File file = File.createTempFile("accounts", extension);
+                SnapshotWriter writer = new SnapshotWriter();
+                double saveMillis = Double.MAX_VALUE;
+                double loadMillis = Double.MAX_VALUE;
+                for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                    writer.write(file.getPath(), 0, ids, credentials, balances, size);
+                    AccountLoader loader = new AccountLoader(new HashAccountStore(size));
+                    long start = System.nanoTime();
+                    loader.load(file.getPath());
+                    if (round >= WARMUP_ROUNDS) {
+                        saveMillis = Math.min(saveMillis, writer.getNanos() / 1e6);
+                        loadMillis = Math.min(loadMillis, (System.nanoTime() - start) / 1e6);
+                    }
+                    sink = loader;
+                }
+
+                result("format", String.format("format=%s size=%d", extension.substring(1), size),
+                    String.format("bytes=%d save-ms=%.1f load-ms=%.1f", file.length(), saveMillis, loadMillis));
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Compares the heap and off-heap memory taken per account, and lookup latency, of the hash
+     * and off-heap stores for each of the given sizes. Each account gets its own credential.
+     * @param sizes The numbers of accounts to store.
+     */
+    public static void footprint(int[] sizes) throws Exception {
+        for (int size : sizes) for (boolean offHeap : new boolean[] {false, true}) {
+            System.gc();
+            long heapBefore = usedHeap();
+            AccountStore store = offHeap ? new OffHeapAccountStore(size) : new HashAccountStore(size);
+            Random random = new Random(42);
+            for (int i = 0; i < size; i++) {
+                byte[] salt = new byte[CREDENTIAL.getSalt().length];
+                byte[] hash = new byte[CREDENTIAL.getHash().length];
+                random.nextBytes(salt);
+                random.nextBytes(hash);
+                Account account = new Account("user" + i, new Credential(Credential.HASH_SCHEME,
+                    Credential.ITERATIONS, salt, hash), 0);
+                account.setBalanceCents(i);
+                store.add(account);
+            }
+            System.gc();
+            long heapBytes = usedHeap() - heapBefore;
+            long offHeapBytes = offHeap ? ((OffHeapAccountStore) store).getOffHeapBytes() : 0;
+
+            // Look up random accounts and read their balances
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                long total = 0;
+                for (int i = 0; i < LOOKUPS_PER_ROUND; i++) {
+                    total += store.get("user" + random.nextInt(size)).getBalanceCents();
+                }
+                sink = total;
+                if (round >= WARMUP_ROUNDS) {
+                    best = Math.min(best, (double) (System.nanoTime() - start) / LOOKUPS_PER_ROUND);
+                }
+            }
+
+            result("footprint", String.format("store=%s size=%d", offHeap ? "offheap" : "heap", size),
+                String.format("heap-bytes/account=%d off-heap-bytes/account=%d ns/lookup=%.1f",
+                heapBytes / Math.max(1, size), offHeapBytes / Math.max(1, size), best));
+            sink = store;
+            store = null;
+        }
+    }
+
+    /**
+     * Measures the time to fetch a page of one account's ledger entries from a random point in
+     * its history, for each of the given numbers of entries posted to that account.
+     * @param sizes The numbers of transactions to post to the account.
+     */
+    public static void ledger(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            File dir = Files.createTempDirectory("ledger").toFile();
+            Ledger ledger = new Ledger(new File(dir, "accounts.csv").getPath());
+
+            // Post deposits to one account, interleaved with transfers between others, a millisecond apart
+            long start = System.nanoTime();
+            long time = System.currentTimeMillis();
+            for (int i = 1; i <= size; i++) {
+                ledger.post(new LogRecord(2L * i - 1, time + i, LogRecord.DEPOSIT, "hot", null, 100, null));
+                ledger.post(new LogRecord(2L * i, time + i, LogRecord.TRANSFER, "user" + i % 1000,
+                    "user" + (i + 1) % 1000, 100, null));
+            }
+            ledger.flush();
+            double postMillis = (System.nanoTime() - start) / 1e6;
+
+            // Fetch pages starting at random times
+            Random random = new Random(42);
+            int fetches = 10_000;
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                start = System.nanoTime();
+                for (int i = 0; i < fetches; i++) {
+                    long from = time + 1 + random.nextInt(size);
+                    List<LedgerEntry> page = ledger.entries("hot", from, from + 1000, 0, Bank.STATEMENT_PAGE);
+                    sink = page;
+                }
+                if (round >= WARMUP_ROUNDS) {
+                    best = Math.min(best, (System.nanoTime() - start) / 1e3 / fetches);
+                }
+            }
+
+            result("ledger", String.format("entries/account=%d", size),
+                String.format("posts/s=%.0f us/page=%.1f", 4 * size / (postMillis / 1e3), best));
+            ledger.close();
+            for (File created : dir.listFiles()[0].listFiles()) {
+                created.delete();
+            }
+            dir.listFiles()[0].delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Measures the throughput of concurrent deposits that each wait for their log record to be
+     * on disk, for each of the given thread counts, and how many commits share each sync.
+     * @param threadCounts The numbers of threads depositing concurrently.
+     */
+    public static void wal(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) {
+            File dir = Files.createTempDirectory("wal").toFile();
+            TransactionLog log = new TransactionLog(new File(dir, "accounts.csv").getPath());
+            log.replay(0, record -> { });
+            TransactionEngine engine = new TransactionEngine();
+            engine.setLog(log);
+            Account[] accounts = new Account[TRANSFER_ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, 0);
+            }
+
+            // Deposit with synchronous commits until time is up
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    while (running.get()) {
+                        engine.deposit(accounts[random.nextInt(accounts.length)], 1);
+                        ops++;
+                    }
+                    return ops;
+                }));
+            }
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            long ops = 0;
+            for (Future<Long> count : counts) {
+                ops += count.get();
+            }
+            pool.shutdown();
+            log.close();
+
+            result("wal", String.format("threads=%d", threads), String.format("ops/s=%.0f syncs=%d ops/sync=%.1f",
+                ops * 1000.0 / TRANSFER_MILLIS, log.getSyncs(), (double) ops / Math.max(1, log.getSyncs())));
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Measures sustained transfer throughput through a logged bank, applying a fixed stream of
+     * transfers one at a time and then in netted micro-batches of each of the given sizes.
+     * @param batchSizes The numbers of transfers per batch.
+     */
+    public static void batching(int[] batchSizes) throws Exception {
+        // Pre-compute a stream of transfers between random accounts
+        int transfers = 1_000_000;
+        Random random = new Random(42);
+        String[] senders = new String[transfers];
+        String[] recipients = new String[transfers];
+        long[] amounts = new long[transfers];
+        for (int i = 0; i < transfers; i++) {
+            senders[i] = "user" + random.nextInt(TRANSFER_ACCOUNTS);
+            recipients[i] = "user" + random.nextInt(TRANSFER_ACCOUNTS);
+            amounts[i] = Money.ofUnits(random.nextInt(1, 100));
+        }
+
+        // A batch size of zero stands for applying each transfer on its own
+        int[] runs = new int[batchSizes.length + 1];
+        System.arraycopy(batchSizes, 0, runs, 1, batchSizes.length);
+        for (int batchSize : runs) {
+            File dir = Files.createTempDirectory("batching").toFile();
+            File data = new File(dir, "accounts.csv");
+            try (PrintWriter writer = new PrintWriter(data)) {
+                writer.println(Bank.HEADINGS);
+            }
+            Bank bank = new Bank(data.getPath());
+            for (int i = 0; i < TRANSFER_ACCOUNTS; i++) {
+                bank.getAccounts().add(new Account("user" + i, CREDENTIAL, Money.ofUnits(1000)));
+            }
+            bank.getLog().setSyncCommit(false);
+
+            long applied = 0;
+            long start = System.nanoTime();
+            if (batchSize == 0) {
+                for (int i = 0; i < transfers; i++) {
+                    Account sender = bank.getAccount(senders[i]);
+                    if (bank.transfer(sender, bank.getAccount(recipients[i]), amounts[i]) == Status.OK) {
+                        applied++;
+                    }
+                }
+            } else {
+                TransferBatcher batcher = new TransferBatcher(bank, batchSize);
+                for (int i = 0; i <= transfers; i++) {
+                    if (i == transfers || !batcher.offer(senders[i], recipients[i], amounts[i])) {
+                        for (Status status : batcher.commit()) {
+                            applied += status == Status.OK ? 1 : 0;
+                        }
+                        if (i < transfers) {
+                            batcher.offer(senders[i], recipients[i], amounts[i]);
+                        }
+                    }
+                }
+            }
+            bank.getLog().flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            result("batching", "batch=" + (batchSize == 0 ? "none" : String.valueOf(batchSize)),
+                String.format("transfers/s=%.0f applied=%d", transfers / seconds, applied));
+            bank.close();
+            deleteTree(dir);
+        }
+    }
+
+    /**
+     * Measures transfer throughput when 90% of transfers pay a single admin account and the rest
+     * are payouts from it, for each of the given thread counts, comparing a plain admin account
+     * against one with a sharded balance and checking that the total balance is conserved.
+     * @param threadCounts The numbers of threads transferring concurrently.
+     */
+    public static void hot(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) for (boolean sharded : new boolean[] {false, true}) {
+            // Populate accounts with equal balances, and an admin account holding as much as all of them
+            Account[] accounts = new Account[TRANSFER_ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+            }
+            Account plain = new Account("admin", CREDENTIAL, Money.ofUnits(1000L * accounts.length));
+            Account admin = sharded ? new HotAccount(plain) : plain;
+            long expected = total(accounts) + admin.getBalanceCents();
+            TransactionEngine engine = new TransactionEngine();
+
+            // Pay the admin account or pay out from it until time is up
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    while (running.get()) {
+                        Account account = accounts[random.nextInt(accounts.length)];
+                        if (random.nextInt(10) == 0) {
+                            engine.transfer(admin, account, random.nextInt(1, 100));
+                        } else {
+                            engine.transfer(account, admin, random.nextInt(1, 100));
+                        }
+                        ops++;
+                    }
+                    return ops;
+                }));
+            }
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            long ops = 0;
+            for (Future<Long> count : counts) {
+                ops += count.get();
+            }
+            pool.shutdown();
+
+            boolean conserved = total(accounts) + admin.getBalanceCents() == expected;
+            result("hot", String.format("mode=%s threads=%d", sharded ? "sharded" : "plain", threads),
+                String.format("ops/s=%.0f conserved=%b", ops * 1000.0 / TRANSFER_MILLIS, conserved));
+            if (!conserved) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures the cost of recording an operation's latency for each of the given thread counts.
+     * @param threadCounts The numbers of threads recording concurrently.
+     */
+    public static void metrics(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) {
+            Metrics metrics = new Metrics();
+
+            // Record deposits until time is up
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    long ops = 0;
+                    while (running.get()) {
+                        metrics.record(Metrics.DEPOSIT, System.nanoTime(), true);
+                        ops++;
+                    }
+                    return ops;
+                }));
+            }
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            long ops = 0;
+            for (Future<Long> count : counts) {
+                ops += count.get();
+            }
+            pool.shutdown();
+
+            boolean exact = metrics.getCount(Metrics.DEPOSIT) == ops;
+            result("metrics", String.format("threads=%d", threads), String.format("ns/op=%.1f exact=%b",
+                threads * TRANSFER_MILLIS * 1e6 / ops, exact));
+            if (!exact) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures throughput of a mix of 95% balance reads and 5% transfers for each of the given
+     * thread counts, with and without a total being taken every 10ms alongside. Every total must
+     * equal the starting total, as transfers conserve it; a plain sum of the balances taken
+     * alongside is counted as torn whenever it does not.
+     * @param threadCounts The numbers of threads reading and transferring concurrently.
+     */
+    public static void snapshot(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) for (boolean totals : new boolean[] {false, true}) {
+            Account[] accounts = new Account[10 * TRANSFER_ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+            }
+            List<Account> book = Arrays.asList(accounts);
+            long expected = total(accounts);
+            TransactionEngine engine = new TransactionEngine();
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+            List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    long read = 0;
+                    while (running.get()) {
+                        Account account = accounts[random.nextInt(accounts.length)];
+                        if (random.nextInt(100) < 5) {
+                            engine.transfer(account, accounts[random.nextInt(accounts.length)], random.nextInt(1, 100));
+                        } else {
+                            read += account.getBalanceCents();
+                        }
+                        ops++;
+                    }
+                    sink = read;
+                    return ops;
+                }));
+            }
+
+            // Take a consistent total and a plain sum every 10ms until time is up
+            long[] snapshots = new long[4]; // Totals, nanoseconds, wrong totals, torn sums
+            Future<?> taker = pool.submit(() -> {
+                while (totals && running.get()) {
+                    long start = System.nanoTime();
+                    long total = engine.totalBalance(book);
+                    snapshots[1] += System.nanoTime() - start;
+                    snapshots[0]++;
+                    snapshots[2] += total != expected ? 1 : 0;
+                    snapshots[3] += total(accounts) != expected ? 1 : 0;
+                    Thread.sleep(10);
+                }
+                return null;
+            });
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            taker.get();
+            long ops = 0;
+            for (Future<Long> count : counts) {
+                ops += count.get();
+            }
+            pool.shutdown();
+
+            boolean consistent = snapshots[2] == 0 && total(accounts) == expected;
+            result("snapshot", String.format("threads=%d totals=%b", threads, totals),
+                String.format("ops/s=%.0f totals=%d total_ms=%.2f consistent=%b torn_sums=%d",
+                ops * 1000.0 / TRANSFER_MILLIS, snapshots[0], snapshots[0] > 0 ? snapshots[1] / 1e6 / snapshots[0] : 0,
+                consistent, snapshots[3]));
+            if (!consistent) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures throughput of authenticated deposits for each of the given thread counts, checking
+     * the password on every deposit, checking a session token instead, and checking a token with 1%
+     * of deposits large enough to need the password again. Fails unless every check succeeds.
+     * @param threadCounts The numbers of threads depositing concurrently.
+     */
+    public static void session(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) for (String mode : new String[] {"password", "token", "stepup"}) {
+            Account[] accounts = new Account[TRANSFER_ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, 0);
+            }
+            // Room for every session in every segment, and step-ups never hold, so every large deposit checks the password
+            SessionCache sessions = new SessionCache(2 * accounts.length, 3600, 3600, Money.ofUnits(10_000), 0);
+            String[] tokens = new String[accounts.length];
+            for (int i = 0; i < accounts.length; i++) {
+                tokens[i] = sessions.issue(accounts[i]);
+            }
+            TransactionEngine engine = new TransactionEngine();
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<long[]>> counts = new ArrayList<Future<long[]>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long[] ops = new long[2]; // Deposits, failed checks
+                    while (running.get()) {
+                        int i = random.nextInt(accounts.length);
+                        long cents = mode.equals("stepup") && random.nextInt(100) == 0 ? Money.ofUnits(10_000) : 1;
+                        boolean authenticated;
+                        if (mode.equals("password")) {
+                            authenticated = accounts[i].checkPw("pw");
+                        } else {
+                            authenticated = sessions.verify(tokens[i]) == accounts[i]
+                                && (!sessions.needsStepUp(tokens[i], cents) || sessions.stepUp(tokens[i], "pw"));
+                        }
+                        if (!authenticated || engine.deposit(accounts[i], cents) != Status.OK) {
+                            ops[1]++;
+                        }
+                        ops[0]++;
+                    }
+                    return ops;
+                }));
+            }
+            Thread.sleep(TRANSFER_MILLIS);
+            running.set(false);
+            long ops = 0;
+            long failed = 0;
+            for (Future<long[]> count : counts) {
+                ops += count.get()[0];
+                failed += count.get()[1];
+            }
+            pool.shutdown();
+
+            result("session", String.format("mode=%s threads=%d", mode, threads),
+                String.format("ops/s=%.0f failed=%d", ops * 1000.0 / TRANSFER_MILLIS, failed));
+            if (failed > 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures transfer throughput through a router to a partitioned bank of each of the given
+     * numbers of node processes on this machine, with clients per node sending transfers that stay
+     * on their own node and transfers of which some go to other nodes. During the mixed traffic the
+     * second node is killed and restarted, so that two-phase commits in flight must recover. Fails
+     * unless the total balance over all nodes is conserved once in-doubt transfers are resolved.
+     * @param nodeCounts The numbers of nodes.
+     */
+    public static void partitions(int[] nodeCounts) throws Exception {
+        for (int nodes : nodeCounts) {
+            // Give every node its own directory and account file, holding the accounts it owns
+            int[] ports = new int[nodes + 1];
+            StringBuilder addresses = new StringBuilder();
+            for (int i = 0; i <= nodes; i++) {
+                try (ServerSocket socket = new ServerSocket(0)) {
+                    ports[i] = socket.getLocalPort();
+                }
+                if (i < nodes) {
+                    addresses.append(i > 0 ? "," : "").append("localhost:").append(ports[i]);
+                }
+            }
+            Partitions partitions = new Partitions(addresses.toString(), -1, "");
+            String[][] ids = new String[nodes][PARTITION_ACCOUNTS];
+            int[] filled = new int[nodes];
+            for (int k = 0, done = 0; done < nodes; k++) {
+                int node = partitions.owner("user" + k);
+                if (filled[node] < PARTITION_ACCOUNTS) {
+                    ids[node][filled[node]++] = "user" + k;
+                    done += filled[node] == PARTITION_ACCOUNTS ? 1 : 0;
+                }
+            }
+            File[] dirs = new File[nodes];
+            Credential[] credentials = new Credential[PARTITION_ACCOUNTS];
+            long[] balances = new long[PARTITION_ACCOUNTS];
+            Arrays.fill(credentials, CREDENTIAL);
+            Arrays.fill(balances, PARTITION_CENTS);
+            for (int i = 0; i < nodes; i++) {
+                dirs[i] = Files.createTempDirectory("partition" + i).toFile();
+                new SnapshotWriter().write(new File(dirs[i], "accounts.csv").getPath(), 0, ids[i], credentials,
+                    balances, PARTITION_ACCOUNTS);
+            }
+            long expected = PARTITION_CENTS * PARTITION_ACCOUNTS * nodes;
+
+            // Start the nodes and a router in front of them
+            Process[] processes = new Process[nodes];
+            for (int i = 0; i < nodes; i++) {
+                processes[i] = startNode(dirs[i], addresses.toString(), i, ports[i]);
+            }
+            Process router = new ProcessBuilder(javaCommand("-Dbank.partition.nodes=" + addresses, "Bank",
+                "--router", String.valueOf(ports[nodes]))).redirectErrorStream(true)
+                .redirectOutput(new File(dirs[0], "router.log")).start();
+            for (int port : ports) {
+                awaitPort(port);
+            }
+
+            // Warm up on local traffic before measuring it, then mixed traffic
+            for (int round = 0; round < 3; round++) {
+                int cross = round == 2 ? CROSS_PERCENT : 0;
+                boolean crash = cross > 0 && nodes > 1;
+                AtomicBoolean running = new AtomicBoolean(true);
+                ExecutorService pool = Executors.newFixedThreadPool(PARTITION_CLIENTS * nodes);
+                List<Future<Long>> counts = new ArrayList<Future<Long>>();
+                for (int c = 0; c < PARTITION_CLIENTS * nodes; c++) {
+                    int node = c % nodes;
+                    String sender = ids[node][c / nodes];
+                    counts.add(pool.submit(() -> partitionClient(ports[nodes], ids, node, sender, cross, running)));
+                }
+                if (crash) {
+                    Thread.sleep(TRANSFER_MILLIS / 2);
+                    processes[1].destroyForcibly().waitFor();
+                    processes[1] = startNode(dirs[1], addresses.toString(), 1, ports[1]);
+                    Thread.sleep(TRANSFER_MILLIS / 2);
+                } else {
+                    Thread.sleep(TRANSFER_MILLIS);
+                }
+                running.set(false);
+                long ops = 0;
+                for (Future<Long> count : counts) {
+                    ops += count.get();
+                }
+                pool.shutdown();
+                if (round == 0) {
+                    continue;
+                }
+                double opsPerSecond = ops * 1000.0 / TRANSFER_MILLIS;
+                result("partitions", String.format("traffic=%s nodes=%d", cross > 0 ? "mixed" : "local", nodes),
+                    String.format("ops/s=%.0f ops/s/node=%.0f restarted=%b", opsPerSecond, opsPerSecond / nodes, crash));
+            }
+
+            // Let in-doubt transfers resolve, stop every process so that each node saves, and sum them all
+            awaitPort(ports[1 % nodes]);
+            Thread.sleep(5 * CrossTransfers.RETRY_MILLIS);
+            router.destroy();
+            for (Process process : processes) {
+                process.destroy();
+            }
+            long total = 0;
+            for (int i = 0; i < nodes; i++) {
+                processes[i].waitFor();
+                Bank bank = new Bank(new File(dirs[i], "accounts.csv").getPath());
+                for (String id : ids[i]) {
+                    total += bank.getAccount(id).getBalanceCents();
+                }
+                bank.close();
+                deleteTree(dirs[i]);
+            }
+            router.waitFor();
+
+            boolean conserved = total == expected;
+            result("partitions", String.format("nodes=%d", nodes), String.format("conserved=%b", conserved));
+            if (!conserved) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures balance reads served by a primary and each of the given numbers of read replica
+     * processes on this machine, while clients transfer on the primary, and the replication lag: the
+     * time from a deposit confirmed by the primary until every replica shows it. Then kills the
+     * primary and promotes the first replica, failing unless it holds the primary's total assets.
+     * @param replicaCounts The numbers of replicas.
+     */
+    public static void replicas(int[] replicaCounts) throws Exception {
+        for (int replicas : replicaCounts) {
+            // Ports for the primary's sessions, its log shipping and each replica's sessions
+            int[] ports = new int[replicas + 2];
+            for (int i = 0; i < ports.length; i++) {
+                try (ServerSocket socket = new ServerSocket(0)) {
+                    ports[i] = socket.getLocalPort();
+                }
+            }
+            String[] ids = new String[PARTITION_ACCOUNTS];
+            Credential[] credentials = new Credential[PARTITION_ACCOUNTS];
+            long[] balances = new long[PARTITION_ACCOUNTS];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = "user" + i;
+            }
+            Arrays.fill(credentials, CREDENTIAL);
+            Arrays.fill(balances, PARTITION_CENTS);
+            File[] dirs = new File[replicas + 1];
+            for (int i = 0; i < dirs.length; i++) {
+                dirs[i] = Files.createTempDirectory(i == 0 ? "primary" : "replica" + i).toFile();
+            }
+            new SnapshotWriter().write(new File(dirs[0], "accounts.csv").getPath(), 0, ids, credentials, balances,
+                ids.length);
+
+            // Start the primary, then replicas copying it
+            Process[] processes = new Process[replicas + 1];
+            processes[0] = new ProcessBuilder(javaCommand("-Dbank.replication.port=" + ports[1],
+                "-Dbank.replication.secret=benchmark", "Bank", "--server", String.valueOf(ports[0])))
+                .directory(dirs[0]).redirectErrorStream(true).redirectOutput(new File(dirs[0], "node.log")).start();
+            awaitPort(ports[0]);
+            awaitPort(ports[1]);
+            int[] serverPorts = new int[replicas + 1];
+            serverPorts[0] = ports[0];
+            for (int i = 1; i <= replicas; i++) {
+                serverPorts[i] = ports[i + 1];
+                processes[i] = new ProcessBuilder(javaCommand("-Dbank.replication.primary=localhost:" + ports[1],
+                    "-Dbank.replication.secret=benchmark", "Bank", "--replica", String.valueOf(serverPorts[i])))
+                    .directory(dirs[i]).redirectErrorStream(true).redirectOutput(new File(dirs[i], "node.log")).start();
+                awaitPort(serverPorts[i]);
+            }
+
+            // Warm up, then measure reads on every server while writers transfer on the primary and a
+            // probe deposits to an account no one else uses, timing how long each replica takes to show it
+            for (int round = 0; round < 2; round++) {
+                AtomicBoolean running = new AtomicBoolean(true);
+                ExecutorService pool = Executors.newCachedThreadPool();
+                List<Future<Long>> reads = new ArrayList<Future<Long>>();
+                List<Future<Long>> writes = new ArrayList<Future<Long>>();
+                for (int server = 0; server <= replicas; server++) {
+                    for (int c = 0; c < READERS_PER_SERVER; c++) {
+                        int port = serverPorts[server];
+                        String id = ids[1 + c];
+                        reads.add(pool.submit(() -> {
+                            try (LineClient client = new LineClient(port)) {
+                                client.request("LOGIN " + id + " pw");
+                                long ops = 0;
+                                while (running.get()) {
+                                    ops += client.request("BALANCE").startsWith("OK") ? 1 : 0;
+                                }
+                                return ops;
+                            }
+                        }));
+                    }
+                }
+                for (int w = 0; w < REPLICA_WRITERS; w++) {
+                    String id = ids[1 + READERS_PER_SERVER + w];
+                    writes.add(pool.submit(() -> {
+                        try (LineClient client = new LineClient(ports[0])) {
+                            client.request("LOGIN " + id + " pw");
+                            ThreadLocalRandom random = ThreadLocalRandom.current();
+                            long ops = 0;
+                            while (running.get()) {
+                                String recipient = ids[random.nextInt(1, ids.length)];
+                                ops += client.request("TRANSFER " + recipient + " 1").startsWith("OK") ? 1 : 0;
+                            }
+                            return ops;
+                        }
+                    }));
+                }
+                Future<List<Long>> lags = pool.submit(() -> replicationLags(ids[0], serverPorts, running));
+                Thread.sleep(TRANSFER_MILLIS);
+                running.set(false);
+                long readOps = 0;
+                long writeOps = 0;
+                for (Future<Long> count : reads) {
+                    readOps += count.get();
+                }
+                for (Future<Long> count : writes) {
+                    writeOps += count.get();
+                }
+                List<Long> lag = lags.get();
+                pool.shutdown();
+                if (round == 0) {
+                    continue;
+                }
+                Collections.sort(lag);
+                double readsPerSecond = readOps * 1000.0 / TRANSFER_MILLIS;
+                result("replicas", String.format("replicas=%d", replicas), String.format(
+                    "read_ops/s=%.0f read_ops/s/server=%.0f write_ops/s=%.0f lag_p50_ms=%.2f lag_p99_ms=%.2f",
+                    readsPerSecond, readsPerSecond / (replicas + 1), writeOps * 1000.0 / TRANSFER_MILLIS,
+                    lag.isEmpty() ? 0 : lag.get(lag.size() / 2) / 1e6,
+                    lag.isEmpty() ? 0 : lag.get((int) (lag.size() * 0.99)) / 1e6));
+            }
+
+            // Kill the primary once replicas have every write, then promote the first replica
+            boolean promoted = true;
+            if (replicas > 0) {
+                String assets;
+                try (LineClient admin = new LineClient(ports[0])) {
+                    admin.request("LOGIN admin admin");
+                    assets = admin.request("ASSETS");
+                }
+                Thread.sleep(500);
+                processes[0].destroyForcibly().waitFor();
+                try (LineClient admin = new LineClient(serverPorts[1])) {
+                    admin.request("LOGIN admin admin");
+                    promoted = admin.request("PROMOTE").startsWith("OK") && admin.request("ASSETS").equals(assets)
+                        && admin.request("DEPOSIT 1").startsWith("OK");
+                }
+                result("replicas", String.format("replicas=%d", replicas), String.format("promoted=%b", promoted));
+            }
+            for (Process process : processes) {
+                process.destroy();
+                process.waitFor();
+            }
+            for (File dir : dirs) {
+                deleteTree(dir);
+            }
+            if (!promoted) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures throughput and latency percentiles of logged transfers for each of the given thread
+     * counts, applied by the threads themselves through the lock-based engine and published to the
+     * single writer of a sequenced engine, with commits that do and do not wait for disk. Fails
+     * unless the total balance is conserved.
+     * @param threadCounts The numbers of threads transferring concurrently.
+     */
+    public static void sequenced(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) for (boolean sync : new boolean[] {false, true}) {
+            for (boolean sequenced : new boolean[] {false, true}) {
+                File dir = Files.createTempDirectory("sequenced").toFile();
+                TransactionLog log = new TransactionLog(new File(dir, "accounts.csv").getPath());
+                log.replay(0, record -> { });
+                log.setSyncCommit(sync);
+                TransactionEngine engine = new TransactionEngine();
+                engine.setLog(log);
+                SequencedEngine sequencer = sequenced ? new SequencedEngine(engine) : null;
+                Account[] accounts = new Account[TRANSFER_ACCOUNTS];
+                for (int i = 0; i < accounts.length; i++) {
+                    accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+                }
+                long expected = total(accounts);
+
+                // Transfer between random pairs until time is up, timing each transfer
+                Metrics metrics = new Metrics();
+                AtomicBoolean running = new AtomicBoolean(true);
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                List<Future<Long>> counts = new ArrayList<Future<Long>>();
+                for (int t = 0; t < threads; t++) {
+                    counts.add(pool.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long ops = 0;
+                        while (running.get()) {
+                            Account sender = accounts[random.nextInt(accounts.length)];
+                            Account recipient = accounts[random.nextInt(accounts.length)];
+                            long cents = random.nextInt(1, 100);
+                            long start = System.nanoTime();
+                            Status status = sequenced
+                                ? sequencer.transfer(sender, recipient, cents) : engine.transfer(sender, recipient, cents);
+                            metrics.record(Metrics.TRANSFER, start, status == Status.OK);
+                            ops++;
+                        }
+                        return ops;
+                    }));
+                }
+                Thread.sleep(TRANSFER_MILLIS);
+                running.set(false);
+                long ops = 0;
+                for (Future<Long> count : counts) {
+                    ops += count.get();
+                }
+                pool.shutdown();
+                if (sequenced) {
+                    sequencer.close();
+                }
+                log.close();
+                deleteTree(dir);
+
+                boolean conserved = total(accounts) == expected;
+                result("sequenced", String.format("mode=%s sync=%b threads=%d", sequenced ? "sequenced" : "locked",
+                    sync, threads), String.format("ops/s=%.0f p50_us=%.1f p99_us=%.1f ops/batch=%.1f conserved=%b",
+                    ops * 1000.0 / TRANSFER_MILLIS, metrics.getPercentile(Metrics.TRANSFER, 50) / 1e3,
+                    metrics.getPercentile(Metrics.TRANSFER, 99) / 1e3,
+                    sequenced ? (double) sequencer.getApplied() / Math.max(1, sequencer.getBatches()) : 1.0, conserved));
+                if (!conserved) {
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures throughput and latency percentiles of logged transfers made through a BankService
+     * by one caller, waiting for each before the next and keeping each of the given numbers of
+     * transfers in flight, with commits that wait for disk. Fails unless the total balance is
+     * conserved and every transfer that failed did so for want of funds.
+     * @param windows The numbers of transfers in flight, 1 being sequential.
+     */
+    public static void service(int[] windows) throws Exception {
+        for (int window : windows) {
+            File dir = Files.createTempDirectory("service").toFile();
+            File data = new File(dir, "accounts.csv");
+            try (PrintWriter writer = new PrintWriter(data)) {
+                writer.println(Bank.HEADINGS);
+            }
+            Bank bank = new Bank(data.getPath());
+            bank.getLog().setSyncCommit(true);
+            Account[] accounts = new Account[TRANSFER_ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+                bank.getAccounts().add(accounts[i]);
+            }
+            long expected = total(accounts);
+            BankService service = new BankService(bank, BankService.THREADS, Math.max(window, SERVICE_SESSIONS));
+
+            // Log in every session at once, then transfer between random sessions' accounts until time is up
+            List<CompletableFuture<String>> logins = new ArrayList<CompletableFuture<String>>();
+            for (int i = 0; i < SERVICE_SESSIONS; i++) {
+                logins.add(service.login("user" + i, "pw"));
+            }
+            String[] tokens = new String[SERVICE_SESSIONS];
+            for (int i = 0; i < SERVICE_SESSIONS; i++) {
+                tokens[i] = logins.get(i).join();
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ArrayDeque<CompletableFuture<Void>> inFlight = new ArrayDeque<CompletableFuture<Void>>();
+            long[] failures = new long[2]; // For want of funds, for any other reason
+            long syncs = bank.getLog().getSyncs();
+            long ops = 0;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TRANSFER_MILLIS);
+            while (System.nanoTime() < deadline) {
+                if (inFlight.size() >= window) {
+                    await(inFlight.poll(), failures);
+                }
+                inFlight.add(service.transfer(tokens[random.nextInt(tokens.length)],
+                    accounts[random.nextInt(tokens.length)].getID(), random.nextInt(1, 100)));
+                ops++;
+            }
+            while (!inFlight.isEmpty()) {
+                await(inFlight.poll(), failures);
+            }
+            syncs = bank.getLog().getSyncs() - syncs;
+            Metrics metrics = bank.getMetrics();
+            service.close();
+            bank.close();
+            deleteTree(dir);
+
+            boolean conserved = total(accounts) == expected && failures[1] == 0;
+            result("service", String.format("mode=%s in_flight=%d", window == 1 ? "sequential" : "pipelined", window),
+                String.format("ops/s=%.0f p50_us=%.1f p99_us=%.1f ops/sync=%.1f insufficient=%d conserved=%b",
+                ops * 1000.0 / TRANSFER_MILLIS, metrics.getPercentile(Metrics.TRANSFER, 50) / 1e3,
+                metrics.getPercentile(Metrics.TRANSFER, 99) / 1e3, (double) ops / Math.max(1, syncs), failures[0],
+                conserved));
+            if (!conserved) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures the accounts processed per second, and per thread, by each admin job over a million
+     * accounts for each of the given numbers of threads, while another thread keeps making logged
+     * deposits and transfers. Fails unless every reconciliation balances against the ledger.
+     * @param parallelisms The numbers of threads the jobs run on.
+     */
+    public static void jobs(int[] parallelisms) throws Exception {
+        int size = 100 * TRANSFER_ACCOUNTS;
+        for (int parallelism : parallelisms) {
+            File dir = Files.createTempDirectory("jobs").toFile();
+            File data = new File(dir, "accounts.csv");
+            try (PrintWriter writer = new PrintWriter(data)) {
+                writer.println(Bank.HEADINGS);
+            }
+            Bank bank = new Bank(data.getPath());
+            Account[] accounts = new Account[size];
+            for (int i = 0; i < size; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+                bank.getAccounts().add(accounts[i]);
+            }
+            Account admin = new Account("admin", CREDENTIAL, 0);
+            bank.getAccounts().add(admin);
+            bank.getLog().setSyncCommit(false);
+            AdminJobs jobs = new AdminJobs(bank, parallelism);
+
+            // Live traffic the jobs run alongside
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread traffic = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    Account account = accounts[random.nextInt(size)];
+                    if (random.nextBoolean()) {
+                        bank.deposit(account, random.nextInt(1, 100));
+                    } else {
+                        bank.transfer(account, accounts[random.nextInt(size)], random.nextInt(1, 100));
+                    }
+                }
+            });
+            traffic.start();
+
+            boolean balanced = true;
+            for (int round = 0; round < 2; round++) {
+                AdminJob[] runs = new AdminJob[3];
+                runs[0] = jobs.accrueInterest(AdminJobs.parseRate("2.5"));
+                runs[0].await();
+                runs[1] = jobs.sweepFees(admin, Money.ofUnits(1));
+                runs[1].await();
+                runs[2] = jobs.reconcile();
+                runs[2].await();
+                balanced &= runs[2].getOutcome().startsWith("Balanced");
+                for (AdminJob job : runs) {
+                    // The first round warms up
+                    if (round == 1) {
+                        result("jobs", String.format("job=%s threads=%d", job.getName().toLowerCase(), parallelism),
+                            String.format("accounts/s=%.0f accounts/s/thread=%.0f changed=%d balanced=%b",
+                            job.getAccountsPerSecond(), job.getAccountsPerSecond() / parallelism, job.getChanged(),
+                            balanced));
+                    }
+                }
+            }
+            running.set(false);
+            traffic.join();
+            bank.close();
+            deleteTree(dir);
+            if (!balanced) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Measures the bytes allocated and time taken per request, for each of the given numbers of
+     * requests, by parsing records the way the batch runner used to with split and Double.valueOf,
+     * by parsing them in place, by applying them through the batch runner and by processing
+     * protocol requests through a session. Applying and processing include the log and ledger.
+     * @param counts The numbers of requests to measure.
+     */
+    public static void alloc(int[] counts) throws Exception {
+        File dir = Files.createTempDirectory("alloc").toFile();
+        File data = new File(dir, "accounts.csv");
+        try (PrintWriter writer = new PrintWriter(data)) {
+            writer.println(Bank.HEADINGS);
+        }
+        Bank bank = new Bank(data.getPath());
+        for (int i = 0; i < TRANSFER_ACCOUNTS; i++) {
+            bank.getAccounts().add(new Account("user" + i, CREDENTIAL, Money.ofUnits(1000)));
+        }
+        bank.getLog().setSyncCommit(false);
+
+        // Pre-compute records and requests that neither drain nor overflow the accounts
+        Random random = new Random(42);
+        String[] records = new String[4096];
+        String[] requests = new String[records.length];
+        for (int i = 0; i < records.length; i++) {
+            String id = "user" + random.nextInt(TRANSFER_ACCOUNTS);
+            String other = "user" + random.nextInt(TRANSFER_ACCOUNTS);
+            switch (i % 3) {
+                case 0:
+                    records[i] = String.format("transfer,%s,%s,%d.%02d", id, other, random.nextInt(10), random.nextInt(100));
+                    requests[i] = String.format("TRANSFER %s 0.%02d", other, random.nextInt(100));
+                    break;
+                case 1:
+                    records[i] = String.format("deposit,%s,1.25", id);
+                    requests[i] = "DEPOSIT 1.25";
+                    break;
+                default:
+                    records[i] = String.format("withdraw,%s,1.25", id);
+                    requests[i] = "withdraw 1.25";
+                    break;
+            }
+        }
+        BatchRunner runner = new BatchRunner(bank);
+        Session session = new Session(bank);
+        session.process("LOGIN user0 pw");
+        Fields fields = new Fields();
+
+        for (int count : counts) {
+            allocRound("legacy", count, records, record -> {
+                String[] parts = record.split(",");
+                switch (parts[0].toLowerCase()) {
+                    case "transfer":
+                        return bank.getAccount(parts[1]) != bank.getAccount(parts[2])
+                            && Bank.isValidID(parts[1]) ? Math.round(Double.valueOf(parts[3]) * Money.CENTS_PER_UNIT) : 0L;
+                    default:
+                        return Bank.isValidID(parts[1]) ? Math.round(Double.valueOf(parts[2]) * Money.CENTS_PER_UNIT) : 0L;
+                }
+            });
+            allocRound("parse", count, records, record -> {
+                fields.split(record, ',');
+                Command command = Command.match(record, fields.start(0), fields.end(0));
+                Account account = bank.getAccount(record, fields.start(1), fields.end(1));
+                if (command == Command.TRANSFER) {
+                    return bank.getAccount(record, fields.start(2), fields.end(2)) != account ? fields.cents(3) : 0L;
+                }
+                return account != null ? fields.cents(2) : 0L;
+            });
+            allocRound("apply", count, records, runner::apply);
+            allocRound("session", count, requests, session::process);
+        }
+        bank.close();
+        deleteTree(dir);
+    }
+
+    /**
+     * Runs an operation over records after warming up, reporting bytes allocated and time per operation.
+     * @param scenario A String naming what the operation does.
+     * @param count The number of operations to measure.
+     * @param records An array of records to cycle through.
+     * @param operation The Operation to measure.
+     */
+    private static void allocRound(String scenario, int count, String[] records, Operation operation)
+            throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int i = 0; i < count; i++) {
+                sink = operation.run(records[i & (records.length - 1)]);
+            }
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sink = operation.run(records[i & (records.length - 1)]);
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        result("alloc", String.format("scenario=%s ops=%d", scenario, count),
+            String.format("bytes/op=%.1f ns/op=%.1f", (double) bytes / count, (double) nanos / count));
+    }
+
+    /**
+     * Applies the given numbers of random transfers between accounts, once with balances in cents
+     * and once in doubles, failing if the total in cents changes. Then formats a sample of the
+     * resulting balances with Money and with String.format, failing if they differ or if parsing
+     * a formatted balance does not give it back.
+     * @param counts The numbers of transfers to apply.
+     */
+    public static void money(int[] counts) throws Exception {
+        int size = 1000;
+        for (int count : counts) {
+            long[] cents = new long[size];
+            double[] doubles = new double[size];
+            Arrays.fill(cents, Money.ofUnits(1000));
+            Arrays.fill(doubles, 1000.0);
+
+            // Transfer up to 100 units at a time, with the same sequence for both representations,
+            // after warming up on copies
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                transferCents(cents.clone(), count / 100);
+                transferDoubles(doubles.clone(), count / 100);
+            }
+            long centsNanos = transferCents(cents, count);
+            long doubleNanos = transferDoubles(doubles, count);
+
+            long total = 0;
+            double doubleTotal = 0;
+            for (int i = 0; i < size; i++) {
+                total += cents[i];
+                doubleTotal += doubles[i];
+            }
+            boolean exact = total == Money.ofUnits(1000L * size);
+            result("money", String.format("transfers=%d", count), String.format(
+                "exact=%b drift=%.3e cents_ns/op=%.2f double_ns/op=%.2f", exact, doubleTotal - 1000.0 * size,
+                (double) centsNanos / count, (double) doubleNanos / count));
+
+            // Format every balance repeatedly, checking each against String.format and parsing it back
+            StringBuilder out = new StringBuilder(32);
+            boolean matches = true;
+            for (int i = 0; i < size; i++) {
+                out.setLength(0);
+                Money.appendGrouped(out, cents[i]);
+                matches &= out.toString().equals(String.format("%,.2f", (double) cents[i] / Money.CENTS_PER_UNIT));
+                out.setLength(0);
+                Money.append(out, cents[i]);
+                matches &= Money.parse(out, 0, out.length()) == cents[i];
+            }
+            int formats = 1_000_000;
+            long moneyNanos = 0;
+            long formatNanos = 0;
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < formats; i++) {
+                    out.setLength(0);
+                    Money.appendGrouped(out, cents[i % size]);
+                }
+                moneyNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < formats; i++) {
+                    sink = String.format("%,.2f", doubles[i % size]);
+                }
+                formatNanos = System.nanoTime() - start;
+            }
+            result("money", String.format("formats=%d", formats), String.format(
+                "matches=%b money_ns/op=%.1f format_ns/op=%.1f", matches, (double) moneyNanos / formats,
+                (double) formatNanos / formats));
+            if (!exact || !matches) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Applies random transfers of up to 100 units between balances in cents, skipping any that would overdraw.
+     * @param cents An array of balances in cents.
+     * @param count The number of transfers to apply.
+     * @return A long representing the time taken in nanoseconds.
+     */
+    private static long transferCents(long[] cents, int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int from = random.nextInt(cents.length);
+            int to = random.nextInt(cents.length);
+            long amount = random.nextInt(1, 10_000);
+            if (cents[from] >= amount) {
+                cents[from] -= amount;
+                cents[to] += amount;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Applies the same random transfers between balances in doubles, as balances were once kept.
+     * @param doubles An array of balances in units.
+     * @param count The number of transfers to apply.
+     * @return A long representing the time taken in nanoseconds.
+     */
+    private static long transferDoubles(double[] doubles, int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int from = random.nextInt(doubles.length);
+            int to = random.nextInt(doubles.length);
+            double amount = random.nextInt(1, 10_000) / 100.0;
+            if (doubles[from] >= amount) {
+                doubles[from] -= amount;
+                doubles[to] += amount;
+            }
+        }
+        sink = doubles;
+        return System.nanoTime() - start;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Result Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Prints a result, and appends it to the output file as a line of JSON if one is set.
+     * @param benchmark A String containing the name of the benchmark.
+     * @param params A String containing space separated key=value pairs identifying the measurement.
+     * @param metrics A String containing space separated key=value pairs of what was measured.
+     */
+    private static void result(String benchmark, String params, String metrics) throws IOException {
+        System.out.println(benchmark + " " + params + " " + metrics);
+        if (OUTPUT == null) {
+            return;
+        }
+        String json = String.format("{\"benchmark\":\"%s\",\"label\":\"%s\",\"java\":\"%s\",\"cores\":%d,"
+            + "\"time\":\"%s\",\"params\":%s,\"metrics\":%s}", benchmark, LABEL, System.getProperty("java.version"),
+            Runtime.getRuntime().availableProcessors(), Instant.now(), toJson(params), toJson(metrics));
+        try (PrintWriter writer = new PrintWriter(new FileWriter(OUTPUT, true))) {
+            writer.println(json);
+        }
+    }
+
+    /**
+     * Converts space separated key=value pairs to a JSON object, leaving numbers and booleans unquoted.
+     * @param pairs A String containing space separated key=value pairs.
+     * @return A String containing a JSON object.
+     */
+    private static String toJson(String pairs) {
+        StringBuilder json = new StringBuilder("{");
+        for (String pair : pairs.split(" ")) {
+            int equals = pair.indexOf('=');
+            String value = pair.substring(equals + 1);
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(pair, 0, equals).append("\":");
+            if (value.matches("-?\\d+(\\.\\d+)?|true|false")) {
+                json.append(value);
+            } else {
+                json.append('"').append(value).append('"');
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Parses a JSON object written by toJson into key value pairs in order.
+     * @param json A String containing a JSON object of unnested values.
+     * @return A Map from each key to its value, with Strings unquoted.
+     */
+    private static Map<String, String> fromJson(String json) {
+        Map<String, String> pairs = new LinkedHashMap<String, String>();
+        Matcher matcher = Pattern.compile("\"([^\"]*)\":(\"[^\"]*\"|[^,}]*)")
+            .matcher(json);
+        while (matcher.find()) {
+            pairs.put(matcher.group(1), matcher.group(2).replace("\"", ""));
+        }
+        return pairs;
+    }
+
+    /**
+     * Prints the change in every numeric metric between two files of results, matching results
+     * by benchmark and params and taking the last of any repeated result.
+     * @param oldPathname A String containing the path of the earlier results.
+     * @param newPathname A String containing the path of the later results.
+     */
+    public static void compare(String oldPathname, String newPathname) throws IOException {
+        Map<String, Map<String, String>> earlier = readResults(oldPathname);
+        Map<String, Map<String, String>> later = readResults(newPathname);
+        for (Map.Entry<String, Map<String, String>> result : later.entrySet()) {
+            Map<String, String> before = earlier.get(result.getKey());
+            if (before == null) {
+                System.out.println(result.getKey() + " new");
+                continue;
+            }
+            for (Map.Entry<String, String> metric : result.getValue().entrySet()) {
+                String previous = before.get(metric.getKey());
+                try {
+                    double from = Double.parseDouble(previous);
+                    double to = Double.parseDouble(metric.getValue());
+                    System.out.println(String.format("%s %s %s -> %s (%+.1f%%)", result.getKey(), metric.getKey(),
+                        previous, metric.getValue(), from != 0 ? (to - from) * 100 / from : 0));
+                } catch (NullPointerException | NumberFormatException e) {
+                    // Not a number in both files
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a file of results written with -Dbench.output.
+     * @param pathname A String containing the path of the file.
+     * @return A Map from each result's benchmark and params to its metrics.
+     */
+    private static Map<String, Map<String, String>> readResults(String pathname) throws IOException {
+        Map<String, Map<String, String>> results = new LinkedHashMap<String, Map<String, String>>();
+        for (String line : Files.readAllLines(new File(pathname).toPath())) {
+            int params = line.indexOf("\"params\":");
+            int metrics = line.indexOf(",\"metrics\":");
+            if (params < 0 || metrics < 0) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(fromJson(line.substring(0, params)).get("benchmark"));
+            for (Map.Entry<String, String> param : fromJson(line.substring(params + 9, metrics)).entrySet()) {
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+            }
+            results.put(key.toString(), fromJson(line.substring(metrics + 11)));
+        }
+        return results;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Measures the mean latency of checking a password against the given credential.
+     * @param credential A Credential to check against.
+     * @param pw A String containing the password to check.
+     * @param rounds The number of checks to measure.
+     * @return A double representing the mean latency in microseconds.
+     */
+    private static double verifyMicros(Credential credential, String pw, int rounds) {
+        for (int i = 0; i < rounds / 10; i++) {
+            sink = credential.verify(pw);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink = credential.verify(pw);
+        }
+        return (System.nanoTime() - start) / 1e3 / rounds;
+    }
+
+    /**
+     * Gets the number of bytes the calling thread has allocated on the heap so far.
+     * @return A long representing the bytes allocated.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Gets the number of bytes of heap in use.
+     * @return A long representing the bytes of heap in use.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Sums the balances of the given accounts.
+     * @param accounts The accounts to sum.
+     * @return A long representing the total balance in cents.
+     */
+    private static long total(Account[] accounts) {
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalanceCents();
+        }
+        return total;
+    }
+
+    /**
+     * Sends transfers through a router from one account until told to stop, logging in again
+     * whenever its node restarts.
+     * @param port The port the router serves sessions on.
+     * @param ids The IDs of the accounts owned by each node.
+     * @param node The index of the node owning the sender.
+     * @param sender A String containing the ID of the account sending.
+     * @param cross The percentage of transfers to accounts on other nodes.
+     * @param running Cleared once the client should stop.
+     * @return A long representing the number of transfers made.
+     */
+    static long partitionClient(int port, String[][] ids, int node, String sender, int cross,
+            AtomicBoolean running) throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            boolean loggedIn = false;
+            long ops = 0;
+            while (running.get()) {
+                if (!loggedIn) {
+                    out.write("LOGIN " + sender + " pw\n");
+                    out.flush();
+                    loggedIn = in.readLine().startsWith("OK");
+                    if (!loggedIn) {
+                        Thread.sleep(50); // The node is restarting
+                    }
+                    continue;
+                }
+                int to = ids.length > 1 && random.nextInt(100) < cross
+                    ? (node + random.nextInt(1, ids.length)) % ids.length : node;
+                out.write("TRANSFER " + ids[to][random.nextInt(ids[to].length)] + " " + random.nextInt(1, 5) + "\n");
+                out.flush();
+                String reply = in.readLine();
+                if (reply.startsWith("OK")) {
+                    ops++;
+                } else if (reply.endsWith("Please login again.")) {
+                    loggedIn = false;
+                }
+            }
+            return ops;
+        }
+    }
+
+    /**
+     * Deposits to an account on the primary, then reads its balance from each replica until it shows
+     * the deposit, timing each, until told to stop.
+     * @param id A String containing the ID of an account no other client uses.
+     * @param ports The ports of the primary then of each replica.
+     * @param running Cleared once the probe should stop.
+     * @return A List of the time in nanoseconds each replica took to show each deposit.
+     */
+    private static List<Long> replicationLags(String id, int[] ports, AtomicBoolean running) throws Exception {
+        List<Long> lags = new ArrayList<Long>();
+        LineClient[] clients = new LineClient[ports.length];
+        try {
+            for (int i = 0; i < ports.length; i++) {
+                clients[i] = new LineClient(ports[i]);
+                clients[i].request("LOGIN " + id + " pw");
+            }
+            while (running.get()) {
+                clients[0].request("DEPOSIT 1");
+                long confirmed = System.nanoTime();
+                String balance = clients[0].request("BALANCE");
+                for (int i = 1; i < ports.length; i++) {
+                    while (running.get() && !clients[i].request("BALANCE").equals(balance)) {
+                        Thread.onSpinWait();
+                    }
+                    lags.add(System.nanoTime() - confirmed);
+                }
+                Thread.sleep(10);
+            }
+            return lags;
+        } finally {
+            for (LineClient client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Represents a connection to a bank server, sending one request line and reading one response line at a time.
+     */
+    private static class LineClient implements Closeable {
+        private Socket socket;
+        private BufferedReader in;
+        private BufferedWriter out;
+
+        private LineClient(int port) throws IOException {
+            this.socket = new Socket("localhost", port);
+            this.socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private String request(String line) throws IOException {
+            this.out.write(line);
+            this.out.newLine();
+            this.out.flush();
+            return this.in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.socket.close();
+        }
+    }
+
+    /**
+     * Starts a bank server process as a node of a partitioned bank, logging to its directory.
+     * @param dir The File of the node's directory, holding its account file.
+     * @param nodes A String containing the address of every node, as comma separated host:port.
+     * @param index The index of the node.
+     * @param port The port the node serves sessions on.
+     * @return The Process of the node.
+     */
+    static Process startNode(File dir, String nodes, int index, int port) throws IOException {
+        return new ProcessBuilder(javaCommand("-Dbank.partition.nodes=" + nodes, "-Dbank.partition.index=" + index,
+            "-Dbank.partition.secret=benchmark", "-Dbank.partition.retryMillis=" + CrossTransfers.RETRY_MILLIS,
+            "Bank", "--server", String.valueOf(port))).directory(dir).redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dir, "node.log"))).start();
+    }
+
+    /**
+     * Builds the command running a class of this program in a new Java process with the same class
+     * path, made absolute so that the process may run in another directory.
+     * @param args The JVM options, main class and program arguments.
+     * @return A List of the command's words.
+     */
+    static List<String> javaCommand(String... args) {
+        StringJoiner classPath = new StringJoiner(File.pathSeparator);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(classPath.toString());
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    /**
+     * Waits until a port on this machine accepts connections.
+     * @param port The port to wait for.
+     */
+    static void awaitPort(int port) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Waits for a request made through a BankService, counting it if it failed.
+     * @param request The CompletableFuture of the request.
+     * @param failures A long array counting failures for want of funds and for any other reason.
+     */
+    private static void await(CompletableFuture<Void> request, long[] failures) {
+        try {
+            request.join();
+        } catch (CompletionException e) {
+            boolean funds = e.getCause() instanceof BankException
+                && ((BankException) e.getCause()).getStatus() == Status.INSUFFICIENT_FUNDS;
+            failures[funds ? 0 : 1]++;
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     * @param file The File to delete.
+     */
+    static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Parses a comma separated list of sizes or thread counts.
+     * @param raw A String containing comma separated numbers.
+     * @return An int array of the parsed numbers.
+     */
+    private static int[] parseSizes(String raw) {
+        String[] parts = raw.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Main Method
+    //------------------------------------------------------------------------------------------------------------------
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java Benchmark <lookup|transfer|credit|verify|load|save|format|footprint|ledger|wal|batching|hot|metrics|alloc|money|snapshot|jobs|sequenced|session|partitions|replicas|service> [sizes|threads]"
+                + "\n       java Benchmark compare <old results> <new results>");
+            return;
+        }
+
+        switch (args[0]) {
+            case "lookup":
+                lookup(parseSizes(args.length > 1 ? args[1] : "1000,10000,100000,1000000"));
+                break;
+            case "transfer":
+                transfer(parseSizes(args.length > 1 ? args[1] : "1,2,4,8,16,32,64,128"));
+                break;
+            case "credit":
+                credit(parseSizes(args.length > 1 ? args[1] : "1,2,4,8,16,32,64"));
+                break;
+            case "verify":
+                verify(parseSizes(args.length > 1 ? args[1] : "1000,10000,100000"));
+                break;
+            case "load":
+                load(parseSizes(args.length > 1 ? args[1] : "1000,100000,1000000"));
+                break;
+            case "save":
+                save(parseSizes(args.length > 1 ? args[1] : "1000,100000,1000000"));
+                break;
+            case "format":
+                format(parseSizes(args.length > 1 ? args[1] : "1000,100000,1000000"));
+                break;
+            case "footprint":
+                footprint(parseSizes(args.length > 1 ? args[1] : "100000,1000000,10000000"));
+                break;
+            case "ledger":
+                ledger(parseSizes(args.length > 1 ? args[1] : "10000,1000000,4000000"));
+                break;
+            case "wal":
+                wal(parseSizes(args.length > 1 ? args[1] : "1,4,16,64"));
+                break;
+            case "batching":
+                batching(parseSizes(args.length > 1 ? args[1] : "16,256,4096"));
+                break;
+            case "metrics":
+                metrics(parseSizes(args.length > 1 ? args[1] : "1,4,16,64"));
+                break;
+            case "alloc":
+                alloc(parseSizes(args.length > 1 ? args[1] : "100000,1000000"));
+                break;
+            case "money":
+                money(parseSizes(args.length > 1 ? args[1] : "100000000"));
+                break;
+            case "snapshot":
+                snapshot(parseSizes(args.length > 1 ? args[1] : "1,4,16,64"));
+                break;
+            case "jobs":
+                jobs(parseSizes(args.length > 1 ? args[1] : "1,2,4,8"));
+                break;
+            case "sequenced":
+                sequenced(parseSizes(args.length > 1 ? args[1] : "1,4,16,64"));
+                break;
+            case "session":
+                session(parseSizes(args.length > 1 ? args[1] : "1,4,16"));
+                break;
+            case "partitions":
+                partitions(parseSizes(args.length > 1 ? args[1] : "1,2,4"));
+                break;
+            case "replicas":
+                replicas(parseSizes(args.length > 1 ? args[1] : "0,1,2"));
+                break;
+            case "service":
+                service(parseSizes(args.length > 1 ? args[1] : "1,16,256,4096"));
+                break;
+            case "compare":
+                if (args.length != 3) {
+                    System.out.println("Usage: java Benchmark compare <old results> <new results>");
+                    return;
+                }
+                compare(args[1], args[2]);
+                break;
+            case "hot":
+                hot(parseSizes(args.length > 1 ? args[1] : "1,2,4,8,16,32,64"));
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + args[0]);
+                break;
+        }
+    }
+}
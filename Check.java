@@ -0,0 +1,295 @@
+/**
+ * Runs the bank's correctness checks apart from the benchmarks, which only measure around them.
+ * Each check runs briefly, prints whether it passed, and the process exits with status 1 if any
+ * failed, so that a change can be checked with make check before it is benchmarked.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Check {
+
+    public static final String USAGE = "Usage: java Check [conservation|money|partitions] ...\nRuns every check if none is named.";
+
+    // Time each concurrent check runs for, tunable with -Dcheck.millis
+    private static final long MILLIS = Long.getLong("check.millis", 1000);
+
+    private static final int ACCOUNTS = 100;
+    private static final int THREADS = 8;
+    private static final Credential CREDENTIAL = Credential.create("pw");
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Check Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Checks that transfers between random accounts from many threads neither create nor destroy
+     * money with the locked, lock-free and sequenced engines, and that every consistent total taken
+     * while they run is the same.
+     * @return A String describing the failure, or null if the check passed.
+     */
+    public static String conservation() throws Exception {
+        for (String mode : new String[] {"locked", "lockfree", "sequenced"}) {
+            Account[] accounts = new Account[ACCOUNTS];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = new Account("user" + i, CREDENTIAL, Money.ofUnits(1000));
+            }
+            long expected = Money.ofUnits(1000) * ACCOUNTS;
+            TransactionEngine engine = new TransactionEngine(mode.equals("lockfree"));
+            SequencedEngine sequencer = mode.equals("sequenced") ? new SequencedEngine(engine) : null;
+
+            // Transfer between random pairs, taking totals meanwhile, until time is up
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        engine.transfer(accounts[random.nextInt(ACCOUNTS)], accounts[random.nextInt(ACCOUNTS)],
+                            random.nextLong(1, Money.ofUnits(100)));
+                    }
+                    return null;
+                }));
+            }
+            List<Account> book = Arrays.asList(accounts);
+            Future<Long> totals = pool.submit(() -> {
+                long wrong = 0;
+                while (running.get()) {
+                    wrong += engine.totalBalance(book) != expected ? 1 : 0;
+                    Thread.sleep(10);
+                }
+                return wrong;
+            });
+            Thread.sleep(MILLIS);
+            running.set(false);
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            long wrong = totals.get();
+            pool.shutdown();
+            if (sequencer != null) {
+                sequencer.close();
+            }
+
+            long total = 0;
+            for (Account account : accounts) {
+                total += account.getBalanceCents();
+            }
+            if (total != expected) {
+                return String.format("%s engine changed the total by %d cents", mode, total - expected);
+            } else if (wrong > 0) {
+                return String.format("%s engine gave %d wrong totals", mode, wrong);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks that amounts are exact end to end against BigDecimal: every amount formats as
+     * BigDecimal does and parses back to itself from text and bytes, amounts with more decimal
+     * places than the currency round half up, malformed amounts are refused, and a million deposits and withdrawals of parsed
+     * amounts leave a total of exactly their sum.
+     * @return A String describing the failure, or null if the check passed.
+     */
+    public static String money() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] amounts = new long[100_000];
+        long[] edges = {0, 1, Money.CENTS_PER_UNIT - 1, Money.CENTS_PER_UNIT, Bank.MAX_CENTS, -1, -Bank.MAX_CENTS};
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = i < edges.length ? edges[i] : random.nextLong(-Bank.MAX_CENTS, Bank.MAX_CENTS + 1);
+        }
+        StringBuilder out = new StringBuilder(32);
+        for (long cents : amounts) {
+            BigDecimal exact = BigDecimal.valueOf(cents, Money.SCALE);
+            out.setLength(0);
+            if (!Money.append(out, cents).toString().equals(exact.toPlainString())) {
+                return String.format("%d cents formatted as %s", cents, out);
+            }
+            out.setLength(0);
+            if (!Money.appendGrouped(out, cents).toString().equals(String.format("%,." + Money.SCALE + "f", exact))) {
+                return String.format("%d cents grouped as %s", cents, out);
+            }
+            if (cents < 0) {
+                continue;
+            }
+            String text = Money.format(cents);
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            if (Money.parse(text, 0, text.length()) != cents || Money.parse(bytes, 0, bytes.length) != cents) {
+                return String.format("%s parsed back as %d cents", text, Money.parse(text, 0, text.length()));
+            }
+
+            // An extra decimal place rounds the amount, half up
+            String longer = text + random.nextInt(10);
+            long rounded = new BigDecimal(longer).setScale(Money.SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+            if (Money.parse(longer, 0, longer.length()) != rounded) {
+                return String.format("%s parsed as %d cents", longer, Money.parse(longer, 0, longer.length()));
+            }
+        }
+
+        for (String malformed : new String[] {"", ".", "1.2.3", "abc", "-1", "1e5", "99999999999999999999"}) {
+            if (Money.parse(malformed, 0, malformed.length()) != -1) {
+                return String.format("malformed amount \"%s\" parsed as %d cents", malformed,
+                    Money.parse(malformed, 0, malformed.length()));
+            }
+        }
+
+        // Deposit and withdraw parsed amounts, summing them in BigDecimal alongside
+        TransactionEngine engine = new TransactionEngine();
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account("user" + i, CREDENTIAL, 0);
+        }
+        BigDecimal sum = BigDecimal.ZERO;
+        for (int i = 0; i < 1_000_000; i++) {
+            String text = Money.format(random.nextLong(1, Money.ofUnits(1_000_000)));
+            long cents = Money.parse(text, 0, text.length());
+            Account account = accounts[random.nextInt(ACCOUNTS)];
+            if (random.nextInt(3) > 0) {
+                engine.deposit(account, cents);
+                sum = sum.add(new BigDecimal(text));
+            } else if (engine.withdraw(account, cents) == Status.OK) {
+                sum = sum.subtract(new BigDecimal(text));
+            }
+        }
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalanceCents();
+        }
+        if (!Money.format(total).equals(sum.toPlainString())) {
+            return String.format("total of %s differs from the exact sum of %s", Money.format(total), sum.toPlainString());
+        }
+        return null;
+    }
+
+    /**
+     * Checks that two-phase commits recover: clients send transfers across two node processes
+     * through a router while the second node is killed and restarted, and once in-doubt transfers
+     * have had time to resolve, the balances the nodes saved must add up to what they started with.
+     * @return A String describing the failure, or null if the check passed.
+     */
+    public static String partitions() throws Exception {
+        // Give each node its own directory and account file, holding the accounts it owns
+        int[] ports = new int[3];
+        for (int i = 0; i < ports.length; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports[i] = socket.getLocalPort();
+            }
+        }
+        String addresses = "localhost:" + ports[0] + ",localhost:" + ports[1];
+        Partitions partitions = new Partitions(addresses, -1, "");
+        String[][] ids = new String[2][ACCOUNTS];
+        int[] filled = new int[2];
+        for (int k = 0; filled[0] < ACCOUNTS || filled[1] < ACCOUNTS; k++) {
+            int node = partitions.owner("user" + k);
+            if (filled[node] < ACCOUNTS) {
+                ids[node][filled[node]++] = "user" + k;
+            }
+        }
+        File[] dirs = new File[2];
+        Credential[] credentials = new Credential[ACCOUNTS];
+        long[] balances = new long[ACCOUNTS];
+        Arrays.fill(credentials, CREDENTIAL);
+        Arrays.fill(balances, Money.ofUnits(1000));
+        for (int i = 0; i < dirs.length; i++) {
+            dirs[i] = Files.createTempDirectory("check" + i).toFile();
+            new SnapshotWriter().write(new File(dirs[i], "accounts.csv").getPath(), 0, ids[i], credentials,
+                balances, ACCOUNTS);
+        }
+        long expected = Money.ofUnits(1000) * ACCOUNTS * 2;
+
+        // Start the nodes and a router, then send transfers, half to the other node, restarting one midway
+        Process[] nodes = new Process[2];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Benchmark.startNode(dirs[i], addresses, i, ports[i]);
+        }
+        Process router = new ProcessBuilder(Benchmark.javaCommand("-Dbank.partition.nodes=" + addresses, "Bank",
+            "--router", String.valueOf(ports[2]))).redirectErrorStream(true)
+            .redirectOutput(new File(dirs[0], "router.log")).start();
+        for (int port : ports) {
+            Benchmark.awaitPort(port);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Long>> clients = new ArrayList<Future<Long>>();
+        for (int c = 0; c < THREADS; c++) {
+            int node = c % 2;
+            String sender = ids[node][c / 2];
+            clients.add(pool.submit(() -> Benchmark.partitionClient(ports[2], ids, node, sender, 50, running)));
+        }
+        Thread.sleep(MILLIS);
+        nodes[1].destroyForcibly().waitFor();
+        nodes[1] = Benchmark.startNode(dirs[1], addresses, 1, ports[1]);
+        Thread.sleep(MILLIS);
+        running.set(false);
+        long transfers = 0;
+        for (Future<Long> client : clients) {
+            transfers += client.get();
+        }
+        pool.shutdown();
+
+        // Let in-doubt transfers resolve, stop the processes so that each node saves, and sum them
+        Benchmark.awaitPort(ports[1]);
+        Thread.sleep(5 * CrossTransfers.RETRY_MILLIS);
+        router.destroy();
+        long total = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].destroy();
+            nodes[i].waitFor();
+            Bank bank = new Bank(new File(dirs[i], "accounts.csv").getPath());
+            for (String id : ids[i]) {
+                total += bank.getAccount(id).getBalanceCents();
+            }
+            bank.close();
+            Benchmark.deleteTree(dirs[i]);
+        }
+        router.waitFor();
+
+        if (transfers == 0) {
+            return "no transfers were made";
+        } else if (total != expected) {
+            return String.format("restarting a node changed the total by %d cents", total - expected);
+        }
+        return null;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Main Method
+    //------------------------------------------------------------------------------------------------------------------
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = args.length > 0 ? Arrays.asList(args) : Arrays.asList("conservation", "money", "partitions");
+        boolean passed = true;
+        for (String name : names) {
+            String failure;
+            switch (name) {
+                case "conservation":
+                    failure = conservation();
+                    break;
+                case "money":
+                    failure = money();
+                    break;
+                case "partitions":
+                    failure = partitions();
+                    break;
+                default:
+                    System.out.println(USAGE);
+                    System.exit(1);
+                    return;
+            }
+            System.out.println(failure == null ? name + ": passed" : name + ": FAILED, " + failure);
+            passed &= failure == null;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Represents a command a user can give, parsed once into an opcode so that dispatching it does
+ * not change case, split or otherwise allocate.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public enum Command {
+
+    HELP("HELP"),
+    LOGIN("LOGIN"),
+    RESUME("RESUME", false),
+    VERIFY("VERIFY", false),
+    LOGOUT("LOGOUT"),
+    REGISTER("REGISTER"),
+    CHANGE_PASSWORD("CHANGE PASSWORD"),
+    WITHDRAW("WITHDRAW"),
+    DEPOSIT("DEPOSIT"),
+    TRANSFER("TRANSFER"),
+    BALANCE("BALANCE", false),
+    STATEMENT("STATEMENT"),
+    METRICS("METRICS"),
+    ASSETS("ASSETS"),
+    JOB("JOB"),
+    RESET("RESET"),
+    EXIT("EXIT"),
+    PEER("PEER", false),
+    PREPARE("PREPARE", false),
+    COMMIT("COMMIT", false),
+    ABORT("ABORT", false),
+    DECISION("DECISION", false),
+    PROMOTE("PROMOTE", false);
+
+    // Cached, as values() copies the array on every call
+    private static final Command[] COMMANDS = values();
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private final String keyword;
+    private final boolean console;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Command(String keyword) {
+        this(keyword, true);
+    }
+
+    private Command(String keyword, boolean console) {
+        this.keyword = keyword;
+        this.console = console;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the words a user enters to give this command.
+     * @return A String representing this command's keyword in upper case.
+     */
+    public String getKeyword() {
+        return this.keyword;
+    }
+
+    /**
+     * Returns whether this command can be given at the console, as well as over the server protocol.
+     * @return A boolean based on whether the console accepts this command.
+     */
+    public boolean isConsole() {
+        return this.console;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Parsing Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finds the command whose keyword is the given range of characters, ignoring case.
+     * @param line A CharSequence containing the request.
+     * @param from The index the keyword starts at.
+     * @param to The index after the keyword ends.
+     * @return The Command matched, or null if the range is not a keyword.
+     */
+    public static Command match(CharSequence line, int from, int to) {
+        for (Command command : COMMANDS) {
+            String keyword = command.keyword;
+            if (keyword.length() != to - from) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < keyword.length() && matches; i++) {
+                char c = line.charAt(from + i);
+                matches = c == keyword.charAt(i) || Character.toUpperCase(c) == keyword.charAt(i);
+            }
+            if (matches) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the command whose keyword is the given request, ignoring case.
+     * @param line A CharSequence containing the request.
+     * @return The Command matched, or null if the request is not a keyword.
+     */
+    public static Command match(CharSequence line) {
+        return match(line, 0, line.length());
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Represents a verifier for an account's password, stored as a salted PBKDF2 hash.
+ * Credentials loaded from the legacy AES format are verified by decryption until
+ * they are upgraded to a hash.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class Credential {
+
+    public static final String HASH_SCHEME = "pbkdf2";
+    public static final String LEGACY_SCHEME = "aes";
+    public static final byte HASH_CODE = 1;
+    public static final byte LEGACY_CODE = 2;
+
+    // Cost of hashing, tunable with -Dbank.pbkdf2.iterations
+    public static final int ITERATIONS = Integer.getInteger("bank.pbkdf2.iterations", 10_000);
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Key for in-memory digests of verified passwords, never stored
+    private static final SecretKeySpec CACHE_KEY = new SecretKeySpec(randomBytes(32), "HmacSHA256");
+
+    // Hashing is stateless, so each thread reuses one factory instead of looking it up per check
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            System.out.println("Hashing failed. Ending banking process");
+            System.exit(0);
+            return null;
+        }
+    });
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(CACHE_KEY);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            System.out.println("Hashing failed. Ending banking process");
+            System.exit(0);
+            return null;
+        }
+    });
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private String scheme;
+    private int iterations;
+    private byte[] salt;  // Or the AES key of a legacy credential
+    private byte[] hash;  // Or the encrypted password of a legacy credential
+    private volatile byte[] verified; // Keyed digest of the last password verified, kept in memory only
+    private byte[] encoded; // Encoded form for storage, computed on first save
+    private byte[] binary;  // Binary form for storage, computed on first save
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public Credential(String scheme, int iterations, byte[] salt, byte[] hash) {
+        this.scheme = scheme;
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * Creates a credential for the given password with a fresh random salt.
+     * @param pw A String containing the password.
+     * @return A Credential verifying the password.
+     */
+    public static Credential create(String pw) {
+        byte[] salt = randomBytes(SALT_BYTES);
+        return new Credential(HASH_SCHEME, ITERATIONS, salt, hash(pw, salt, ITERATIONS));
+    }
+
+    /**
+     * Creates a credential from a password encrypted with AES by an earlier version of the bank.
+     * @param encryptedPw A byte array containing the encrypted password.
+     * @param key A byte array containing the AES key the password was encrypted with.
+     * @return A Credential verifying the password by decryption.
+     */
+    public static Credential legacy(byte[] encryptedPw, byte[] key) {
+        return new Credential(LEGACY_SCHEME, 0, key, encryptedPw);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the name of the scheme this credential is stored with.
+     * @return A String representing the scheme, pbkdf2 or aes.
+     */
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    /**
+     * Gets the number of hashing iterations.
+     * @return An int representing the number of iterations, or 0 for a legacy credential.
+     */
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * Gets the salt, or the AES key of a legacy credential.
+     * @return A byte array representing the salt.
+     */
+    public byte[] getSalt() {
+        return this.salt;
+    }
+
+    /**
+     * Gets the hash, or the encrypted password of a legacy credential.
+     * @return A byte array representing the hash.
+     */
+    public byte[] getHash() {
+        return this.hash;
+    }
+
+    /**
+     * Returns whether this credential is still in the legacy AES format.
+     * @return A boolean based on whether this credential needs upgrading to a hash.
+     */
+    public boolean isLegacy() {
+        return this.scheme.equals(LEGACY_SCHEME);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Verification Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Checks the given password against this credential, taking the same time however many
+     * leading bytes match. Once a password has been verified, checking it again compares a
+     * cheap keyed digest instead of hashing; a wrong password always pays the full hashing cost.
+     * @param pw A String containing the password to check.
+     * @return A boolean based on whether the password matches.
+     */
+    public boolean verify(String pw) {
+        byte[] verified = this.verified;
+        if (verified != null && MessageDigest.isEqual(digest(pw), verified)) {
+            return true;
+        }
+
+        boolean matches;
+        if (this.isLegacy()) {
+            byte[] decrypted = decrypt(this.hash, this.salt);
+            matches = decrypted != null && MessageDigest.isEqual(decrypted, pw.getBytes(StandardCharsets.UTF_8));
+        } else {
+            matches = MessageDigest.isEqual(hash(pw, this.salt, this.iterations), this.hash);
+        }
+        if (matches) {
+            this.verified = digest(pw);
+        }
+        return matches;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Encoding Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Encodes this credential as a single comma free field for storage.
+     * @return A String of the form pbkdf2$iterations$salt$hash or aes$key$encrypted, in Base64.
+     */
+    public String encode() {
+        Base64.Encoder encoder = Base64.getEncoder();
+        if (this.isLegacy()) {
+            return LEGACY_SCHEME + "$" + encoder.encodeToString(this.salt) + "$" + encoder.encodeToString(this.hash);
+        }
+        return HASH_SCHEME + "$" + this.iterations + "$"
+            + encoder.encodeToString(this.salt) + "$" + encoder.encodeToString(this.hash);
+    }
+
+    /**
+     * Gets this credential encoded by encode as ASCII bytes, encoding it only once since
+     * credentials never change.
+     * @return A byte array representing the encoded credential.
+     */
+    public byte[] encodedBytes() {
+        byte[] encoded = this.encoded;
+        if (encoded == null) {
+            encoded = this.encode().getBytes(StandardCharsets.US_ASCII);
+            this.encoded = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes a credential encoded by encode.
+     * @param encoded A String containing an encoded credential.
+     * @return A Credential decoded from the given String.
+     */
+    public static Credential decode(String encoded) {
+        String[] parts = encoded.split("\\$");
+        Base64.Decoder decoder = Base64.getDecoder();
+        if (parts.length == 3 && parts[0].equals(LEGACY_SCHEME)) {
+            return legacy(decoder.decode(parts[2]), decoder.decode(parts[1]));
+        } else if (parts.length == 4 && parts[0].equals(HASH_SCHEME)) {
+            return new Credential(HASH_SCHEME, Integer.parseInt(parts[1]),
+                decoder.decode(parts[2]), decoder.decode(parts[3]));
+        }
+        throw new IllegalArgumentException("Unknown credential format.");
+    }
+
+    /**
+     * Encodes this credential in binary for the binary account file format, encoding it only once.
+     * @return A byte array of the scheme, iterations, then length-prefixed salt and hash.
+     */
+    public byte[] toBytes() {
+        if (this.binary != null) {
+            return this.binary;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(7 + this.salt.length + this.hash.length);
+        buffer.put(this.isLegacy() ? LEGACY_CODE : HASH_CODE);
+        buffer.putInt(this.iterations);
+        buffer.put((byte) this.salt.length).put(this.salt);
+        buffer.put((byte) this.hash.length).put(this.hash);
+        this.binary = buffer.array();
+        return this.binary;
+    }
+
+    /**
+     * Decodes a credential encoded by toBytes.
+     * @param bytes A byte array containing a credential in binary.
+     * @return A Credential decoded from the given bytes.
+     */
+    public static Credential fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            byte scheme = buffer.get();
+            int iterations = buffer.getInt();
+            byte[] salt = new byte[buffer.get() & 0xFF];
+            buffer.get(salt);
+            byte[] hash = new byte[buffer.get() & 0xFF];
+            buffer.get(hash);
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Unknown credential format.");
+            } else if (scheme == LEGACY_CODE) {
+                return legacy(hash, salt);
+            } else if (scheme == HASH_CODE && iterations > 0) {
+                return new Credential(HASH_SCHEME, iterations, salt, hash);
+            }
+        } catch (BufferUnderflowException e) {
+            // Fall through to reject truncated credentials
+        }
+        throw new IllegalArgumentException("Unknown credential format.");
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Generates random bytes for a salt or key. Unlike generateSeed, this never blocks waiting for
+     * the system's entropy source.
+     * @param length An int containing the number of bytes.
+     * @return A byte array of random bytes.
+     */
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Hashes the given password with PBKDF2.
+     * @param pw A String containing the password.
+     * @param salt A byte array containing the salt.
+     * @param iterations The number of iterations.
+     * @return A byte array representing the hash.
+     */
+    private static byte[] hash(String pw, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pw.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            System.out.println("Hashing failed. Ending banking process");
+            System.exit(0);
+            return null;
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Computes the in-memory digest of a password under this process's random key.
+     * @param pw A String containing the password.
+     * @return A byte array representing the digest.
+     */
+    private static byte[] digest(String pw) {
+        return MAC.get().doFinal(pw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decrypts a password encrypted with AES by an earlier version of the bank.
+     * @param encryptedPw A byte array containing the encrypted password.
+     * @param key A byte array containing the AES key.
+     * @return A byte array representing the decrypted password, or null if the key or password is malformed.
+     */
+    private static byte[] decrypt(byte[] encryptedPw, byte[] key) {
+        try {
+            Cipher ciph = Cipher.getInstance("AES");
+            ciph.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"));
+            return ciph.doFinal(encryptedPw);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/**
+ * Transfers money from accounts on this node to accounts on other nodes of a partitioned bank with
+ * a two-phase commit coordinated by the sender's node. The sender is first debited into transit,
+ * then the recipient's node is asked to promise to accept the amount. If it promises, the decision
+ * to commit is logged and the recipient's node credits the recipient when told; otherwise the
+ * sender is refunded. Every step is a record in each node's transaction log, so the transfers still
+ * open are rebuilt when a node restarts, and a checkpoint copies them into the new log. Decisions
+ * the other node has not acknowledged are sent again until it does, and a transfer left undecided
+ * by a restart is refunded, as the other node never credits without a decision.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CrossTransfers {
+
+    // Longest wait for another node to answer, and time between attempts to finish open transfers,
+    // tunable with -Dbank.partition.timeoutMillis and -Dbank.partition.retryMillis
+    public static final int TIMEOUT_MILLIS = Integer.getInteger("bank.partition.timeoutMillis", 2000);
+    public static final long RETRY_MILLIS = Long.getLong("bank.partition.retryMillis", 1000);
+
+    // Transfers recently aborted before this node heard of them, so a promise asked for late is refused
+    private static final int ABORTED_REMEMBERED = 1 << 16;
+
+    // Locks serializing the steps of each transfer on the recipient's node, chosen by transfer ID
+    private static final int LOCK_STRIPES = 64;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private Partitions partitions;
+    private ConcurrentHashMap<String, Open> open;
+    private Set<String> active;
+    private Map<String, Boolean> aborted;
+    private Object[] locks;
+    private List<Queue<Peer>> peers;
+    private SecureRandom random;
+    private ScheduledExecutorService retrier;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the transfers of a node, with none open until the log is replayed through track.
+     * @param bank The Bank of this node.
+     * @param partitions The Partitions of the bank, whose index is this node's.
+     */
+    public CrossTransfers(Bank bank, Partitions partitions) {
+        this.bank = bank;
+        this.partitions = partitions;
+        this.open = new ConcurrentHashMap<String, Open>();
+        this.active = ConcurrentHashMap.newKeySet();
+        this.aborted = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return this.size() > ABORTED_REMEMBERED;
+            }
+        };
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+        this.peers = new ArrayList<Queue<Peer>>();
+        for (int i = 0; i < partitions.size(); i++) {
+            this.peers.add(new ConcurrentLinkedQueue<Peer>());
+        }
+        this.random = new SecureRandom();
+        this.retrier = null;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the partitioning of the bank.
+     * @return The Partitions of the bank.
+     */
+    public Partitions getPartitions() {
+        return this.partitions;
+    }
+
+    /**
+     * Gets the number of transfers this node has not finished, as sender or as recipient.
+     * @return An int representing the number of open transfers.
+     */
+    public int getOpen() {
+        return this.open.size();
+    }
+
+    /**
+     * Returns whether the account whose ID is the given range of characters belongs on this node.
+     * @param s A CharSequence containing the ID.
+     * @param from The index of the ID's first character.
+     * @param to The index after the ID's last character.
+     * @return A boolean based on whether this node owns the ID.
+     */
+    public boolean isLocal(CharSequence s, int from, int to) {
+        return this.partitions.owner(s, from, to) == this.partitions.getIndex();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Coordinator Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Transfers the given amount from an account on this node to one on another node, waiting for
+     * the outcome. A transfer committed is credited to the recipient as soon as its node hears of
+     * the decision, which may be after it restarts.
+     * @param sender An Account on this node to transfer from.
+     * @param recipientID A String containing the ID of the account on another node to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A Status representing the outcome: OK if committed, otherwise the other node's vote,
+     *         such as INVALID_ID if it has no such account, or UNAVAILABLE if it did not answer, in
+     *         which case the sender is refunded.
+     */
+    public Status transfer(Account sender, String recipientID, long cents) {
+        if (!Bank.isValidAmount(cents)) {
+            return Status.INVALID_AMOUNT;
+        }
+        TransactionEngine engine = this.bank.getEngine();
+        String id = this.newTransferID();
+        this.active.add(id);
+        try {
+            // Phase one: hold the amount in transit, then ask for the recipient's node's promise
+            Status status = engine.withdraw(sender, cents, LogRecord.SEND, recipientID, id);
+            if (status != Status.OK) {
+                return status;
+            }
+            Open transfer = this.open.get(id);
+            String vote = this.call(this.partitions.owner(recipientID),
+                String.format("PREPARE %s %s %s %s", id, sender.getID(), recipientID, Money.format(cents)));
+
+            // Phase two: log the decision, and only then tell the recipient's node
+            Status voted = vote == null ? Status.UNAVAILABLE : Session.parseReply(vote);
+            if (voted == null) {
+                // A reply reporting no outcome, such as a refused secret, is no promise
+                voted = Status.INVALID_OPERATION;
+            }
+            boolean commit = voted == Status.OK;
+            if (commit) {
+                if (!this.log(LogRecord.SEND_COMMIT, transfer.account, transfer.counterparty, cents, id, true)) {
+                    // The decision may not be on disk yet, so it is left for the retrier to send
+                    return Status.UNAVAILABLE;
+                }
+            } else {
+                engine.deposit(sender, cents, LogRecord.SEND_ABORT, recipientID, id);
+            }
+            this.finish(transfer);
+            return voted;
+        } finally {
+            this.active.remove(id);
+        }
+    }
+
+    /**
+     * Gets the decision on a transfer this node sent, for the recipient's node to finish a transfer it
+     * promised to accept but has heard nothing more of. A transfer this node does not have open is
+     * either finished, and the recipient's node acknowledged the decision, or was never decided and
+     * is refunded, so it is presumed aborted.
+     * @param transferID A String containing the ID of the transfer.
+     * @return A byte representing the decision: LogRecord.SEND_COMMIT, LogRecord.SEND_ABORT, or
+     *         LogRecord.SEND if the transfer is not decided yet.
+     */
+    public byte decision(String transferID) {
+        Open transfer = this.open.get(transferID);
+        if (transfer == null) {
+            return LogRecord.SEND_ABORT;
+        }
+        byte state = transfer.state;
+        if (state == LogRecord.SEND_COMMIT) {
+            // Only a commit on disk may be given out, or a restart could refund a transfer already credited
+            TransactionLog log = this.bank.getLog();
+            return log.commit(log.getLastLsn()) ? state : LogRecord.SEND;
+        }
+        return state == LogRecord.SEND_ABORT ? state : LogRecord.SEND;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Participant Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Promises to accept a transfer to an account on this node, logging the promise before giving it.
+     * @param transferID A String containing the ID of the transfer.
+     * @param senderID A String containing the ID of the sender on the other node.
+     * @param recipientID A String containing the ID of the recipient on this node.
+     * @param cents A long containing the amount in cents.
+     * @return A Status representing the vote: OK to promise, or why not.
+     */
+    public Status prepare(String transferID, String senderID, String recipientID, long cents) {
+        if (!Bank.isValidAmount(cents)) {
+            return Status.INVALID_AMOUNT;
+        } else if (this.partitions.owner(recipientID) != this.partitions.getIndex()
+                || this.bank.getAccount(recipientID) == null) {
+            return Status.INVALID_ID;
+        }
+        synchronized (this.lock(transferID)) {
+            if (this.open.containsKey(transferID)) {
+                return Status.OK;
+            }
+            synchronized (this.aborted) {
+                if (this.aborted.containsKey(transferID)) {
+                    return Status.INVALID_OPERATION;
+                }
+            }
+            return this.log(LogRecord.RECEIVE_PREPARE, recipientID, senderID, cents, transferID, true)
+                ? Status.OK : Status.UNAVAILABLE;
+        }
+    }
+
+    /**
+     * Credits the recipient of a transfer this node promised to accept. A transfer this node no
+     * longer has open was credited already.
+     * @param transferID A String containing the ID of the transfer.
+     * @return A Status representing the outcome.
+     */
+    public Status commit(String transferID) {
+        synchronized (this.lock(transferID)) {
+            Open transfer = this.open.get(transferID);
+            if (transfer == null || transfer.state != LogRecord.RECEIVE_PREPARE) {
+                return Status.OK;
+            }
+            Account recipient = this.bank.getAccount(transfer.account);
+            return this.bank.getEngine().deposit(recipient, transfer.cents, LogRecord.RECEIVE,
+                transfer.counterparty, transferID);
+        }
+    }
+
+    /**
+     * Drops a transfer this node promised to accept, or refuses any later request to promise it.
+     * @param transferID A String containing the ID of the transfer.
+     * @return A Status representing the outcome.
+     */
+    public Status abort(String transferID) {
+        synchronized (this.lock(transferID)) {
+            Open transfer = this.open.get(transferID);
+            if (transfer == null) {
+                synchronized (this.aborted) {
+                    this.aborted.put(transferID, Boolean.TRUE);
+                }
+            } else if (transfer.state == LogRecord.RECEIVE_PREPARE && !this.log(LogRecord.RECEIVE_ABORT,
+                    transfer.account, transfer.counterparty, transfer.cents, transferID, true)) {
+                return Status.UNAVAILABLE;
+            }
+            return Status.OK;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Recovery Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Updates the open transfers from a record appended to or replayed from the log.
+     * @param record A LogRecord, which is ignored unless it is a step of a transfer between partitions.
+     */
+    public void track(LogRecord record) {
+        String id = record.getTransferID();
+        switch (record.getType()) {
+            case LogRecord.SEND:
+            case LogRecord.RECEIVE_PREPARE:
+                this.open.put(id, new Open(id, record.getType(), record.getID(), record.getRecipientID(),
+                    record.getCents()));
+                break;
+            case LogRecord.SEND_COMMIT:
+            case LogRecord.SEND_ABORT:
+                Open transfer = this.open.get(id);
+                if (transfer != null) {
+                    transfer.state = record.getType();
+                }
+                break;
+            case LogRecord.SEND_DONE:
+            case LogRecord.RECEIVE:
+            case LogRecord.RECEIVE_ABORT:
+                this.open.remove(id);
+                break;
+            case LogRecord.IN_DOUBT:
+                int space = id.lastIndexOf(' ');
+                String transferID = id.substring(0, space);
+                this.open.putIfAbsent(transferID, new Open(transferID, Byte.parseByte(id.substring(space + 1)),
+                    record.getID(), record.getRecipientID(), record.getCents()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Copies every open transfer into the log, so that log files written before can be deleted.
+     * Must be called between lockCheckpoint and unlockCheckpoint, after the log is rotated.
+     */
+    public void checkpoint() {
+        TransactionLog log = this.bank.getLog();
+        for (Open transfer : this.open.values()) {
+            log.append(LogRecord.IN_DOUBT, transfer.account, transfer.counterparty, transfer.cents,
+                transfer.id + " " + transfer.state);
+        }
+    }
+
+    /**
+     * Starts finishing open transfers in the background, once the log has been replayed.
+     */
+    public void start() {
+        this.retrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retrier.scheduleWithFixedDelay(this::retry, RETRY_MILLIS, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops finishing open transfers in the background and closes idle connections to other nodes.
+     * Transfers still open are finished when the node restarts.
+     */
+    public void close() {
+        if (this.retrier != null) {
+            this.retrier.shutdown();
+            try {
+                this.retrier.awaitTermination(TIMEOUT_MILLIS * 2L, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Queue<Peer> idle : this.peers) {
+            for (Peer peer = idle.poll(); peer != null; peer = idle.poll()) {
+                peer.close();
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents a transfer not yet finished on this node, at the step last logged for it.
+     */
+    private static class Open {
+        private String id;
+        private volatile byte state;
+        private String account;
+        private String counterparty;
+        private long cents;
+        private long since;
+
+        private Open(String id, byte state, String account, String counterparty, long cents) {
+            this.id = id;
+            this.state = state;
+            this.account = account;
+            this.counterparty = counterparty;
+            this.cents = cents;
+            this.since = System.nanoTime();
+        }
+    }
+
+    /**
+     * Represents a connection to another node, authenticated with the nodes' secret.
+     */
+    private static class Peer {
+        private Socket socket;
+        private BufferedReader in;
+        private BufferedWriter out;
+
+        private Peer(String host, int port, String secret) throws IOException {
+            this.socket = new Socket();
+            try {
+                this.socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+                this.socket.setSoTimeout(TIMEOUT_MILLIS);
+                this.socket.setTcpNoDelay(true);
+                this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+                this.out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8));
+                if (!this.request("PEER " + secret).startsWith("OK")) {
+                    throw new IOException("Node refused the secret.");
+                }
+            } catch (IOException e) {
+                this.socket.close();
+                throw e;
+            }
+        }
+
+        private String request(String line) throws IOException {
+            this.out.write(line);
+            this.out.newLine();
+            this.out.flush();
+            String reply = this.in.readLine();
+            if (reply == null) {
+                throw new EOFException("Node closed the connection.");
+            }
+            return reply;
+        }
+
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Already unusable
+            }
+        }
+    }
+
+    /**
+     * Sends the decision on a transfer this node sent to the recipient's node, and forgets the
+     * transfer once the decision is acknowledged. A transfer not acknowledged is retried later.
+     * @param transfer The Open transfer, decided.
+     */
+    private void finish(Open transfer) {
+        String command = transfer.state == LogRecord.SEND_COMMIT ? "COMMIT " : "ABORT ";
+        String reply = this.call(this.partitions.owner(transfer.counterparty), command + transfer.id);
+        if (reply != null && reply.startsWith("OK")) {
+            // Need not wait for disk: if lost, the decision is only sent again
+            this.log(LogRecord.SEND_DONE, transfer.account, transfer.counterparty, transfer.cents, transfer.id, false);
+        }
+    }
+
+    /**
+     * Finishes every transfer this node sent that is no longer being made, refunding any left
+     * undecided by a restart, and asks for the decision on every transfer this node promised to
+     * accept long enough ago that the sender's node should have decided it.
+     */
+    private void retry() {
+        long stale = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2L * TIMEOUT_MILLIS);
+        for (Open transfer : this.open.values()) {
+            if (transfer.state == LogRecord.RECEIVE_PREPARE) {
+                if (transfer.since - stale < 0) {
+                    this.resolve(transfer);
+                }
+                continue;
+            } else if (this.active.contains(transfer.id)) {
+                continue;
+            }
+            try {
+                if (transfer.state == LogRecord.SEND) {
+                    Account sender = this.bank.getAccount(transfer.account);
+                    this.bank.getEngine().deposit(sender, transfer.cents, LogRecord.SEND_ABORT,
+                        transfer.counterparty, transfer.id);
+                } else if (transfer.state == LogRecord.SEND_COMMIT
+                        && !this.bank.getLog().commit(this.bank.getLog().getLastLsn())) {
+                    // A decision not yet on disk is sent next time
+                    continue;
+                }
+                this.finish(transfer);
+            } catch (RuntimeException e) {
+                // Tried again next time
+            }
+        }
+    }
+
+    /**
+     * Asks the sender's node for the decision on a transfer this node promised to accept, and
+     * credits the recipient or drops the transfer accordingly. A transfer not yet decided, or whose
+     * sender's node cannot be reached, is asked about again later.
+     * @param transfer The Open transfer, prepared.
+     */
+    private void resolve(Open transfer) {
+        String reply = this.call(this.partitions.owner(transfer.counterparty), "DECISION " + transfer.id);
+        try {
+            if ("OK COMMIT".equals(reply)) {
+                this.commit(transfer.id);
+            } else if ("OK ABORT".equals(reply)) {
+                this.abort(transfer.id);
+            }
+        } catch (RuntimeException e) {
+            // Asked again next time
+        }
+    }
+
+    /**
+     * Sends a request to another node and waits for the reply, over a pooled connection if one is
+     * idle. Every request between nodes can safely be sent twice, so a request failing on a pooled
+     * connection, which may have been closed by the node restarting, is sent once more on a new one.
+     * @param node The index of the node.
+     * @param request A String containing the request line.
+     * @return A String representing the reply, or null if the node could not be reached in time.
+     */
+    private String call(int node, String request) {
+        Queue<Peer> idle = this.peers.get(node);
+        Peer peer = idle.poll();
+        if (peer != null) {
+            try {
+                String reply = peer.request(request);
+                idle.offer(peer);
+                return reply;
+            } catch (IOException e) {
+                peer.close();
+            }
+        }
+        try {
+            peer = new Peer(this.partitions.getHost(node), this.partitions.getPort(node), this.partitions.getSecret());
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            String reply = peer.request(request);
+            idle.offer(peer);
+            return reply;
+        } catch (IOException e) {
+            peer.close();
+            return null;
+        }
+    }
+
+    /**
+     * Appends a step of a transfer that changes no balance to the log.
+     * @param type The type of record.
+     * @param account A String containing the ID of the account on this node.
+     * @param counterparty A String containing the ID of the account on the other node.
+     * @param cents A long containing the amount in cents.
+     * @param transferID A String containing the ID of the transfer.
+     * @param durable A boolean based on whether to wait until the record is on disk.
+     * @return A boolean based on whether the record was committed, always true if not waiting for disk.
+     */
+    private boolean log(byte type, String account, String counterparty, long cents, String transferID, boolean durable) {
+        TransactionLog log = this.bank.getLog();
+        long lsn;
+        log.beginMutation();
+        try {
+            lsn = log.append(type, account, counterparty, cents, transferID);
+        } finally {
+            log.endMutation();
+        }
+        return !durable || log.commit(lsn);
+    }
+
+    /**
+     * Creates a transfer ID unique across nodes and restarts: this node's index and 64 random bits.
+     * @return A String containing the transfer ID.
+     */
+    private String newTransferID() {
+        return this.partitions.getIndex() + "-" + Long.toHexString(this.random.nextLong());
+    }
+
+    /**
+     * Gets the lock serializing the steps of a transfer on this node.
+     * @param transferID A String containing the ID of the transfer.
+     * @return An Object to synchronize on.
+     */
+    private Object lock(String transferID) {
+        return this.locks[transferID.hashCode() & (LOCK_STRIPES - 1)];
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Represents the fields of a request line, found by recording where each starts and ends rather
+ * than by splitting the line into new Strings. One instance is reused for every line.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public class Fields {
+
+    // Delimiter standing for runs of whitespace, with leading and trailing whitespace ignored
+    public static final char WHITESPACE = ' ';
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private CharSequence line;
+    private int[] starts;
+    private int[] ends;
+    private int count;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public Fields() {
+        this(8);
+    }
+
+    public Fields(int capacity) {
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.count = 0;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the line last split.
+     * @return A CharSequence containing the line.
+     */
+    public CharSequence getLine() {
+        return this.line;
+    }
+
+    /**
+     * Gets the number of fields in the line, including any past this instance's capacity, whose
+     * bounds are not kept.
+     * @return An int representing the number of fields.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Gets the index a field starts at.
+     * @param field The index of the field.
+     * @return An int representing the index in the line of the field's first character.
+     */
+    public int start(int field) {
+        return this.starts[field];
+    }
+
+    /**
+     * Gets the index a field ends at.
+     * @param field The index of the field.
+     * @return An int representing the index in the line after the field's last character.
+     */
+    public int end(int field) {
+        return this.ends[field];
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Parsing Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finds the fields of a line.
+     * @param line A CharSequence containing the line.
+     * @param delimiter The char separating fields, or WHITESPACE for runs of whitespace.
+     * @return This Fields, for chaining.
+     */
+    public Fields split(CharSequence line, char delimiter) {
+        this.line = line;
+        this.count = 0;
+        int length = line.length();
+        if (delimiter == WHITESPACE) {
+            int i = 0;
+            while (true) {
+                while (i < length && Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                if (i == length) {
+                    return this;
+                }
+                int start = i;
+                while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                this.add(start, i);
+            }
+        }
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line.charAt(i) == delimiter) {
+                this.add(start, i);
+                start = i + 1;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Gets a field as a String, allocating it, for values that are kept or rarely used.
+     * @param field The index of the field.
+     * @return A String containing the field.
+     */
+    public String get(int field) {
+        return this.line.subSequence(this.starts[field], this.ends[field]).toString();
+    }
+
+    /**
+     * Parses a field as an amount in cents.
+     * @param field The index of the field.
+     * @return A long representing the amount in cents, or -1 if the field is not an amount.
+     */
+    public long cents(int field) {
+        return Money.parse(this.line, this.starts[field], this.ends[field]);
+    }
+
+    /**
+     * Returns whether a field equals the given String, ignoring case.
+     * @param field The index of the field.
+     * @param s A String to compare with.
+     * @return A boolean based on whether the field equals the String.
+     */
+    public boolean equalsIgnoreCase(int field, String s) {
+        int start = this.starts[field];
+        if (this.ends[field] - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = this.line.charAt(start + i);
+            if (c != s.charAt(i) && Character.toUpperCase(c) != Character.toUpperCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Records a field's bounds if within capacity, and counts it either way.
+     * @param start The index of the field's first character.
+     * @param end The index after the field's last character.
+     */
+    private void add(int start, int end) {
+        if (this.count < this.starts.length) {
+            this.starts[this.count] = start;
+            this.ends[this.count] = end;
+        }
+        this.count++;
+    }
+}
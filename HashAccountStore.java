@@ -0,0 +1,67 @@
+/**
+ * Represents an account store indexed by account ID.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class HashAccountStore implements AccountStore {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private ConcurrentHashMap<String, Account> index;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public HashAccountStore() {
+        this.index = new ConcurrentHashMap<String, Account>();
+    }
+
+    public HashAccountStore(int expectedSize) {
+        this.index = new ConcurrentHashMap<String, Account>(expectedSize);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Store Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public Account get(String id) {
+        if (id == null) {
+            return null;
+        }
+        return this.index.get(id);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return this.get(id) != null;
+    }
+
+    @Override
+    public boolean add(Account account) {
+        return this.index.putIfAbsent(account.getID(), account) == null;
+    }
+
+    @Override
+    public int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public void clear() {
+        this.index.clear();
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        return this.index.values().iterator();
+    }
+}
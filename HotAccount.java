@@ -0,0 +1,190 @@
+/**
+ * Represents an account whose balance is split across several padded cells, so that threads
+ * crediting it concurrently add to different cells instead of contending for one. The balance is
+ * the sum of the cells. A debit is taken from the calling thread's cell when it covers the amount,
+ * and otherwise the other cells are gathered into it first, so no debit can overdraw the account.
+ * Gathering bumps a version before and after, so that a reader summing the cells while funds are
+ * between cells notices and sums them again, without ever blocking a credit or debit.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+public class HotAccount extends Account {
+
+    // Number of cells, tunable with -Dbank.hotAccounts.shards
+    public static final int DEFAULT_SHARDS = Integer.getInteger("bank.hotAccounts.shards",
+        2 * Runtime.getRuntime().availableProcessors());
+
+    // Longs between cells, so that each cell sits on its own pair of cache lines
+    private static final int STRIDE = 16;
+
+    // Handle for atomic updates of the cells
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Account base;
+    private long[] cells;
+    private int mask;
+    private volatile long version; // Odd while cells are being gathered
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public HotAccount(Account base) {
+        this(base, DEFAULT_SHARDS);
+    }
+
+    public HotAccount(Account base, int shards) {
+        super(base.getID(), (Credential) null, 0);
+        // Round up to a power of two so a cell can be chosen with a mask
+        int size = Integer.highestOneBit(Math.max(1, shards - 1) << 1);
+        this.base = base;
+        this.cells = new long[size * STRIDE];
+        this.mask = size - 1;
+        CELLS.setVolatile(this.cells, 0, base.getBalanceCents());
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of cells this account's balance is split across.
+     * @return An int representing the number of cells.
+     */
+    public int getShards() {
+        return this.mask + 1;
+    }
+
+    @Override
+    public boolean isSharded() {
+        return true;
+    }
+
+    @Override
+    public Credential getCredential() {
+        return this.base.getCredential();
+    }
+
+    @Override
+    public void setCredential(Credential credential) {
+        this.base.setCredential(credential);
+    }
+
+    /**
+     * Gets this account's balance by summing its cells, summing again if cells were gathered
+     * meanwhile. Each credit and debit is then either fully counted or not at all.
+     * @return A long representing this account's balance in cents.
+     */
+    @Override
+    public long getBalanceCents() {
+        while (true) {
+            long version = this.version;
+            if ((version & 1) == 0) {
+                long total = 0;
+                for (int i = 0; i <= this.mask; i++) {
+                    total += (long) CELLS.getVolatile(this.cells, i * STRIDE);
+                }
+                if (this.version == version) {
+                    return total;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public synchronized void setBalanceCents(long cents) {
+        this.version++;
+        for (int i = 1; i <= this.mask; i++) {
+            CELLS.setVolatile(this.cells, i * STRIDE, 0L);
+        }
+        CELLS.setVolatile(this.cells, 0, cents);
+        this.version++;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Atomic Balance Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Atomically adds the given amount to the calling thread's cell without locking.
+     * @param cents A long containing the amount in cents to add.
+     * @return A long representing the balance in cents of the thread's cell after the credit,
+     *         rather than the whole balance, which would take reading every cell.
+     */
+    @Override
+    public long credit(long cents) {
+        int cell = this.cell();
+        return (long) CELLS.getAndAdd(this.cells, cell, cents) + cents;
+    }
+
+    /**
+     * Atomically subtracts the given amount from the calling thread's cell if it covers the
+     * amount, or otherwise gathers every other cell into the thread's cell and tries again.
+     * @param cents A long containing the amount in cents to subtract.
+     * @return A boolean based on whether the balance covered the debit.
+     */
+    @Override
+    public boolean tryDebit(long cents) {
+        int cell = this.cell();
+        if (this.tryDebitCell(cell, cents)) {
+            return true;
+        }
+
+        // Gathering is serialized so concurrent debits cannot keep moving funds away from each other
+        synchronized (this) {
+            this.version++;
+            for (int i = 0; i <= this.mask; i++) {
+                if (i * STRIDE != cell) {
+                    long moved = (long) CELLS.getAndSet(this.cells, i * STRIDE, 0L);
+                    if (moved != 0) {
+                        CELLS.getAndAdd(this.cells, cell, moved);
+                    }
+                }
+            }
+            this.version++;
+            return this.tryDebitCell(cell, cents);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the index in the array of the calling thread's cell, which is the same on every call.
+     * @return An int representing the index of the cell.
+     */
+    private int cell() {
+        int h = System.identityHashCode(Thread.currentThread());
+        h ^= (h >>> 16);
+        return (h & this.mask) * STRIDE;
+    }
+
+    /**
+     * Atomically subtracts the given amount from a cell unless the cell does not cover it.
+     * @param cell The index in the array of the cell.
+     * @param cents A long containing the amount in cents to subtract.
+     * @return A boolean based on whether the cell covered the debit.
+     */
+    private boolean tryDebitCell(int cell, long cents) {
+        long current = (long) CELLS.getVolatile(this.cells, cell);
+        while (current >= cents) {
+            long witness = (long) CELLS.compareAndExchange(this.cells, cell, current, current - cents);
+            if (witness == current) {
+                return true;
+            }
+            current = witness;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Represents an account store that keeps designated hot accounts as HotAccounts over another
+ * store, so that their balances are sharded while their credentials stay in the other store.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class HotAccountStore implements AccountStore {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private AccountStore store;
+    private Set<String> hotIDs;
+    private ConcurrentHashMap<String, HotAccount> hot;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public HotAccountStore(AccountStore store, Set<String> hotIDs) {
+        this.store = store;
+        this.hotIDs = hotIDs;
+        this.hot = new ConcurrentHashMap<String, HotAccount>();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Store Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public Account get(String id) {
+        if (id == null) {
+            return null;
+        }
+        HotAccount account = this.hot.get(id);
+        return account != null ? account : this.store.get(id);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return this.store.contains(id);
+    }
+
+    @Override
+    public boolean add(Account account) {
+        if (!this.store.add(account)) {
+            return false;
+        }
+        if (this.hotIDs.contains(account.getID())) {
+            // Share the stored account's credential, which may be kept off the heap
+            this.hot.put(account.getID(), new HotAccount(this.store.get(account.getID())));
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return this.store.size();
+    }
+
+    @Override
+    public void clear() {
+        this.hot.clear();
+        this.store.clear();
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        Iterator<Account> accounts = this.store.iterator();
+        return new Iterator<Account>() {
+            @Override
+            public boolean hasNext() {
+                return accounts.hasNext();
+            }
+
+            @Override
+            public Account next() {
+                Account account = accounts.next();
+                HotAccount hotAccount = HotAccountStore.this.hot.get(account.getID());
+                return hotAccount != null ? hotAccount : account;
+            }
+        };
+    }
+}
@@ -0,0 +1,773 @@
+/**
+ * Represents the bank's double-entry ledger, recording every deposit, withdrawal and transfer as
+ * a pair of immutable entries, one per account involved. Entries are appended to segment files,
+ * and each full segment is sealed with an index sorted by account, so the entries of one account
+ * between two times can be fetched a page at a time without scanning other accounts' entries.
+ * Indexes are built on a background thread, so posting moves straight on to a new segment while
+ * the full one is still searched through its postings in memory.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+public class Ledger implements Closeable {
+
+    // Counterparty of deposits and withdrawals, which balance against cash outside the bank
+    public static final String CASH_ACCOUNT = "$cash";
+
+    // Counterparty of interest paid, which the bank pays out of its own earnings
+    public static final String INTEREST_ACCOUNT = "$interest";
+
+    // Holds the other side of transfers to and from accounts on other partitions, whose entries
+    // name the account on the other partition as counterparty
+    public static final String TRANSIT_ACCOUNT = "$transit";
+
+    // Entries per segment file, tunable with -Dbank.ledger.segmentEntries
+    public static final int SEGMENT_ENTRIES = Integer.getInteger("bank.ledger.segmentEntries", 1 << 20);
+
+    private static final int FLUSH_BYTES = 1 << 20;
+    private static final int INDEX_HEADER_BYTES = 40; // First and last sequence numbers, times, last log sequence number
+    private static final int INDEX_RECORD_BYTES = 32; // Account key, sequence number, time, offset of entry
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Path directory;
+    private List<Segment> sealed;
+    private List<Segment> unsealed;
+    private volatile Segment active;
+    private ExecutorService sealer;
+    private Future<?> lastSeal;
+    private long nextSeq;
+    private volatile long lastLsn;
+    private long externalCents;
+    private CRC32 crc;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens the ledger kept in a directory named after the given base path, followed by .ledger,
+     * recovering entries written before a crash and sealing any segment left full.
+     * @param basePath The file path the ledger's directory name is based on.
+     */
+    public Ledger(String basePath) throws IOException {
+        this.directory = directoryOf(basePath);
+        this.sealed = new CopyOnWriteArrayList<Segment>();
+        this.unsealed = new ArrayList<Segment>();
+        this.sealer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-sealer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastSeal = null;
+        this.nextSeq = 1;
+        this.lastLsn = 0;
+        this.externalCents = 0;
+        this.crc = new CRC32();
+        Files.createDirectories(this.directory);
+        this.load(Long.MAX_VALUE);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the log sequence number of the last transaction posted.
+     * @return A long representing the last log sequence number posted, or 0 if the ledger is empty.
+     */
+    public long getLastLsn() {
+        return this.lastLsn;
+    }
+
+    /**
+     * Gets the number of entries posted.
+     * @return A long representing the number of entries.
+     */
+    public synchronized long size() {
+        return this.nextSeq - 1;
+    }
+
+    /**
+     * Gets the net amount paid into the bank's accounts from outside them, as cash deposits less
+     * withdrawals plus interest and transfers from other partitions less those to them, by the
+     * transactions posted since this ledger was opened. Every other entry moves money between
+     * accounts and leaves their total unchanged.
+     * @return A long representing the net amount in cents.
+     */
+    public synchronized long getExternalCents() {
+        return this.externalCents;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Posting Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Posts the entries of a logged transaction: one debit and one matching credit for a transfer,
+     * deposit, withdrawal or interest payment, with cash as the counterparty of deposits and
+     * withdrawals and interest as that of interest payments. Each partition posts its own side of
+     * a transfer between partitions against transit: the sender's when it is sent or refunded, and
+     * the recipient's when it is received. Other records, and records already posted, are ignored.
+     * @param record A LogRecord describing the transaction.
+     */
+    public synchronized void post(LogRecord record) {
+        if (record.getLsn() <= this.lastLsn) {
+            return;
+        }
+        try {
+            switch (record.getType()) {
+                case LogRecord.DEPOSIT:
+                    this.append(record, record.getID(), CASH_ACCOUNT, record.getCents());
+                    this.append(record, CASH_ACCOUNT, record.getID(), -record.getCents());
+                    this.externalCents += record.getCents();
+                    break;
+                case LogRecord.WITHDRAW:
+                    this.append(record, record.getID(), CASH_ACCOUNT, -record.getCents());
+                    this.append(record, CASH_ACCOUNT, record.getID(), record.getCents());
+                    this.externalCents -= record.getCents();
+                    break;
+                case LogRecord.TRANSFER:
+                    this.append(record, record.getID(), record.getRecipientID(), -record.getCents());
+                    this.append(record, record.getRecipientID(), record.getID(), record.getCents());
+                    break;
+                case LogRecord.INTEREST:
+                    this.append(record, record.getID(), INTEREST_ACCOUNT, record.getCents());
+                    this.append(record, INTEREST_ACCOUNT, record.getID(), -record.getCents());
+                    this.externalCents += record.getCents();
+                    break;
+                case LogRecord.SEND:
+                    this.append(record, record.getID(), record.getRecipientID(), -record.getCents());
+                    this.append(record, TRANSIT_ACCOUNT, record.getID(), record.getCents());
+                    this.externalCents -= record.getCents();
+                    break;
+                case LogRecord.SEND_ABORT:
+                case LogRecord.RECEIVE:
+                    this.append(record, record.getID(), record.getRecipientID(), record.getCents());
+                    this.append(record, TRANSIT_ACCOUNT, record.getID(), -record.getCents());
+                    this.externalCents += record.getCents();
+                    break;
+                default:
+                    return;
+            }
+            this.lastLsn = record.getLsn();
+            if (this.active.entries >= SEGMENT_ENTRIES) {
+                Segment full = this.rollOver();
+                this.lastSeal = this.sealer.submit(() -> {
+                    try {
+                        this.seal(full);
+                    } catch (IOException e) {
+                        System.out.println("Failed to write ledger. Ending banking process");
+                        System.exit(0);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write ledger. Ending banking process");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Removes the entries of every transaction after the given log sequence number, left by a crash
+     * that wrote them to the ledger before their records reached the transaction log. The log numbers
+     * its next records from the last it holds, so entries kept past it would be statements' phantoms
+     * and would make the ledger ignore the records reusing their numbers. Segments starting past the
+     * number are deleted, and the one holding it is unsealed and cut after it.
+     * @param lsn The log sequence number of the last record in the transaction log.
+     */
+    public void truncate(long lsn) throws IOException {
+        this.awaitSeals();
+        synchronized (this) {
+            if (this.lastLsn > lsn) {
+                this.cut(lsn);
+            }
+        }
+    }
+
+    /**
+     * Removes the entries after the given log sequence number once no segment is being sealed.
+     * Must hold this ledger's lock.
+     */
+    private void cut(long lsn) throws IOException {
+        this.active.channel.close();
+        for (int number : this.segmentNumbers()) {
+            Path index = this.indexOf(number);
+            if (firstLsn(this.dataOf(number)) > lsn) {
+                Files.deleteIfExists(index);
+                Files.delete(this.dataOf(number));
+            } else if (Files.exists(index) && Segment.open(number, this.dataOf(number), index).lastLsn > lsn) {
+                Files.delete(index);
+            }
+        }
+        System.out.println(String.format("Removed ledger entries after log sequence number %d, which the log lost.", lsn));
+        this.sealed.clear();
+        this.active = null;
+        this.nextSeq = 1;
+        this.lastLsn = 0;
+        this.load(lsn);
+    }
+
+    /**
+     * Writes every entry posted so far and lists the ledger's files with their lengths, so that a
+     * copy of the ledger as it stands can be read from them while entries continue to be posted.
+     * Files only grow once written, so each read up to its listed length is part of the copy.
+     * @return A Map from the path of each file to its length in bytes, in segment order.
+     */
+    public synchronized Map<Path, Long> files() throws IOException {
+        this.active.write();
+        Map<Path, Long> files = new LinkedHashMap<Path, Long>();
+        for (int number : this.segmentNumbers()) {
+            files.put(this.dataOf(number), Files.size(this.dataOf(number)));
+            if (Files.exists(this.indexOf(number))) {
+                files.put(this.indexOf(number), Files.size(this.indexOf(number)));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Gets the directory the ledger named after the given base path is kept in.
+     * @param basePath The file path the ledger's directory name is based on.
+     * @return A Path to the ledger's directory.
+     */
+    public static Path directoryOf(String basePath) {
+        Path base = Paths.get(basePath).toAbsolutePath();
+        return base.resolveSibling(base.getFileName() + ".ledger");
+    }
+
+    /**
+     * Writes and syncs every entry posted so far, including those of segments still being sealed.
+     */
+    public synchronized void flush() throws IOException {
+        this.active.write();
+        this.active.channel.force(false);
+        for (Segment segment : this.unsealed) {
+            segment.channel.force(false);
+        }
+    }
+
+    /**
+     * Waits for full segments to be sealed and writes every entry posted, then closes the active segment file.
+     */
+    @Override
+    public void close() throws IOException {
+        this.awaitSeals();
+        this.sealer.shutdown();
+        synchronized (this) {
+            this.flush();
+            this.active.channel.close();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Query Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets a page of the given account's entries between two times, oldest first. To fetch the
+     * next page, pass the sequence number of the last entry returned as afterSeq.
+     * @param id A String containing the ID of the account.
+     * @param from The earliest time to include, in milliseconds since the epoch.
+     * @param to The latest time to include, in milliseconds since the epoch.
+     * @param afterSeq The sequence number after which to start, or 0 to start at the earliest entry.
+     * @param limit The most entries to return.
+     * @return A List of LedgerEntry objects in sequence order.
+     */
+    public List<LedgerEntry> entries(String id, long from, long to, long afterSeq, int limit) throws IOException {
+        List<LedgerEntry> page = new ArrayList<LedgerEntry>();
+        long key = key(id);
+
+        // Sealed segments are immutable, so they are searched without blocking posts
+        int searched = 0;
+        for (Segment segment : this.sealed) {
+            segment.search(id, key, from, to, afterSeq, limit, page);
+            searched = segment.number;
+        }
+        synchronized (this) {
+            // Search segments sealed since, then those still being sealed and the active segment
+            for (Segment segment : this.sealed) {
+                if (segment.number > searched) {
+                    segment.search(id, key, from, to, afterSeq, limit, page);
+                }
+            }
+            for (Segment segment : this.unsealed) {
+                segment.searchPostings(id, from, to, afterSeq, limit, page);
+            }
+            this.active.searchPostings(id, from, to, afterSeq, limit, page);
+        }
+        return page;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Segment Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents a segment file of entries. The active segment buffers entries and indexes them in
+     * memory; a sealed segment is memory-mapped along with its index file.
+     */
+    private static class Segment {
+        private int number;
+        private long firstSeq;
+        private long lastSeq;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private long lastLsn;
+        private int entries;
+
+        // Active segments only
+        private FileChannel channel;
+        private long fileBytes;
+        private ByteBuffer pending;
+        private Map<String, Postings> postings;
+
+        // Sealed segments only
+        private ByteBuffer data;
+        private ByteBuffer index;
+
+        private Segment(int number, long firstSeq, FileChannel channel) throws IOException {
+            this.number = number;
+            this.firstSeq = firstSeq;
+            this.lastSeq = firstSeq - 1;
+            this.channel = channel;
+            this.fileBytes = channel.size();
+            this.pending = ByteBuffer.allocate(FLUSH_BYTES * 2);
+            this.postings = new HashMap<String, Postings>();
+        }
+
+        /**
+         * Opens a sealed segment, reading its range from the header of its index.
+         */
+        private static Segment open(int number, Path dataFile, Path indexFile) throws IOException {
+            Segment segment = new Segment();
+            segment.number = number;
+            try (FileChannel data = FileChannel.open(dataFile, StandardOpenOption.READ);
+                 FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                segment.data = data.map(FileChannel.MapMode.READ_ONLY, 0, data.size());
+                segment.index = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+            }
+            segment.firstSeq = segment.index.getLong(0);
+            segment.lastSeq = segment.index.getLong(8);
+            segment.minTime = segment.index.getLong(16);
+            segment.maxTime = segment.index.getLong(24);
+            segment.lastLsn = segment.index.getLong(32);
+            segment.entries = (segment.index.capacity() - INDEX_HEADER_BYTES) / INDEX_RECORD_BYTES;
+            return segment;
+        }
+
+        private Segment() {
+        }
+
+        /**
+         * Writes buffered entries to the segment file without syncing.
+         */
+        private void write() throws IOException {
+            this.pending.flip();
+            while (this.pending.hasRemaining()) {
+                this.fileBytes += this.channel.write(this.pending, this.fileBytes);
+            }
+            this.pending.clear();
+        }
+
+        /**
+         * Reads the entry at the given offset of an active segment, which may still be buffered.
+         */
+        private LedgerEntry read(long offset) throws IOException {
+            if (offset >= this.fileBytes) {
+                return decode(this.pending, (int) (offset - this.fileBytes));
+            }
+            ByteBuffer length = ByteBuffer.allocate(4);
+            this.channel.read(length, offset);
+            ByteBuffer entry = ByteBuffer.allocate(4 + length.getInt(0));
+            this.channel.read(entry, offset);
+            return decode(entry, 0);
+        }
+
+        /**
+         * Adds the entries of an active or unsealed segment matching a query to a page, found
+         * through its postings in memory.
+         */
+        private void searchPostings(String id, long from, long to, long afterSeq, int limit, List<LedgerEntry> page)
+                throws IOException {
+            Postings postings = this.postings.get(id);
+            if (postings == null) {
+                return;
+            }
+            for (int i = postings.lowerBound(from, afterSeq); i < postings.size && page.size() < limit; i++) {
+                if (postings.time(i) > to) {
+                    break;
+                }
+                page.add(this.read(postings.offset(i)));
+            }
+        }
+
+        /**
+         * Adds the entries of a sealed segment matching a query to a page.
+         */
+        private void search(String id, long key, long from, long to, long afterSeq, int limit,
+                            List<LedgerEntry> page) {
+            if (page.size() >= limit || this.lastSeq <= afterSeq || this.maxTime < from || this.minTime > to) {
+                return;
+            }
+
+            // Find the first record of the account at or after the start of the query
+            int low = 0;
+            int high = this.entries;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int record = INDEX_HEADER_BYTES + mid * INDEX_RECORD_BYTES;
+                long recordKey = this.index.getLong(record);
+                if (recordKey < key || (recordKey == key
+                        && (this.index.getLong(record + 8) <= afterSeq || this.index.getLong(record + 16) < from))) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            for (int i = low; i < this.entries && page.size() < limit; i++) {
+                int record = INDEX_HEADER_BYTES + i * INDEX_RECORD_BYTES;
+                if (this.index.getLong(record) != key || this.index.getLong(record + 16) > to) {
+                    return;
+                }
+                LedgerEntry entry = decode(this.data, (int) this.index.getLong(record + 24));
+                if (entry.getAccountID().equals(id)) { // Skip accounts whose keys collide
+                    page.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Represents the sequence numbers, times and offsets of one account's entries in the active segment.
+     */
+    private static class Postings {
+        private long[] values = new long[12];
+        private int size;
+
+        private void add(long seq, long time, long offset) {
+            if (this.size * 3 == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.values.length * 2);
+            }
+            this.values[this.size * 3] = seq;
+            this.values[this.size * 3 + 1] = time;
+            this.values[this.size * 3 + 2] = offset;
+            this.size++;
+        }
+
+        private long seq(int i) {
+            return this.values[i * 3];
+        }
+
+        private long time(int i) {
+            return this.values[i * 3 + 1];
+        }
+
+        private long offset(int i) {
+            return this.values[i * 3 + 2];
+        }
+
+        /**
+         * Finds the first posting after the given sequence number and at or after the given time,
+         * both of which increase through the postings.
+         */
+        private int lowerBound(long from, long afterSeq) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.seq(mid) <= afterSeq || this.time(mid) < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens every segment file, rebuilding the active segment from its entries up to the given log
+     * sequence number and sealing any segment before it left unsealed by a crash.
+     * @param maxLsn The log sequence number of the last transaction to keep in an unsealed segment.
+     */
+    private void load(long maxLsn) throws IOException {
+        int last = 0;
+        for (int number : this.segmentNumbers()) {
+            if (Files.exists(this.indexOf(number))) {
+                Segment segment = Segment.open(number, this.dataOf(number), this.indexOf(number));
+                this.sealed.add(segment);
+                this.nextSeq = segment.lastSeq + 1;
+                this.lastLsn = Math.max(this.lastLsn, segment.lastLsn);
+            } else {
+                // Unsealed, so rebuild its postings from its entries
+                if (this.active != null) {
+                    this.seal(this.rollOver());
+                }
+                this.active = this.recover(number, maxLsn);
+            }
+            last = number;
+        }
+        if (this.active == null) {
+            this.active = new Segment(last + 1, this.nextSeq, this.open(last + 1));
+        }
+    }
+
+    /**
+     * Appends one entry to the active segment and indexes it. Must hold this ledger's lock.
+     */
+    private void append(LogRecord record, String accountID, String counterpartyID, long cents) throws IOException {
+        Segment active = this.active;
+        byte[] account = accountID.getBytes(StandardCharsets.UTF_8);
+        byte[] counterparty = counterpartyID.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 8 + 8 + 2 + account.length + 2 + counterparty.length;
+        if (active.pending.remaining() < length + 8) {
+            active.write();
+        }
+
+        long seq = this.nextSeq++;
+        long offset = active.fileBytes + active.pending.position();
+        ByteBuffer buffer = active.pending;
+        buffer.putInt(length);
+        int start = buffer.position();
+        buffer.putLong(seq);
+        buffer.putLong(record.getLsn());
+        buffer.putLong(record.getTime());
+        buffer.putLong(cents);
+        buffer.putShort((short) account.length).put(account);
+        buffer.putShort((short) counterparty.length).put(counterparty);
+        this.crc.reset();
+        this.crc.update(buffer.array(), start, length);
+        buffer.putInt((int) this.crc.getValue());
+        if (buffer.position() >= FLUSH_BYTES) {
+            active.write();
+        }
+
+        active.postings.computeIfAbsent(accountID, id -> new Postings()).add(seq, record.getTime(), offset);
+        active.lastSeq = seq;
+        active.minTime = Math.min(active.minTime, record.getTime());
+        active.maxTime = Math.max(active.maxTime, record.getTime());
+        active.lastLsn = record.getLsn();
+        active.entries++;
+    }
+
+    /**
+     * Writes the active segment's buffered entries and starts a new active segment, keeping the
+     * full one searchable until it is sealed. Must hold this ledger's lock.
+     * @return The full Segment, to be sealed.
+     */
+    private Segment rollOver() throws IOException {
+        Segment full = this.active;
+        full.write();
+        this.unsealed.add(full);
+        this.active = new Segment(full.number + 1, this.nextSeq, this.open(full.number + 1));
+        return full;
+    }
+
+    /**
+     * Syncs a full segment, writes its index sorted by account key then sequence number, and maps
+     * both files in its place. Runs without this ledger's lock until the sealed segment is published,
+     * as the full segment is no longer changed.
+     * @param active The full Segment returned by rollOver.
+     */
+    private void seal(Segment active) throws IOException {
+        active.channel.force(false);
+
+        // Order accounts by key, merging the postings of accounts whose keys collide by sequence number
+        List<Map.Entry<String, Postings>> accounts = new ArrayList<Map.Entry<String, Postings>>(active.postings.entrySet());
+        accounts.sort((a, b) -> Long.compare(key(a.getKey()), key(b.getKey())));
+        ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_BYTES + active.entries * INDEX_RECORD_BYTES);
+        index.putLong(active.firstSeq).putLong(active.lastSeq).putLong(active.minTime).putLong(active.maxTime)
+            .putLong(active.lastLsn);
+        for (int i = 0; i < accounts.size(); ) {
+            long key = key(accounts.get(i).getKey());
+            List<long[]> records = new ArrayList<long[]>();
+            for (; i < accounts.size() && key(accounts.get(i).getKey()) == key; i++) {
+                Postings postings = accounts.get(i).getValue();
+                for (int p = 0; p < postings.size; p++) {
+                    records.add(new long[] {postings.seq(p), postings.time(p), postings.offset(p)});
+                }
+            }
+            records.sort((a, b) -> Long.compare(a[0], b[0]));
+            for (long[] record : records) {
+                index.putLong(key).putLong(record[0]).putLong(record[1]).putLong(record[2]);
+            }
+        }
+
+        // Write the index next to the segment, replacing nothing until it is complete
+        Path temp = this.directory.resolve("segment-" + active.number + ".idx.tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            index.flip();
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, this.indexOf(active.number), StandardCopyOption.ATOMIC_MOVE);
+
+        Segment sealed = Segment.open(active.number, this.dataOf(active.number), this.indexOf(active.number));
+        synchronized (this) {
+            this.sealed.add(sealed);
+            this.unsealed.remove(active);
+        }
+        active.channel.close();
+    }
+
+    /**
+     * Waits until every full segment handed to the sealer has been sealed.
+     */
+    private void awaitSeals() throws IOException {
+        Future<?> seal;
+        synchronized (this) {
+            seal = this.lastSeal;
+        }
+        if (seal == null) {
+            return;
+        }
+        try {
+            seal.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Failed to seal ledger segment.", e);
+        }
+    }
+
+    /**
+     * Rebuilds an unsealed segment from its entries, cutting off a torn entry left by a crash and
+     * any entries of transactions after the given log sequence number.
+     */
+    private Segment recover(int number, long maxLsn) throws IOException {
+        FileChannel channel = this.open(number);
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        Segment segment = new Segment(number, this.nextSeq, channel);
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (position + 4 <= data.limit()) {
+            int length = data.getInt(position);
+            if (length <= 0 || position + 4 + length + 4 > data.limit()) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.slice(position + 4, length));
+            if ((int) crc.getValue() != data.getInt(position + 4 + length)) {
+                break;
+            }
+            LedgerEntry entry = decode(data, position);
+            if (entry.getLsn() > maxLsn) {
+                break;
+            }
+            segment.postings.computeIfAbsent(entry.getAccountID(), id -> new Postings())
+                .add(entry.getSeq(), entry.getTime(), position);
+            if (segment.entries == 0) {
+                segment.firstSeq = entry.getSeq();
+            }
+            segment.lastSeq = entry.getSeq();
+            segment.minTime = Math.min(segment.minTime, entry.getTime());
+            segment.maxTime = Math.max(segment.maxTime, entry.getTime());
+            segment.lastLsn = entry.getLsn();
+            segment.entries++;
+            position += 4 + length + 4;
+        }
+        channel.truncate(position);
+        segment.fileBytes = position;
+        this.nextSeq = segment.lastSeq + 1;
+        this.lastLsn = Math.max(this.lastLsn, segment.lastLsn);
+        return segment;
+    }
+
+    /**
+     * Reads the log sequence number of the first entry of a segment file.
+     * @return The log sequence number, or Long.MAX_VALUE if the file holds no whole entry.
+     */
+    private static long firstLsn(Path dataFile) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 + 16);
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // Read until the header is full or the file ends
+            }
+        }
+        return header.hasRemaining() ? Long.MAX_VALUE : header.getLong(4 + 8);
+    }
+
+    /**
+     * Decodes the entry at the given position of a buffer, without checking its checksum.
+     */
+    private static LedgerEntry decode(ByteBuffer buffer, int position) {
+        int p = position + 4;
+        long seq = buffer.getLong(p);
+        long lsn = buffer.getLong(p + 8);
+        long time = buffer.getLong(p + 16);
+        long cents = buffer.getLong(p + 24);
+        p += 32;
+        byte[] account = new byte[buffer.getShort(p)];
+        buffer.get(p + 2, account);
+        p += 2 + account.length;
+        byte[] counterparty = new byte[buffer.getShort(p)];
+        buffer.get(p + 2, counterparty);
+        return new LedgerEntry(seq, lsn, time, new String(account, StandardCharsets.UTF_8),
+            new String(counterparty, StandardCharsets.UTF_8), cents);
+    }
+
+    /**
+     * Hashes an account ID to the 64-bit key its index records are sorted by.
+     */
+    private static long key(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Opens a segment file for appending, creating it if needed.
+     */
+    private FileChannel open(int number) throws IOException {
+        return FileChannel.open(this.dataOf(number), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    private Path dataOf(int number) {
+        return this.directory.resolve("segment-" + number + ".dat");
+    }
+
+    private Path indexOf(int number) {
+        return this.directory.resolve("segment-" + number + ".idx");
+    }
+
+    /**
+     * Lists the numbers of the existing segment files in ascending order.
+     */
+    private List<Integer> segmentNumbers() throws IOException {
+        List<Integer> numbers = new ArrayList<Integer>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "segment-*.dat")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment file
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Represents one immutable posting in the ledger: an amount credited to or debited from an
+ * account, balanced by an opposite posting to its counterparty.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public class LedgerEntry {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private long seq;
+    private long lsn;
+    private long time;
+    private String accountID;
+    private String counterpartyID;
+    private long cents;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public LedgerEntry(long seq, long lsn, long time, String accountID, String counterpartyID, long cents) {
+        this.seq = seq;
+        this.lsn = lsn;
+        this.time = time;
+        this.accountID = accountID;
+        this.counterpartyID = counterpartyID;
+        this.cents = cents;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets this entry's sequence number, which increases with every entry and pages through queries.
+     * @return A long representing this entry's sequence number.
+     */
+    public long getSeq() {
+        return this.seq;
+    }
+
+    /**
+     * Gets the log sequence number of the transaction this entry is part of.
+     * @return A long representing the log sequence number.
+     */
+    public long getLsn() {
+        return this.lsn;
+    }
+
+    /**
+     * Gets the time of the transaction this entry is part of.
+     * @return A long representing the time in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * Gets the ID of the account posted to.
+     * @return A String representing the ID of the account.
+     */
+    public String getAccountID() {
+        return this.accountID;
+    }
+
+    /**
+     * Gets the ID of the account on the other side of the transaction, which is Ledger.CASH_ACCOUNT
+     * for deposits and withdrawals.
+     * @return A String representing the ID of the counterparty.
+     */
+    public String getCounterpartyID() {
+        return this.counterpartyID;
+    }
+
+    /**
+     * Gets the amount posted, positive for a credit and negative for a debit.
+     * @return A long representing the amount in cents.
+     */
+    public long getCents() {
+        return this.cents;
+    }
+}
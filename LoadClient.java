@@ -0,0 +1,165 @@
+/**
+ * Generates load against a bank server by running many concurrent client sessions.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class LoadClient {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private String host;
+    private int port;
+    private int sessions;
+    private AtomicLong ops;
+    private AtomicLong errors;
+    private AtomicLong latencyNanos;
+    private AtomicInteger connected;
+    private volatile boolean running;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public LoadClient(String host, int port, int sessions) {
+        this.host = host;
+        this.port = port;
+        this.sessions = sessions;
+        this.ops = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.latencyNanos = new AtomicLong();
+        this.connected = new AtomicInteger();
+        this.running = true;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Runs all sessions for the given duration and prints throughput and latency.
+     * @param seconds The number of seconds to generate load for once sessions are started.
+     */
+    public void run(int seconds) throws Exception {
+        ExecutorService executor = BankServer.newSessionExecutor();
+        for (int i = 0; i < this.sessions; i++) {
+            int index = i;
+            executor.execute(() -> this.session(index));
+        }
+
+        // Report once per second while sessions run
+        long start = System.nanoTime();
+        long lastOps = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(1000);
+            long total = this.ops.get();
+            System.out.println(String.format("t=%ds sessions=%d ops/s=%d errors=%d",
+                second, this.connected.get(), total - lastOps, this.errors.get()));
+            lastOps = total;
+        }
+        this.running = false;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long total = this.ops.get();
+        System.out.println(String.format("%,d ops in %.1fs (%,.0f ops/s), mean latency %.1fus, %,d errors",
+            total, elapsed, total / elapsed, total > 0 ? this.latencyNanos.get() / 1e3 / total : 0.0,
+            this.errors.get()));
+    }
+
+    /**
+     * Runs a single client session issuing random requests until the run ends.
+     * @param index The index of this session, used to derive its account ID.
+     */
+    private void session(int index) {
+        try (Socket socket = new Socket(this.host, this.port);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            this.connected.incrementAndGet();
+
+            // Set up this session's account, which may exist from an earlier run
+            request(in, out, "REGISTER load" + index + " pw" + index);
+            if (!request(in, out, "LOGIN load" + index + " pw" + index).startsWith("OK")) {
+                this.errors.incrementAndGet();
+                return;
+            }
+            request(in, out, "DEPOSIT 1000");
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (this.running) {
+                String line;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        line = "DEPOSIT 1";
+                        break;
+                    case 1:
+                        line = "WITHDRAW 1";
+                        break;
+                    case 2:
+                        line = "TRANSFER load" + random.nextInt(this.sessions) + " 1";
+                        break;
+                    default:
+                        line = "BALANCE";
+                        break;
+                }
+                long start = System.nanoTime();
+                String response = request(in, out, line);
+                this.latencyNanos.addAndGet(System.nanoTime() - start);
+                this.ops.incrementAndGet();
+                if (response == null) {
+                    this.errors.incrementAndGet();
+                    return;
+                }
+            }
+            request(in, out, "EXIT");
+        } catch (IOException e) {
+            this.errors.incrementAndGet();
+        } finally {
+            this.connected.decrementAndGet();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Sends a request line and waits for its response line.
+     * @param in A BufferedReader reading responses from the server.
+     * @param out A BufferedWriter writing requests to the server.
+     * @param line A String containing the request.
+     * @return A String representing the response, or null if the server closed the connection.
+     */
+    private static String request(BufferedReader in, BufferedWriter out, String line) throws IOException {
+        out.write(line);
+        out.newLine();
+        out.flush();
+        return in.readLine();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Main Method
+    //------------------------------------------------------------------------------------------------------------------
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : BankServer.DEFAULT_PORT;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        new LoadClient(host, port, sessions).run(seconds);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Represents one mutation of the bank's accounts, as written to the transaction log.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public class LogRecord {
+
+    public static final byte DEPOSIT = 1;
+    public static final byte WITHDRAW = 2;
+    public static final byte TRANSFER = 3;
+    public static final byte REGISTER = 4;
+    public static final byte PASSWORD = 5;
+    public static final byte RESET = 6;
+    public static final byte INTEREST = 7;
+
+    // Records of a transfer to an account on another partition, identified by the transfer ID kept
+    // in place of a credential. The sender's partition coordinates: it debits the sender into transit
+    // (SEND), decides to commit (SEND_COMMIT) or to refund the sender (SEND_ABORT), and forgets the
+    // transfer once the recipient's partition has the decision (SEND_DONE). The recipient's partition
+    // promises to accept it (RECEIVE_PREPARE), then credits the recipient (RECEIVE) or drops it
+    // (RECEIVE_ABORT). A checkpoint copies each transfer still open into the new log (IN_DOUBT).
+    public static final byte SEND = 8;
+    public static final byte SEND_COMMIT = 9;
+    public static final byte SEND_ABORT = 10;
+    public static final byte SEND_DONE = 11;
+    public static final byte RECEIVE_PREPARE = 12;
+    public static final byte RECEIVE = 13;
+    public static final byte RECEIVE_ABORT = 14;
+    public static final byte IN_DOUBT = 15;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private long lsn;
+    private long time;
+    private byte type;
+    private String id;
+    private String recipientID;
+    private long cents;
+    private String credential;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public LogRecord(long lsn, long time, byte type, String id, String recipientID, long cents, String credential) {
+        this.lsn = lsn;
+        this.time = time;
+        this.type = type;
+        this.id = id;
+        this.recipientID = recipientID;
+        this.cents = cents;
+        this.credential = credential;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets this record's log sequence number, which increases with every record logged.
+     * @return A long representing this record's log sequence number.
+     */
+    public long getLsn() {
+        return this.lsn;
+    }
+
+    /**
+     * Gets the time this record was logged, which never decreases with the log sequence number.
+     * @return A long representing the time in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * Gets the type of mutation this record describes.
+     * @return A byte representing the type, one of the constants of this class.
+     */
+    public byte getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the ID of the account mutated, or of the sender of a transfer, or of the account kept by a reset.
+     * @return A String representing the ID of the account.
+     */
+    public String getID() {
+        return this.id;
+    }
+
+    /**
+     * Gets the ID of the recipient of a transfer, or of the other party to a transfer between partitions.
+     * @return A String representing the ID of the recipient, or null if this is not a transfer.
+     */
+    public String getRecipientID() {
+        return this.recipientID;
+    }
+
+    /**
+     * Gets the amount deposited, withdrawn or transferred.
+     * @return A long representing the amount in cents.
+     */
+    public long getCents() {
+        return this.cents;
+    }
+
+    /**
+     * Gets the encoded credential of a registration or password change.
+     * @return A String representing the encoded credential, or null for other records.
+     */
+    public String getCredential() {
+        return this.credential;
+    }
+
+    /**
+     * Gets the ID of a transfer between partitions, which is kept in place of a credential.
+     * @return A String representing the transfer ID, or null for other records.
+     */
+    public String getTransferID() {
+        return this.credential;
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Represents the primary's side of log shipping: a server streaming the bank's mutations to read
+ * replicas as they reach disk. A replica starting afresh is first sent a copy of every account and
+ * of the ledger taken in a brief pause, then every record logged after it. A replica reconnecting
+ * is sent the records it missed, if they are still among the recent records kept for this. Each
+ * batch ends with a heartbeat giving the last record sent, so a replica knows how fresh it is even
+ * while nothing changes.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class LogShipper {
+
+    // Port the primary serves replicas on, set with -Dbank.replication.port, or 0 to serve none,
+    // and the secret replicas authenticate with, set with -Dbank.replication.secret
+    public static final int PORT = Integer.getInteger("bank.replication.port", 0);
+    public static final String SECRET = System.getProperty("bank.replication.secret", "");
+
+    // Recent records kept for replicas that reconnect, tunable with -Dbank.replication.backlog and
+    // rounded to a power of two, and the longest time between heartbeats, tunable with
+    // -Dbank.replication.heartbeatMillis
+    public static final int BACKLOG =
+        Integer.highestOneBit(Math.max(1, Integer.getInteger("bank.replication.backlog", 1 << 18) - 1) << 1);
+    public static final long HEARTBEAT_MILLIS = Long.getLong("bank.replication.heartbeatMillis", 100);
+
+    // Frames sent to replicas, each starting with one of these bytes
+    public static final byte SNAPSHOT = 1;
+    public static final byte RECORD = 2;
+    public static final byte HEARTBEAT = 3;
+    public static final byte ERROR = 4;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private int port;
+    private String secret;
+    private AtomicReferenceArray<LogRecord> backlog;
+    private long firstLsn;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a server shipping the given bank's log to replicas, keeping recent records from now on.
+     * @param bank The Bank whose mutations are shipped.
+     * @param port The port to serve replicas on.
+     * @param secret A String containing the secret replicas authenticate with.
+     */
+    public LogShipper(Bank bank, int port, String secret) {
+        this.bank = bank;
+        this.port = port;
+        this.secret = secret;
+        this.backlog = new AtomicReferenceArray<LogRecord>(BACKLOG);
+
+        // Start keeping records while mutations are paused, so that none is missed
+        TransactionLog log = bank.getLog();
+        log.lockCheckpoint();
+        try {
+            log.addListener(this::keep);
+            this.firstLsn = log.getLastLsn() + 1;
+        } finally {
+            log.unlockCheckpoint();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts accepting replicas on a background thread, serving each on its own thread.
+     */
+    public void start() throws IOException {
+        ServerSocket server = new ServerSocket(this.port);
+        Thread acceptor = new Thread(() -> {
+            try (server) {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread thread = new Thread(() -> this.serve(socket), "replica-" + socket.getPort());
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                System.out.println("Stopped serving replicas.");
+            }
+        }, "log-shipper");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println(String.format("Shipping the transaction log to replicas on port %d.", this.port));
+    }
+
+    /**
+     * Serves one replica until it disconnects. The replica sends the secret and the sequence number of
+     * the last record it holds, or -1 to be sent a copy of everything first.
+     * @param socket A Socket connected to the replica.
+     */
+    private void serve(Socket socket) {
+        TransactionLog log = this.bank.getLog();
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            socket.setTcpNoDelay(true);
+            String secret = in.readUTF();
+            long after = in.readLong();
+            long next;
+            if (!Partitions.isSecret(this.secret, secret)) {
+                error(out, "Wrong replication secret.");
+                return;
+            } else if (after < 0) {
+                next = this.sendSnapshot(out) + 1;
+            } else if (after > log.getDurableLsn()) {
+                error(out, "Replica is ahead of the primary.");
+                return;
+            } else {
+                next = after + 1;
+            }
+
+            // Send records as they reach disk, so a replica never holds one the primary could lose
+            while (true) {
+                log.awaitDurable(next, HEARTBEAT_MILLIS);
+                long durable = log.getDurableLsn();
+                for (; next <= durable; next++) {
+                    LogRecord record = next < this.firstLsn ? null : this.backlog.get((int) (next & (BACKLOG - 1)));
+                    if (record == null || record.getLsn() != next) {
+                        error(out, "Replica is too far behind the primary to catch up. Restart it to copy the primary again.");
+                        return;
+                    }
+                    writeRecord(out, record);
+                }
+                out.writeByte(HEARTBEAT);
+                out.writeLong(next - 1);
+                out.writeLong(System.currentTimeMillis());
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The replica disconnected; it reconnects and continues where it left off
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Keeps a record for replicas, replacing the oldest kept. Called by the log in sequence order.
+     * @param record A LogRecord just appended.
+     */
+    private void keep(LogRecord record) {
+        this.backlog.set((int) (record.getLsn() & (BACKLOG - 1)), record);
+    }
+
+    /**
+     * Sends a copy of every account and of the ledger, taken while mutations are paused so that it
+     * matches a log sequence number. Only references and longs are copied in the pause.
+     * @param out The DataOutputStream to the replica.
+     * @return A long representing the log sequence number the copy was taken at.
+     */
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        TransactionLog log = this.bank.getLog();
+        int size = this.bank.getAccounts().size();
+        String[] ids = new String[size];
+        Credential[] credentials = new Credential[size];
+        long[] balances = new long[size];
+        int count = 0;
+        long lsn;
+        Map<Path, Long> files;
+        log.lockCheckpoint();
+        try {
+            log.flush();
+            lsn = log.getLastLsn();
+            for (Account account : this.bank.getAccounts()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2 + 1);
+                    credentials = Arrays.copyOf(credentials, count * 2 + 1);
+                    balances = Arrays.copyOf(balances, count * 2 + 1);
+                }
+                ids[count] = account.getID();
+                credentials[count] = account.getCredential();
+                balances[count] = account.getBalanceCents();
+                count++;
+            }
+            files = this.bank.getLedger().files();
+        } finally {
+            log.unlockCheckpoint();
+        }
+
+        out.writeByte(SNAPSHOT);
+        out.writeLong(lsn);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            byte[] credential = credentials[i].toBytes();
+            out.writeUTF(ids[i]);
+            out.writeShort(credential.length);
+            out.write(credential);
+            out.writeLong(balances[i]);
+        }
+        out.writeInt(files.size());
+        for (Map.Entry<Path, Long> file : files.entrySet()) {
+            out.writeUTF(file.getKey().getFileName().toString());
+            out.writeLong(file.getValue());
+            try (InputStream data = Files.newInputStream(file.getKey())) {
+                copy(data, out, file.getValue());
+            }
+        }
+        out.flush();
+        return lsn;
+    }
+
+    /**
+     * Copies the given number of bytes from one stream to another.
+     * @param in The InputStream to read from.
+     * @param out The OutputStream to write to.
+     * @param length The number of bytes to copy.
+     */
+    public static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new EOFException("File ended before the length copied.");
+            }
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Sends a record to a replica.
+     * @param out The DataOutputStream to the replica.
+     * @param record The LogRecord to send.
+     */
+    private static void writeRecord(DataOutputStream out, LogRecord record) throws IOException {
+        out.writeByte(RECORD);
+        out.writeLong(record.getLsn());
+        out.writeLong(record.getTime());
+        out.writeByte(record.getType());
+        out.writeUTF(record.getID());
+        out.writeUTF(record.getRecipientID() == null ? "" : record.getRecipientID());
+        out.writeLong(record.getCents());
+        out.writeUTF(record.getCredential() == null ? "" : record.getCredential());
+    }
+
+    /**
+     * Reads a record sent by writeRecord, after its frame byte.
+     * @param in The DataInputStream from the primary.
+     * @return The LogRecord sent.
+     */
+    public static LogRecord readRecord(DataInputStream in) throws IOException {
+        long lsn = in.readLong();
+        long time = in.readLong();
+        byte type = in.readByte();
+        String id = in.readUTF();
+        String recipientID = in.readUTF();
+        long cents = in.readLong();
+        String credential = in.readUTF();
+        return new LogRecord(lsn, time, type, id, recipientID.isEmpty() ? null : recipientID, cents,
+            credential.isEmpty() ? null : credential);
+    }
+
+    /**
+     * Sends a replica the reason it will not be served.
+     * @param out The DataOutputStream to the replica.
+     * @param message A String containing the reason.
+     */
+    private static void error(DataOutputStream out, String message) throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(message);
+        out.flush();
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Represents amounts of money exactly, as longs counting the currency's minor unit, called cents
+ * throughout the bank system, and converts them to and from decimal text. Parsing reads digits
+ * straight into cents and formatting writes them straight into a buffer, so neither goes through
+ * floating point or allocates.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.util.*;
+
+public final class Money {
+
+    // Currency of every account, and the number of decimal places its amounts are kept to
+    public static final Currency CURRENCY = Currency.getInstance("USD");
+    public static final int SCALE = Math.max(0, CURRENCY.getDefaultFractionDigits());
+    public static final long CENTS_PER_UNIT = pow10(SCALE);
+    public static final String SYMBOL = CURRENCY.getSymbol(Locale.US);
+
+    // Largest number of cents parsed, leaving room to scale up and round without overflowing
+    private static final long MAX_PARSED = Long.MAX_VALUE / (10 * CENTS_PER_UNIT);
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Money() {
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Conversion Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Converts a whole number of units, such as dollars, to cents.
+     * @param units A long containing the number of units.
+     * @return A long representing the amount in cents.
+     * @throws ArithmeticException If the amount in cents does not fit in a long.
+     */
+    public static long ofUnits(long units) {
+        return Math.multiplyExact(units, CENTS_PER_UNIT);
+    }
+
+    /**
+     * Parses a non-negative decimal amount straight into cents without allocating, rounding half
+     * up on the first decimal place past the currency's scale and ignoring any after it.
+     * @param s A CharSequence containing the amount.
+     * @param from The index of the amount's first character.
+     * @param to The index after the amount's last character.
+     * @return A long representing the amount in cents, or -1 if the range is not a non-negative
+     *         decimal number of digits with at most one decimal point, or is too large.
+     */
+    public static long parse(CharSequence s, int from, int to) {
+        long cents = 0;
+        int decimals = -1;
+        boolean digits = false;
+        boolean roundUp = false;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            } else if (c < '0' || c > '9') {
+                return -1;
+            }
+            digits = true;
+            if (decimals < SCALE) {
+                // Whole units and decimal places within the scale are kept, as cents once scaled
+                cents = cents * 10 + (c - '0');
+                if (cents > MAX_PARSED) {
+                    return -1;
+                }
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (decimals++ == SCALE) {
+                // The first decimal place past the scale rounds, and any after it are ignored
+                roundUp = c >= '5';
+            }
+        }
+        return digits ? scale(cents, decimals, roundUp) : -1;
+    }
+
+    /**
+     * Parses a non-negative decimal amount of ASCII bytes straight into cents, in the same way.
+     * @param bytes A byte array containing the amount.
+     * @param from The index of the amount's first byte.
+     * @param to The index after the amount's last byte.
+     * @return A long representing the amount in cents, or -1 if it is malformed or too large.
+     */
+    public static long parse(byte[] bytes, int from, int to) {
+        long cents = 0;
+        int decimals = -1;
+        boolean digits = false;
+        boolean roundUp = false;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            } else if (b < '0' || b > '9') {
+                return -1;
+            }
+            digits = true;
+            if (decimals < SCALE) {
+                cents = cents * 10 + (b - '0');
+                if (cents > MAX_PARSED) {
+                    return -1;
+                }
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (decimals++ == SCALE) {
+                roundUp = b >= '5';
+            }
+        }
+        return digits ? scale(cents, decimals, roundUp) : -1;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Format Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Appends an amount as a decimal number of units with the currency's number of decimal
+     * places, such as 1234.50, the form account files and the server protocol use.
+     * @param out The StringBuilder to append to.
+     * @param cents A long containing the amount in cents.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder append(StringBuilder out, long cents) {
+        return append(out, cents, false);
+    }
+
+    /**
+     * Appends an amount as a decimal number of units with thousands separated by commas, such as 1,234.50.
+     * @param out The StringBuilder to append to.
+     * @param cents A long containing the amount in cents.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder appendGrouped(StringBuilder out, long cents) {
+        return append(out, cents, true);
+    }
+
+    /**
+     * Formats an amount as a decimal number of units, such as 1234.50.
+     * @param cents A long containing the amount in cents.
+     * @return A String of the amount.
+     */
+    public static String format(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Formats an amount for people to read, with the currency symbol and thousands separated, such as $1,234.50.
+     * @param cents A long containing the amount in cents.
+     * @return A String of the amount.
+     */
+    public static String display(long cents) {
+        StringBuilder out = new StringBuilder(32);
+        if (cents < 0) {
+            out.append('-');
+        }
+        return appendGrouped(out.append(SYMBOL), cents < 0 ? -cents : cents).toString();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Scales parsed digits up to cents and rounds them.
+     * @param cents A long containing the digits parsed, whole and decimal.
+     * @param decimals The number of decimal places parsed, or -1 if there was no decimal point.
+     * @param roundUp A boolean based on whether the first decimal place past the scale was 5 or more.
+     * @return A long representing the amount in cents.
+     */
+    private static long scale(long cents, int decimals, boolean roundUp) {
+        for (int d = Math.max(decimals, 0); d < SCALE; d++) {
+            cents *= 10;
+        }
+        return roundUp ? cents + 1 : cents;
+    }
+
+    /**
+     * Appends an amount, with or without thousands separators.
+     * @param out The StringBuilder to append to.
+     * @param cents A long containing the amount in cents.
+     * @param grouped A boolean based on whether to separate thousands with commas.
+     * @return The StringBuilder, for chaining.
+     */
+    private static StringBuilder append(StringBuilder out, long cents, boolean grouped) {
+        if (cents < 0) {
+            out.append('-');
+            cents = -cents;
+        }
+        long units = cents / CENTS_PER_UNIT;
+        if (grouped) {
+            appendThousands(out, units);
+        } else {
+            out.append(units);
+        }
+        if (SCALE > 0) {
+            out.append('.');
+            long fraction = cents % CENTS_PER_UNIT;
+            for (long place = CENTS_PER_UNIT / 10; place > 0; place /= 10) {
+                out.append((char) ('0' + fraction / place % 10));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Appends a non-negative whole number with thousands separated by commas.
+     * @param out The StringBuilder to append to.
+     * @param units A long containing the number.
+     */
+    private static void appendThousands(StringBuilder out, long units) {
+        if (units < 1000) {
+            out.append(units);
+            return;
+        }
+        appendThousands(out, units / 1000);
+        int group = (int) (units % 1000);
+        out.append(',').append((char) ('0' + group / 100)).append((char) ('0' + group / 10 % 10))
+            .append((char) ('0' + group % 10));
+    }
+
+    /**
+     * Raises ten to a power.
+     * @param exponent The power to raise ten to.
+     * @return A long representing ten to the power.
+     */
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+}
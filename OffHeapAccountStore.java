@@ -0,0 +1,444 @@
+/**
+ * Represents an account store that keeps account data outside the heap in columnar segments,
+ * for books of tens of millions of accounts. Each account is addressed by an int handle into
+ * a balance column, a fixed-width ID column and a fixed-size credential slot column, and is
+ * found by ID through an open-addressing table of handles. Accounts are returned as views
+ * that read and update the columns in place.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class OffHeapAccountStore implements AccountStore {
+
+    public static final int SEGMENT_BITS = 16;
+    public static final int SEGMENT_ACCOUNTS = 1 << SEGMENT_BITS;
+    public static final int ID_SLOT_BYTES = 24;         // Length byte, then up to 23 ID bytes
+    public static final int CREDENTIAL_SLOT_BYTES = 64; // Length byte, then up to 63 bytes of Credential.toBytes
+
+    // Handle for atomic updates of balances in a column
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private volatile Segment[] segments;
+    private volatile AtomicIntegerArray table; // Handle + 1 of the account in each slot, or 0 if empty
+    private volatile int count;
+    private Map<Integer, String> longIDs;                 // IDs too long for their slot
+    private Map<Integer, Credential> largeCredentials;    // Credentials too large for their slot
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public OffHeapAccountStore() {
+        this(SEGMENT_ACCOUNTS);
+    }
+
+    public OffHeapAccountStore(int expectedSize) {
+        this.segments = new Segment[0];
+        this.table = new AtomicIntegerArray(Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1);
+        this.count = 0;
+        this.longIDs = new ConcurrentHashMap<Integer, String>();
+        this.largeCredentials = new ConcurrentHashMap<Integer, Credential>();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Store Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public Account get(String id) {
+        if (id == null) {
+            return null;
+        }
+        int handle = this.find(id);
+        return handle < 0 ? null : new OffHeapAccount(this, handle, id);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return id != null && this.find(id) >= 0;
+    }
+
+    /**
+     * Copies the given account's data into the columns unless its ID is already taken.
+     * The account itself is not retained, so later changes to it are not stored.
+     */
+    @Override
+    public synchronized boolean add(Account account) {
+        String id = account.getID();
+        if (this.find(id) >= 0) {
+            return false;
+        }
+
+        // Write the account's columns before publishing its handle
+        int handle = this.count;
+        if (handle >>> SEGMENT_BITS >= this.segments.length) {
+            Segment[] grown = Arrays.copyOf(this.segments, this.segments.length + 1);
+            grown[this.segments.length] = new Segment();
+            this.segments = grown;
+        }
+        Segment segment = this.segments[handle >>> SEGMENT_BITS];
+        int slot = handle & (SEGMENT_ACCOUNTS - 1);
+        writeID(segment, slot, handle, id);
+        this.writeCredential(handle, account.getCredential());
+        LONGS.setVolatile(segment.balances, slot * 8, account.getBalanceCents());
+        this.count = handle + 1;
+
+        // Grow the table at half full, so probe sequences stay short
+        if ((handle + 1) * 2 > this.table.length()) {
+            this.rehash(this.table.length() * 2);
+        }
+        insert(this.table, id.hashCode(), handle);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return this.count;
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.table = new AtomicIntegerArray(16);
+        this.segments = new Segment[0];
+        this.count = 0;
+        this.longIDs.clear();
+        this.largeCredentials.clear();
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        int end = this.count;
+        return new Iterator<Account>() {
+            private int handle = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.handle < end;
+            }
+
+            @Override
+            public Account next() {
+                if (this.handle >= end) {
+                    throw new NoSuchElementException();
+                }
+                int handle = this.handle++;
+                return new OffHeapAccount(OffHeapAccountStore.this, handle, readID(handle));
+            }
+        };
+    }
+
+    /**
+     * Gets the number of bytes allocated outside the heap for account columns.
+     * @return A long representing the off-heap footprint in bytes.
+     */
+    public long getOffHeapBytes() {
+        return (long) this.segments.length * SEGMENT_ACCOUNTS * (8 + ID_SLOT_BYTES + CREDENTIAL_SLOT_BYTES);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Column Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents the columns of up to SEGMENT_ACCOUNTS consecutive handles.
+     */
+    private static class Segment {
+        private ByteBuffer balances = column(8);
+        private ByteBuffer ids = column(ID_SLOT_BYTES);
+        private ByteBuffer credentials = column(CREDENTIAL_SLOT_BYTES);
+
+        private static ByteBuffer column(int width) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SEGMENT_ACCOUNTS * width + 7).alignedSlice(8);
+            return buffer.order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Gets the segment holding the given handle.
+     */
+    private Segment segment(int handle) {
+        return this.segments[handle >>> SEGMENT_BITS];
+    }
+
+    /**
+     * Reads the balance column of the given handle.
+     */
+    private long readBalance(int handle) {
+        return (long) LONGS.getVolatile(this.segment(handle).balances, (handle & (SEGMENT_ACCOUNTS - 1)) * 8);
+    }
+
+    /**
+     * Writes the balance column of the given handle.
+     */
+    private void writeBalance(int handle, long cents) {
+        LONGS.setVolatile(this.segment(handle).balances, (handle & (SEGMENT_ACCOUNTS - 1)) * 8, cents);
+    }
+
+    /**
+     * Atomically adds to the balance column of the given handle.
+     * @return A long representing the balance in cents after the credit.
+     */
+    private long creditBalance(int handle, long cents) {
+        ByteBuffer balances = this.segment(handle).balances;
+        return (long) LONGS.getAndAdd(balances, (handle & (SEGMENT_ACCOUNTS - 1)) * 8, cents) + cents;
+    }
+
+    /**
+     * Atomically subtracts from the balance column of the given handle unless it would go negative.
+     * @return A boolean based on whether the balance covered the debit.
+     */
+    private boolean tryDebitBalance(int handle, long cents) {
+        ByteBuffer balances = this.segment(handle).balances;
+        int index = (handle & (SEGMENT_ACCOUNTS - 1)) * 8;
+        long current = (long) LONGS.getVolatile(balances, index);
+        while (current >= cents) {
+            long witness = (long) LONGS.compareAndExchange(balances, index, current, current - cents);
+            if (witness == current) {
+                return true;
+            }
+            current = witness;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the ID of the given handle.
+     */
+    private String readID(int handle) {
+        ByteBuffer ids = this.segment(handle).ids;
+        int index = (handle & (SEGMENT_ACCOUNTS - 1)) * ID_SLOT_BYTES;
+        int length = ids.get(index) & 0xFF;
+        if (length == 0xFF) {
+            return this.longIDs.get(handle);
+        }
+        byte[] bytes = new byte[length];
+        ids.get(index + 1, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the ID of the given handle, keeping IDs that do not fit the slot on the heap.
+     */
+    private void writeID(Segment segment, int slot, int handle, String id) {
+        int index = slot * ID_SLOT_BYTES;
+        if (id.length() >= ID_SLOT_BYTES || !isAscii(id)) {
+            this.longIDs.put(handle, id);
+            segment.ids.put(index, (byte) 0xFF);
+            return;
+        }
+        segment.ids.put(index, (byte) id.length());
+        for (int i = 0; i < id.length(); i++) {
+            segment.ids.put(index + 1 + i, (byte) id.charAt(i));
+        }
+    }
+
+    /**
+     * Returns whether the ID of the given handle equals the given ID, without decoding it.
+     */
+    private boolean matchesID(int handle, String id) {
+        ByteBuffer ids = this.segment(handle).ids;
+        int index = (handle & (SEGMENT_ACCOUNTS - 1)) * ID_SLOT_BYTES;
+        int length = ids.get(index) & 0xFF;
+        if (length == 0xFF) {
+            return id.equals(this.longIDs.get(handle));
+        }
+        if (length != id.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (ids.get(index + 1 + i) != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the credential slot of the given handle.
+     */
+    private Credential readCredential(int handle) {
+        Segment segment = this.segment(handle);
+        int index = (handle & (SEGMENT_ACCOUNTS - 1)) * CREDENTIAL_SLOT_BYTES;
+        byte[] bytes;
+        synchronized (segment) {
+            int length = segment.credentials.get(index) & 0xFF;
+            if (length == 0xFF) {
+                return this.largeCredentials.get(handle);
+            }
+            bytes = new byte[length];
+            segment.credentials.get(index + 1, bytes);
+        }
+        return Credential.fromBytes(bytes);
+    }
+
+    /**
+     * Returns whether the credential slot of the given handle holds the given encoded credential.
+     */
+    private boolean matchesCredential(int handle, byte[] bytes) {
+        Segment segment = this.segment(handle);
+        int index = (handle & (SEGMENT_ACCOUNTS - 1)) * CREDENTIAL_SLOT_BYTES;
+        synchronized (segment) {
+            if ((segment.credentials.get(index) & 0xFF) != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (segment.credentials.get(index + 1 + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the credential slot of the given handle, keeping credentials that do not fit the slot on the heap.
+     */
+    private void writeCredential(int handle, Credential credential) {
+        Segment segment = this.segment(handle);
+        int index = (handle & (SEGMENT_ACCOUNTS - 1)) * CREDENTIAL_SLOT_BYTES;
+        byte[] bytes = credential.toBytes();
+        synchronized (segment) {
+            if (bytes.length >= CREDENTIAL_SLOT_BYTES) {
+                this.largeCredentials.put(handle, credential);
+                segment.credentials.put(index, (byte) 0xFF);
+            } else {
+                this.largeCredentials.remove(handle);
+                segment.credentials.put(index, (byte) bytes.length);
+                segment.credentials.put(index + 1, bytes);
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Index Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finds the handle of the account with the given ID.
+     * @return An int representing the handle, or -1 if no such account exists.
+     */
+    private int find(String id) {
+        AtomicIntegerArray table = this.table;
+        int mask = table.length() - 1;
+        for (int slot = spread(id.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0) {
+                return -1;
+            } else if (this.matchesID(entry - 1, id)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Replaces the table with one of the given capacity holding every handle. Readers still
+     * probing the old table see every account added before the replacement.
+     */
+    private void rehash(int capacity) {
+        AtomicIntegerArray table = new AtomicIntegerArray(capacity);
+        for (int handle = 0; handle < this.count - 1; handle++) {
+            insert(table, this.readID(handle).hashCode(), handle);
+        }
+        this.table = table;
+    }
+
+    /**
+     * Inserts a handle into the first free slot of its probe sequence.
+     */
+    private static void insert(AtomicIntegerArray table, int hash, int handle) {
+        int mask = table.length() - 1;
+        int slot = spread(hash) & mask;
+        while (table.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.set(slot, handle + 1);
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits used to pick a slot.
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns whether every character of the given String is ASCII.
+     */
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Account Views
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents an account stored off the heap, reading and updating its columns in place.
+     */
+    private static class OffHeapAccount extends Account {
+        private OffHeapAccountStore store;
+        private int handle;
+        private Credential credential; // Last credential decoded, reused while the slot still holds it
+
+        private OffHeapAccount(OffHeapAccountStore store, int handle, String id) {
+            super(id, (Credential) null, 0);
+            this.store = store;
+            this.handle = handle;
+        }
+
+        @Override
+        public Credential getCredential() {
+            Credential credential = this.credential;
+            if (credential == null || !this.store.matchesCredential(this.handle, credential.toBytes())) {
+                credential = this.store.readCredential(this.handle);
+                this.credential = credential;
+            }
+            return credential;
+        }
+
+        @Override
+        public void setCredential(Credential credential) {
+            this.store.writeCredential(this.handle, credential);
+            this.credential = credential;
+        }
+
+        @Override
+        public long getBalanceCents() {
+            return this.store.readBalance(this.handle);
+        }
+
+        @Override
+        public void setBalanceCents(long cents) {
+            this.store.writeBalance(this.handle, cents);
+        }
+
+        @Override
+        public long credit(long cents) {
+            return this.store.creditBalance(this.handle, cents);
+        }
+
+        @Override
+        public boolean tryDebit(long cents) {
+            return this.store.tryDebitBalance(this.handle, cents);
+        }
+    }
+}
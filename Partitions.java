@@ -0,0 +1,175 @@
+/**
+ * Represents how accounts are split between the nodes of a partitioned bank. Each node is a bank
+ * server with its own account file, and owns the accounts whose IDs hash to its index. The admin
+ * account is the exception: every node keeps its own, so that each can be administered.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+public class Partitions {
+
+    // Addresses of every node in order, set with -Dbank.partition.nodes as a comma separated list of
+    // host:port, and the index of this process's node, set with -Dbank.partition.index
+    public static final String NODES = System.getProperty("bank.partition.nodes");
+    public static final int INDEX = Integer.getInteger("bank.partition.index", -1);
+
+    // Secret nodes authenticate to one another with, set with -Dbank.partition.secret
+    public static final String SECRET = System.getProperty("bank.partition.secret", "");
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private String[] hosts;
+    private int[] ports;
+    private int index;
+    private String secret;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the partitioning of the given nodes.
+     * @param nodes A String containing the address of every node in order, as comma separated host:port.
+     * @param index The index of this process's node, or -1 if this process is not a node.
+     * @param secret A String containing the secret nodes authenticate to one another with.
+     */
+    public Partitions(String nodes, int index, String secret) {
+        String[] addresses = nodes.split(",");
+        this.hosts = new String[addresses.length];
+        this.ports = new int[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            String address = addresses[i].trim();
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Node address is not host:port: " + address);
+            }
+            this.hosts[i] = address.substring(0, colon);
+            this.ports[i] = Integer.parseInt(address.substring(colon + 1));
+        }
+        if (index < -1 || index >= addresses.length) {
+            throw new IllegalArgumentException("Node index out of range: " + index);
+        }
+        this.index = index;
+        this.secret = secret;
+    }
+
+    /**
+     * Creates the partitioning set with -Dbank.partition.nodes and -Dbank.partition.index.
+     * @return The Partitions, or null if the bank is not partitioned.
+     */
+    public static Partitions fromProperties() {
+        return NODES == null || NODES.isBlank() ? null : new Partitions(NODES, INDEX, SECRET);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of nodes.
+     * @return An int representing the number of nodes.
+     */
+    public int size() {
+        return this.hosts.length;
+    }
+
+    /**
+     * Gets the index of this process's node.
+     * @return An int representing the index, or -1 if this process is not a node.
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Gets the host name of a node.
+     * @param node The index of the node.
+     * @return A String representing the host name.
+     */
+    public String getHost(int node) {
+        return this.hosts[node];
+    }
+
+    /**
+     * Gets the port a node serves sessions on.
+     * @param node The index of the node.
+     * @return An int representing the port.
+     */
+    public int getPort(int node) {
+        return this.ports[node];
+    }
+
+    /**
+     * Returns whether the given secret is the one nodes authenticate to one another with, in time
+     * that does not depend on where they differ. No secret is ever accepted if none was set.
+     * @param secret A String containing the secret given.
+     * @return A boolean based on whether the secret matches.
+     */
+    public boolean checkSecret(String secret) {
+        return isSecret(this.secret, secret);
+    }
+
+    /**
+     * Returns whether a secret given matches the one expected, comparing their bytes in time that
+     * does not depend on where they differ. Nothing matches an empty expected secret.
+     * @param expected A String containing the secret expected.
+     * @param given A String containing the secret given, or null.
+     * @return A boolean based on whether the secrets match.
+     */
+    public static boolean isSecret(String expected, String given) {
+        return !expected.isEmpty() && given != null && MessageDigest.isEqual(
+            expected.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the secret nodes authenticate to one another with.
+     * @return A String representing the secret.
+     */
+    public String getSecret() {
+        return this.secret;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Partitioning Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the node owning the account whose ID is the given range of characters, without allocating.
+     * @param s A CharSequence containing the ID.
+     * @param from The index of the ID's first character.
+     * @param to The index after the ID's last character.
+     * @return An int representing the index of the node.
+     */
+    public int owner(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return Math.floorMod(h ^ (h >>> 16), this.hosts.length);
+    }
+
+    /**
+     * Gets the node owning the account with the given ID.
+     * @param id A String containing the ID.
+     * @return An int representing the index of the node.
+     */
+    public int owner(String id) {
+        return this.owner(id, 0, id.length());
+    }
+
+    /**
+     * Returns whether this process's node keeps the account with the given ID, which it does if it
+     * owns the ID or the ID is admin.
+     * @param id A String containing the ID.
+     * @return A boolean based on whether the account belongs on this node.
+     */
+    public boolean keeps(String id) {
+        return id.equals("admin") || this.owner(id) == this.index;
+    }
+}
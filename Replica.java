@@ -0,0 +1,261 @@
+/**
+ * Represents a read replica of the bank, following the primary's transaction log as the primary
+ * ships it. A replica starts by copying every account and the ledger from the primary, then applies
+ * each record shipped to its own accounts and appends it to its own log, keeping the primary's
+ * sequence numbers. It serves balances and statements only while it has heard from the primary
+ * recently, so a reader never sees data older than a set bound. If the primary is lost, the replica
+ * can be promoted to take its place, its own log and account file holding everything it applied.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+public class Replica {
+
+    // Address of the primary to follow, set with -Dbank.replication.primary as host:port
+    public static final String PRIMARY = System.getProperty("bank.replication.primary");
+
+    // Longest time since the replica last had every record the primary had on disk, beyond which
+    // reads are refused, tunable with -Dbank.replication.maxLagMillis
+    public static final long MAX_LAG_MILLIS = Long.getLong("bank.replication.maxLagMillis", 1000);
+
+    // Time between attempts to reconnect to the primary
+    private static final long RETRY_MILLIS = 1000;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private String host;
+    private int port;
+    private String secret;
+    private Bank bank;
+    private volatile Socket socket;
+    private volatile long freshNanos;
+    private volatile boolean following;
+    private Thread follower;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a replica of the primary at the given address, not yet connected.
+     * @param host A String containing the primary's host name.
+     * @param port The port the primary ships its log on.
+     * @param secret A String containing the secret the primary accepts replicas with.
+     */
+    public Replica(String host, int port, String secret) {
+        this.host = host;
+        this.port = port;
+        this.secret = secret;
+        this.bank = null;
+        this.socket = null;
+        this.freshNanos = 0;
+        this.following = false;
+        this.follower = null;
+    }
+
+    /**
+     * Creates a replica of the primary set with -Dbank.replication.primary, authenticating with the
+     * secret set with -Dbank.replication.secret.
+     * @return The Replica, or null if no primary is set.
+     */
+    public static Replica fromProperties() {
+        if (PRIMARY == null || PRIMARY.isBlank()) {
+            return null;
+        }
+        int colon = PRIMARY.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Primary address is not host:port: " + PRIMARY);
+        }
+        return new Replica(PRIMARY.substring(0, colon).trim(), Integer.parseInt(PRIMARY.substring(colon + 1).trim()),
+            LogShipper.SECRET);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the time since the replica last held every record the primary had on disk.
+     * @return A long representing the time in milliseconds.
+     */
+    public long getStalenessMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.freshNanos);
+    }
+
+    /**
+     * Returns whether the replica has gone too long without hearing from the primary to serve reads.
+     * @return A boolean based on whether the staleness exceeds the bound.
+     */
+    public boolean isStale() {
+        return this.getStalenessMillis() > MAX_LAG_MILLIS;
+    }
+
+    /**
+     * Returns whether the replica is still following the primary, rather than given up or promoted.
+     * @return A boolean based on whether records are still being applied.
+     */
+    public boolean isFollowing() {
+        return this.following;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Replication Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Copies every account and the ledger from the primary into the given account file, replacing
+     * what was kept there, then opens the bank on it and follows the primary in the background.
+     * @param dataPath The file path of the replica's account file.
+     * @return The Bank of the replica, serving reads only until it is promoted.
+     */
+    public Bank open(String dataPath) throws Exception {
+        Socket socket = this.connect(-1);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        byte frame = in.readByte();
+        if (frame == LogShipper.ERROR) {
+            socket.close();
+            throw new ProtocolException(in.readUTF());
+        } else if (frame != LogShipper.SNAPSHOT) {
+            socket.close();
+            throw new ProtocolException("Primary did not send a copy of its accounts.");
+        }
+
+        // Replace the account file, log and ledger with the primary's copy
+        long lsn = in.readLong();
+        int count = in.readInt();
+        String[] ids = new String[count];
+        Credential[] credentials = new Credential[count];
+        long[] balances = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = in.readUTF();
+            byte[] credential = new byte[in.readUnsignedShort()];
+            in.readFully(credential);
+            credentials[i] = Credential.fromBytes(credential);
+            balances[i] = in.readLong();
+        }
+        TransactionLog.delete(dataPath);
+        Path ledger = Ledger.directoryOf(dataPath);
+        Files.createDirectories(ledger);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(ledger)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        int files = in.readInt();
+        for (int i = 0; i < files; i++) {
+            Path file = ledger.resolve(Paths.get(in.readUTF()).getFileName());
+            long length = in.readLong();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                LogShipper.copy(in, out, length);
+            }
+        }
+        new SnapshotWriter().write(dataPath, lsn, ids, credentials, balances, count);
+        System.out.println(String.format("Copied %,d accounts from the primary at %s:%d.", count, this.host, this.port));
+
+        this.bank = new Bank(dataPath);
+        this.bank.setReplica(this);
+        this.socket = socket;
+        this.freshNanos = System.nanoTime();
+        this.following = true;
+        this.follower = new Thread(() -> this.follow(in), "replica");
+        this.follower.setDaemon(true);
+        this.follower.start();
+        return this.bank;
+    }
+
+    /**
+     * Stops following the primary and makes the replica's bank accept writes, once every record
+     * received is applied and on disk.
+     * @return A boolean based on whether the replica was promoted, or false if it already was.
+     */
+    public synchronized boolean promote() throws Exception {
+        if (this.bank.getReplica() != this) {
+            return false;
+        }
+        this.following = false;
+        Socket socket = this.socket;
+        if (socket != null) {
+            socket.close();
+        }
+        this.follower.join();
+        this.bank.getLog().flush();
+        this.bank.setReplica(null);
+        System.out.println(String.format("Promoted to primary after log sequence number %d.",
+            this.bank.getLog().getLastLsn()));
+        if (LogShipper.PORT > 0) {
+            new LogShipper(this.bank, LogShipper.PORT, LogShipper.SECRET).start();
+        }
+        return true;
+    }
+
+    /**
+     * Applies records shipped by the primary until promoted, reconnecting whenever the connection is
+     * lost. Stops following if the primary refuses to continue, such as when too many records were
+     * missed to catch up.
+     * @param in The DataInputStream from the primary, positioned after the copy of its accounts.
+     */
+    private void follow(DataInputStream in) {
+        while (this.following) {
+            try {
+                while (true) {
+                    byte frame = in.readByte();
+                    if (frame == LogShipper.RECORD) {
+                        this.bank.replicate(LogShipper.readRecord(in));
+                    } else if (frame == LogShipper.HEARTBEAT) {
+                        in.readLong(); // The last record sent, which has been applied
+                        in.readLong(); // The primary's time
+                        this.freshNanos = System.nanoTime();
+                    } else if (frame == LogShipper.ERROR) {
+                        throw new ProtocolException(in.readUTF());
+                    } else {
+                        throw new ProtocolException("Unknown frame from the primary.");
+                    }
+                }
+            } catch (ProtocolException e) {
+                System.out.println("Stopped following the primary. " + e.getMessage());
+                this.following = false;
+            } catch (IOException e) {
+                // Lost the primary, so reconnect and continue after the last record applied
+                while (this.following) {
+                    try {
+                        Thread.sleep(RETRY_MILLIS);
+                        Socket socket = this.connect(this.bank.getLog().getLastLsn());
+                        this.socket = socket;
+                        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                        break;
+                    } catch (IOException | InterruptedException reconnect) {
+                        // Still unreachable
+                    }
+                }
+            }
+        }
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Connects to the primary and asks for records after the given sequence number.
+     * @param after The log sequence number of the last record held, or -1 for a copy of everything.
+     * @return A Socket connected to the primary.
+     */
+    private Socket connect(long after) throws IOException {
+        Socket socket = new Socket(this.host, this.port);
+        socket.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeUTF(this.secret);
+        out.writeLong(after);
+        out.flush();
+        return socket;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Represents a server that accepts client sessions for a partitioned bank and passes each request
+ * on to the node owning the account concerned, over the same line protocol. A session logs in on
+ * the node owning its account, which then serves every later request of the session, including
+ * transfers to accounts on other nodes, which that node makes with a two-phase commit. The router
+ * holds no accounts, so it can be restarted freely.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Router {
+
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Partitions partitions;
+    private int port;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public Router(Partitions partitions, int port) {
+        this.partitions = partitions;
+        this.port = port;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Accepts connections until the process ends, serving each on its own thread.
+     */
+    public void run() throws IOException {
+        ExecutorService executor = BankServer.newSessionExecutor();
+        try (ServerSocket server = new ServerSocket(this.port, ACCEPT_BACKLOG)) {
+            System.out.println(String.format("Routing sessions on port %d to %d nodes.", this.port,
+                this.partitions.size()));
+            while (true) {
+                Socket socket = server.accept();
+                executor.execute(() -> this.serve(socket));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Serves a single client connection, one response line per request line.
+     * @param socket A Socket connected to the client.
+     */
+    private void serve(Socket socket) {
+        Route route = new Route();
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while (!route.closed && (line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                out.write(this.process(route, line));
+                out.newLine();
+                out.flush();
+            }
+        } catch (Exception e) {
+            // The client disconnected or sent an unreadable request; its session ends either way
+        } finally {
+            route.close();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Routing Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents one client's session as routed: its connections to nodes, opened as needed, and
+     * the node it is logged in on.
+     */
+    private class Route {
+        private Link[] links = new Link[partitions.size()];
+        private Fields fields = new Fields();
+        private int home = -1;
+        private boolean closed = false;
+
+        private void close() {
+            for (Link link : this.links) {
+                if (link != null) {
+                    link.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Represents a connection to a node on behalf of one client.
+     */
+    private static class Link {
+        private Socket socket;
+        private BufferedReader in;
+        private BufferedWriter out;
+
+        private Link(String host, int port) throws IOException {
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private String request(String line) throws IOException {
+            this.out.write(line);
+            this.out.newLine();
+            this.out.flush();
+            String reply = this.in.readLine();
+            if (reply == null) {
+                throw new EOFException("Node closed the connection.");
+            }
+            return reply;
+        }
+
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Already unusable
+            }
+        }
+    }
+
+    /**
+     * Passes a request on to the node it concerns and returns that node's response. Logging in and
+     * registering go to the node owning the ID given; every other request goes to the node the
+     * session is logged in on, or to the first node if it is not logged in. The session token given
+     * at login is prefixed with the node's index, so that it can be resumed through any router.
+     * @param route The Route of the client's session.
+     * @param line A String containing the request.
+     * @return A String representing the response, starting with OK or ERR.
+     */
+    private String process(Route route, String line) {
+        Fields args = route.fields.split(line, Fields.WHITESPACE);
+        if (args.size() == 0) {
+            return "ERR Please enter a valid command.";
+        }
+        Command command = args.equalsIgnoreCase(0, "CHANGE")
+            ? Command.CHANGE_PASSWORD : Command.match(line, args.start(0), args.end(0));
+        int node = Math.max(route.home, 0);
+        if (command == null) {
+            return this.send(route, node, line);
+        }
+        switch (command) {
+            case LOGIN:
+            case REGISTER:
+                if (command == Command.LOGIN && route.home >= 0) {
+                    return "ERR Already logged in.";
+                } else if (args.size() == 3) {
+                    node = this.partitions.owner(line, args.start(1), args.end(1));
+                }
+                String reply = this.send(route, node, line);
+                int token = reply.indexOf(" TOKEN ");
+                if (command == Command.LOGIN && reply.startsWith("OK") && token >= 0) {
+                    route.home = node;
+                    reply = reply.substring(0, token + 7) + node + "." + reply.substring(token + 7);
+                }
+                return reply;
+            case RESUME:
+                if (route.home >= 0) {
+                    return "ERR Already logged in.";
+                }
+                int dot = args.size() == 2 ? line.indexOf('.', args.start(1)) : -1;
+                if (dot < 0 || dot >= args.end(1)) {
+                    return "ERR Invalid or expired session token.";
+                }
+                try {
+                    node = Integer.parseInt(line, args.start(1), dot, 10);
+                } catch (NumberFormatException e) {
+                    return "ERR Invalid or expired session token.";
+                }
+                if (node < 0 || node >= this.partitions.size()) {
+                    return "ERR Invalid or expired session token.";
+                }
+                reply = this.send(route, node, "RESUME " + line.substring(dot + 1, args.end(1)));
+                if (reply.startsWith("OK")) {
+                    route.home = node;
+                }
+                return reply;
+            case LOGOUT:
+                route.home = -1;
+                return this.send(route, node, line);
+            case EXIT:
+                route.closed = true;
+                return "OK Goodbye.";
+            case PEER:
+            case PREPARE:
+            case COMMIT:
+            case ABORT:
+            case DECISION:
+                return "ERR Please enter a valid command.";
+            default:
+                return this.send(route, node, line);
+        }
+    }
+
+    /**
+     * Sends a request to a node over the session's connection to it, connecting first if needed.
+     * If the node cannot be reached, the connection is dropped, and if the session was logged in
+     * on that node it is logged out, as the node may have restarted without the session. A
+     * request from a session not logged in on the node cannot move money, so if it fails on a
+     * connection the node may have closed by restarting, it is sent once more on a new one.
+     * @param route The Route of the client's session.
+     * @param node The index of the node.
+     * @param line A String containing the request.
+     * @return A String representing the node's response, or an error if it could not be reached.
+     */
+    private String send(Route route, int node, String line) {
+        boolean retry = route.links[node] != null && route.home != node;
+        while (true) {
+            try {
+                if (route.links[node] == null) {
+                    route.links[node] = new Link(this.partitions.getHost(node), this.partitions.getPort(node));
+                }
+                return route.links[node].request(line);
+            } catch (IOException e) {
+                if (route.links[node] != null) {
+                    route.links[node].close();
+                    route.links[node] = null;
+                }
+                if (retry) {
+                    retry = false;
+                    continue;
+                }
+                if (route.home == node) {
+                    route.home = -1;
+                    return "ERR Partition unavailable. Please login again.";
+                }
+                return "ERR " + Status.UNAVAILABLE.getMessage();
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Represents an alternative core that applies deposits, withdrawals and transfers on a single
+ * writer thread. Callers publish each change into a ring buffer of pre-allocated slots instead of
+ * applying it themselves. Once created, it is set as its engine's sequencer, so admin jobs and
+ * transfers between partitions changing balances through the engine are published too, and netted
+ * batches of transfers are refused. The writer is then the only thread changing balances, so it
+ * applies the changes in sequence order without taking any lock, journals them to the transaction
+ * log in the same order, and then passes each change's outcome to its callback. Changes published while the writer is busy are applied as one batch
+ * that waits for the log once, so the busier the bank, the more each commit is shared.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+public class SequencedEngine implements Closeable {
+
+    // Slots in the ring, tunable with -Dbank.sequencer.ringSize and rounded up to a power of two
+    public static final int RING_SIZE = Integer.getInteger("bank.sequencer.ringSize", 1 << 16);
+
+    // Bit of the claimed sequence set once closed, so that no sequence can be claimed after
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    // Times a waiting thread spins, then yields, before sleeping
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private TransactionEngine engine;
+    private Slot[] ring;
+    private int mask;
+    private AtomicLong claimed;
+    private volatile long applied;
+    private volatile long batches;
+    private volatile boolean sleeping;
+    private Thread writer;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public SequencedEngine(TransactionEngine engine) {
+        this(engine, RING_SIZE);
+    }
+
+    /**
+     * Creates the ring, starts the writer thread and sets it as the engine's only writer.
+     * @param engine The TransactionEngine the writer applies and logs changes through.
+     * @param size The number of slots in the ring, rounded up to a power of two.
+     */
+    public SequencedEngine(TransactionEngine engine, int size) {
+        this.engine = engine;
+        this.ring = new Slot[Integer.highestOneBit(Math.max(1, size - 1) << 1)];
+        for (int i = 0; i < this.ring.length; i++) {
+            this.ring[i] = new Slot();
+        }
+        this.mask = this.ring.length - 1;
+        this.claimed = new AtomicLong();
+        this.applied = -1;
+        this.batches = 0;
+        this.sleeping = false;
+        this.writer = new Thread(this::run, "sequencer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        engine.setSequencer(this);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of changes the writer has applied.
+     * @return A long representing the number of changes applied.
+     */
+    public long getApplied() {
+        return this.applied + 1;
+    }
+
+    /**
+     * Gets the number of batches the writer has applied, each committed to the log once.
+     * @return A long representing the number of batches.
+     */
+    public long getBatches() {
+        return this.batches;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Transaction Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Publishes a change for the writer to apply, waiting only if the ring is full. The callback is
+     * called on the writer thread once the change is applied and logged, and every change before it
+     * has been, so it must be quick and must not publish or wait for other changes, including
+     * through the engine.
+     * @param type The type of change, LogRecord.DEPOSIT, LogRecord.WITHDRAW or LogRecord.TRANSFER.
+     * @param account The Account deposited to, withdrawn from or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @param callback A Consumer of the change's outcome.
+     */
+    public void publish(byte type, Account account, Account recipient, long cents, Consumer<Status> callback) {
+        this.publish(type, account, recipient, cents, null, null, callback);
+    }
+
+    /**
+     * Publishes a change for the writer to apply as publish does, logged with the other party and ID
+     * of a transfer between partitions.
+     * @param type The type of change: LogRecord.TRANSFER, a debit (LogRecord.WITHDRAW or
+     *        LogRecord.SEND) or a credit (LogRecord.DEPOSIT, LogRecord.INTEREST, LogRecord.RECEIVE
+     *        or LogRecord.SEND_ABORT).
+     * @param account The Account credited, debited or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @param counterparty A String containing the ID of the other party to the transfer, or null.
+     * @param transferID A String containing the ID of the transfer, or null.
+     * @param callback A Consumer of the change's outcome.
+     */
+    public void publish(byte type, Account account, Account recipient, long cents, String counterparty,
+            String transferID, Consumer<Status> callback) {
+        long sequence = this.claimed.getAndUpdate(claimed -> claimed < 0 ? claimed : claimed + 1);
+        if (sequence < 0) {
+            callback.accept(Status.INVALID_OPERATION);
+            return;
+        }
+
+        // The slot is free once the change a lap of the ring before this one has been applied
+        for (int waits = 0; sequence - this.ring.length > this.applied; waits++) {
+            backOff(waits);
+        }
+        Slot slot = this.ring[(int) sequence & this.mask];
+        slot.type = type;
+        slot.account = account;
+        slot.recipient = recipient;
+        slot.cents = cents;
+        slot.counterparty = counterparty;
+        slot.transferID = transferID;
+        slot.callback = callback;
+        slot.sequence = sequence;
+        if (this.sleeping) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+     * Deposits the given amount to the given account, waiting for the writer to apply it.
+     * @param account An Account to deposit to.
+     * @param cents A long containing the amount in cents to deposit.
+     * @return A Status representing the outcome of the deposit.
+     */
+    public Status deposit(Account account, long cents) {
+        return this.apply(LogRecord.DEPOSIT, account, null, cents, null, null);
+    }
+
+    /**
+     * Withdraws the given amount from the given account, waiting for the writer to apply it.
+     * @param account An Account to withdraw from.
+     * @param cents A long containing the amount in cents to withdraw.
+     * @return A Status representing the outcome of the withdrawal.
+     */
+    public Status withdraw(Account account, long cents) {
+        return this.apply(LogRecord.WITHDRAW, account, null, cents, null, null);
+    }
+
+    /**
+     * Transfers the given amount between the given accounts, waiting for the writer to apply it.
+     * @param sender An Account to transfer from.
+     * @param recipient An Account to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A Status representing the outcome of the transfer.
+     */
+    public Status transfer(Account sender, Account recipient, long cents) {
+        return this.apply(LogRecord.TRANSFER, sender, recipient, cents, null, null);
+    }
+
+    /**
+     * Applies any change publish accepts, waiting for the writer to apply it.
+     * @param type The type of change.
+     * @param account The Account credited, debited or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @param counterparty A String containing the ID of the other party to the transfer, or null.
+     * @param transferID A String containing the ID of the transfer, or null.
+     * @return A Status representing the outcome of the change.
+     */
+    public Status apply(byte type, Account account, Account recipient, long cents, String counterparty,
+            String transferID) {
+        CompletableFuture<Status> reply = new CompletableFuture<Status>();
+        this.publish(type, account, recipient, cents, counterparty, transferID, reply::complete);
+        return reply.join();
+    }
+
+    /**
+     * Stops accepting changes, then waits for the writer to apply those already published.
+     */
+    @Override
+    public void close() throws IOException {
+        this.claimed.getAndUpdate(claimed -> claimed | CLOSED);
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Writer Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents a slot of the ring, holding one published change until the writer has applied it.
+     */
+    private static class Slot {
+        private volatile long sequence = -1;
+        private byte type;
+        private Account account;
+        private Account recipient;
+        private long cents;
+        private String counterparty;
+        private String transferID;
+        private Consumer<Status> callback;
+        private Status status;
+    }
+
+    /**
+     * Applies published changes in sequence order until closed, a batch at a time: every change
+     * published in order since the last batch is applied and logged, the log is committed once,
+     * and then the callbacks are called and the slots freed.
+     */
+    private void run() {
+        long next = 0;
+        int waits = 0;
+        while (true) {
+            long end = next;
+            while (end - next < this.ring.length && this.ring[(int) end & this.mask].sequence == end) {
+                end++;
+            }
+            if (end == next) {
+                if (this.claimed.get() == (next | CLOSED)) {
+                    return;
+                }
+                this.idle(next, waits++);
+                continue;
+            }
+            waits = 0;
+
+            for (long sequence = next; sequence < end; sequence++) {
+                Slot slot = this.ring[(int) sequence & this.mask];
+                slot.status = this.engine.applySequenced(slot.type, slot.account, slot.recipient, slot.cents,
+                    slot.counterparty, slot.transferID);
+            }
+            TransactionLog log = this.engine.getLog();
+            boolean committed = log == null || log.commit(log.getLastLsn());
+            for (long sequence = next; sequence < end; sequence++) {
+                Slot slot = this.ring[(int) sequence & this.mask];
+                Consumer<Status> callback = slot.callback;
+                Status status = committed || slot.status != Status.OK ? slot.status : Status.UNAVAILABLE;
+                slot.account = null;
+                slot.recipient = null;
+                slot.counterparty = null;
+                slot.transferID = null;
+                slot.callback = null;
+                slot.status = null;
+                try {
+                    callback.accept(status);
+                } catch (RuntimeException e) {
+                    // A failing callback must not stop every later change from being applied
+                }
+            }
+            this.batches++;
+            this.applied = end - 1;
+            next = end;
+        }
+    }
+
+    /**
+     * Waits for the next change to be published, spinning, then yielding, then sleeping until a
+     * publisher wakes the writer.
+     * @param next The sequence of the next change.
+     * @param waits The number of times the writer has already waited for it.
+     */
+    private void idle(long next, int waits) {
+        if (waits < SPINS + YIELDS) {
+            backOff(waits);
+            return;
+        }
+        // Publishers check for sleeping after publishing, so one of the two sees the other
+        this.sleeping = true;
+        if (this.ring[(int) next & this.mask].sequence != next && this.claimed.get() >= 0) {
+            LockSupport.park(this);
+        }
+        this.sleeping = false;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Waits briefly before checking a condition again, backing off the longer it has waited.
+     * @param waits The number of times the caller has already waited.
+     */
+    private static void backOff(int waits) {
+        if (waits < SPINS) {
+            Thread.onSpinWait();
+        } else if (waits < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+/**
+ * Represents one client's session with the bank, processing line protocol requests.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+
+public class Session {
+
+    public static final String COMMANDS =
+        """
+        HELP: Outputs this help string
+        LOGIN <id> <password>: Log in using valid ID and password, receiving a session token
+        RESUME <token>: Log in to the session with the given token, such as from another connection
+        VERIFY <password>: Enters the password again, needed before amounts from the step-up amount
+        LOGOUT: Log out of current user, ending the session
+        REGISTER <id> <password>: Register for an account using valid ID and password
+        CHANGE PASSWORD <old password> <new password>: Changes current user's password
+        WITHDRAW <amount>: Withdraws a valid amount from account
+        DEPOSIT <amount>: Deposits a valid amount to account
+        TRANSFER <id> <amount>: Transfers a valid amount to another account
+        BALANCE: Outputs current user's balance
+        STATEMENT [<from date> <to date>] [<after>]: Lists a page of current user's transactions, \
+        continuing after the entry numbered <after>
+        METRICS: Outputs counts and latencies of operations (Admin only)
+        ASSETS: Outputs the total balance of all accounts (Admin only)
+        JOB [INTEREST <annual %> | FEES <amount> | RECONCILE]: Starts a job over all accounts, or reports the \
+        progress of the last one started (Admin only)
+        PROMOTE: Makes a read replica accept writes in place of its lost primary (Admin only)
+        EXIT: Ends the session""";
+
+    // Responses to each outcome, built once rather than per request
+    private static final Map<Status, String> REPLIES = new EnumMap<Status, String>(Status.class);
+    private static final Map<String, Status> STATUSES = new HashMap<String, Status>();
+    static {
+        for (Status status : Status.values()) {
+            REPLIES.put(status, status == Status.OK ? ok(status.getMessage()) : err(status.getMessage()));
+            STATUSES.put(REPLIES.get(status), status);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private Account account;
+    private String token;
+    private boolean peer;
+    private Fields fields;
+    private boolean closed;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public Session(Bank bank) {
+        this.bank = bank;
+        this.account = null;
+        this.token = null;
+        this.peer = false;
+        this.fields = new Fields();
+        this.closed = false;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the account logged in to this session.
+     * @return An Account logged in to this session, or null if not logged in.
+     */
+    public Account getAccount() {
+        return this.account;
+    }
+
+    /**
+     * Returns whether the client has ended this session.
+     * @return A boolean based on whether this session has ended.
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Commands Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Processes a request line and performs the operation commanded. The line is split into fields
+     * in place, and deposits, withdrawals, transfers and balance checks are parsed without allocating.
+     * @param line A String containing the request, a command followed by its arguments.
+     * @return A String representing the response, starting with OK or ERR.
+     */
+    public String process(String line) throws Exception {
+        Fields args = this.fields.split(line, Fields.WHITESPACE);
+        if (args.size() == 0) {
+            return err("Please enter a valid command.");
+        }
+        // CHANGE PASSWORD is matched by its first word, so its words may be separated by any whitespace
+        Command command = args.equalsIgnoreCase(0, "CHANGE")
+            ? Command.CHANGE_PASSWORD : Command.match(line, args.start(0), args.end(0));
+        if (command == null) {
+            return err("Please enter a valid command.");
+        }
+        // Each request checks the session is still open, a lookup rather than a password check
+        if (this.token != null && this.bank.getSessions().verify(this.token) == null) {
+            this.account = null;
+            this.token = null;
+            if (command != Command.LOGIN && command != Command.RESUME && command != Command.HELP
+                    && command != Command.EXIT) {
+                return err("Session expired. Please login again.");
+            }
+        }
+        // A replica serves reads only, and balances and statements only while close behind the primary
+        Replica replica = this.bank.getReplica();
+        if (replica != null && !isRead(command)) {
+            return reply(Status.READ_ONLY);
+        } else if (replica != null && (command == Command.BALANCE || command == Command.STATEMENT) && replica.isStale()) {
+            return reply(Status.STALE);
+        }
+        try {
+            switch (command) {
+                case HELP:
+                    return ok(COMMANDS.replace("\n", " | "));
+                case LOGIN:
+                    return this.login(args);
+                case RESUME:
+                    return this.resume(args);
+                case VERIFY:
+                    return this.verify(args);
+                case LOGOUT:
+                    this.bank.getSessions().revoke(this.token);
+                    this.account = null;
+                    this.token = null;
+                    return ok("Logged out.");
+                case REGISTER:
+                    return args.size() == 3 ? reply(this.bank.register(args.get(1), args.get(2))) : usage();
+                case CHANGE_PASSWORD:
+                    return this.changePw(args);
+                case WITHDRAW:
+                case DEPOSIT:
+                    return this.transaction(command, args);
+                case TRANSFER:
+                    return this.transfer(args);
+                case BALANCE:
+                    if (this.account == null) {
+                        return err("You must login to view your balance.");
+                    }
+                    return ok(Money.format(this.account.getBalanceCents()));
+                case STATEMENT:
+                    return this.statement(args);
+                case METRICS:
+                    if (this.account == null || !this.account.getID().equals("admin")) {
+                        return err("Only admin can view metrics.");
+                    }
+                    return ok(this.bank.getMetrics().report().replace("\n", " | ") + (replica == null ? ""
+                        : String.format(" | replica: %d ms behind the primary, log sequence number %d%s",
+                        replica.getStalenessMillis(), this.bank.getLog().getLastLsn(),
+                        replica.isFollowing() ? "" : ", no longer following")));
+                case ASSETS:
+                    if (this.account == null || !this.account.getID().equals("admin")) {
+                        return err("Only admin can view total assets.");
+                    }
+                    return ok(Money.format(this.bank.getTotalAssets()));
+                case JOB:
+                    return this.job(args);
+                case EXIT:
+                    this.closed = true;
+                    return ok("Goodbye.");
+                case PEER:
+                case PREPARE:
+                case COMMIT:
+                case ABORT:
+                case DECISION:
+                    return this.peer(command, args);
+                case PROMOTE:
+                    if (this.account == null || !this.account.getID().equals("admin")) {
+                        return err("Only admin can promote a replica.");
+                    } else if (replica == null || !replica.promote()) {
+                        return err("Not a replica.");
+                    }
+                    return ok("Promoted to primary.");
+                default:
+                    return err("Please enter a valid command.");
+            }
+        } catch (NumberFormatException e) {
+            return reply(Status.INVALID_AMOUNT);
+        } catch (DateTimeException e) {
+            return err("Invalid date.");
+        }
+    }
+
+    /**
+     * Logs in to the account with the given ID and password, starting a session whose token is
+     * given in the response.
+     * @param args The request's fields: LOGIN, ID and password.
+     * @return A String representing the response, ending with the session's token if successful.
+     */
+    private String login(Fields args) throws Exception {
+        if (args.size() != 3) {
+            return usage();
+        } else if (this.account != null) {
+            return err("Already logged in.");
+        }
+        this.account = this.bank.authenticate(args.get(1), args.get(2));
+        if (this.account == null) {
+            return err("Login failed.");
+        }
+        this.token = this.bank.getSessions().issue(this.account);
+        return ok("Login successful. TOKEN " + this.token);
+    }
+
+    /**
+     * Logs in to an open session by its token, without the password.
+     * @param args The request's fields: RESUME and token.
+     * @return A String representing the response.
+     */
+    private String resume(Fields args) {
+        if (args.size() != 2) {
+            return usage();
+        } else if (this.account != null) {
+            return err("Already logged in.");
+        }
+        String token = args.get(1);
+        Account account = this.bank.getSessions().verify(token);
+        if (account == null) {
+            return err("Invalid or expired session token.");
+        }
+        this.account = account;
+        this.token = token;
+        return ok("Session resumed.");
+    }
+
+    /**
+     * Checks the password of the logged in account again, so that large amounts can be moved for a while.
+     * @param args The request's fields: VERIFY and password.
+     * @return A String representing the response.
+     */
+    private String verify(Fields args) throws Exception {
+        if (args.size() != 2) {
+            return usage();
+        } else if (this.account == null) {
+            return err("You must login to verify your password.");
+        } else if (!this.bank.getSessions().stepUp(this.token, args.get(1))) {
+            return reply(Status.WRONG_PASSWORD);
+        }
+        return ok("Password verified.");
+    }
+
+    /**
+     * Changes the password of the logged in account after checking the old password.
+     * @param args The request's fields: CHANGE, PASSWORD, old password and new password.
+     * @return A String representing the response.
+     */
+    private String changePw(Fields args) throws Exception {
+        if (args.size() != 4 || !args.equalsIgnoreCase(1, "PASSWORD")) {
+            return usage();
+        } else if (this.account == null) {
+            return err("You must login to change your password.");
+        } else if (!this.bank.checkPw(this.account, args.get(2))) {
+            return reply(Status.WRONG_PASSWORD);
+        }
+        Status status = this.bank.changePw(this.account, args.get(3));
+        if (status == Status.OK) {
+            this.bank.getSessions().revokeAll(this.account, this.token);
+        }
+        return reply(status);
+    }
+
+    /**
+     * Deposits to or withdraws from the logged in account.
+     * @param command The Command given, DEPOSIT or WITHDRAW.
+     * @param args The request's fields: DEPOSIT or WITHDRAW, and amount.
+     * @return A String representing the response.
+     */
+    private String transaction(Command command, Fields args) {
+        if (args.size() != 2) {
+            return usage();
+        } else if (this.account == null) {
+            return err(String.format("You must login to %s.", command.getKeyword().toLowerCase()));
+        }
+        long cents = args.cents(1);
+        if (this.bank.getSessions().needsStepUp(this.token, cents)) {
+            return stepUpNeeded(this.bank.getSessions());
+        }
+        return reply(command == Command.WITHDRAW
+            ? this.bank.withdraw(this.account, cents) : this.bank.deposit(this.account, cents));
+    }
+
+    /**
+     * Transfers from the logged in account to another account.
+     * @param args The request's fields: TRANSFER, recipient ID and amount.
+     * @return A String representing the response.
+     */
+    private String transfer(Fields args) {
+        if (args.size() != 3) {
+            return usage();
+        } else if (this.account == null) {
+            return err("You must login to transfer.");
+        }
+        Account recipient = this.bank.getAccount(args.getLine(), args.start(1), args.end(1));
+        long cents = args.cents(2);
+        if (this.bank.getSessions().needsStepUp(this.token, cents)) {
+            return stepUpNeeded(this.bank.getSessions());
+        }
+        CrossTransfers transfers = this.bank.getTransfers();
+        if (transfers != null && !transfers.isLocal(args.getLine(), args.start(1), args.end(1))) {
+            return reply(transfers.transfer(this.account, args.get(1), cents));
+        }
+        return reply(this.bank.transfer(this.account, recipient, cents));
+    }
+
+    /**
+     * Lists a page of the logged in account's ledger entries, optionally between two dates inclusive.
+     * @param args The request's fields: STATEMENT, optionally from and to dates, and optionally the
+     *             number of the last entry of the previous page.
+     * @return A String representing the response, listing entries and the number to continue after.
+     */
+    private String statement(Fields args) throws IOException {
+        if (args.size() > 4) {
+            return usage();
+        } else if (this.account == null) {
+            return err("You must login to view your statement.");
+        }
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        if (args.size() >= 3) {
+            ZoneId zone = ZoneId.systemDefault();
+            from = LocalDate.parse(args.get(1)).atStartOfDay(zone).toInstant().toEpochMilli();
+            to = LocalDate.parse(args.get(2)).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() - 1;
+        }
+        long afterSeq = args.size() == 2 || args.size() == 4 ? Long.parseLong(args.get(args.size() - 1)) : 0;
+
+        List<LedgerEntry> page = this.bank.statement(this.account, from, to, afterSeq);
+        StringBuilder response = new StringBuilder(String.valueOf(page.size())).append(" entries");
+        for (LedgerEntry entry : page) {
+            response.append(" | ").append(Bank.formatEntry(entry));
+        }
+        if (page.size() == Bank.STATEMENT_PAGE) {
+            response.append(" | NEXT ").append(page.get(page.size() - 1).getSeq());
+        }
+        return ok(response.toString());
+    }
+
+    /**
+     * Takes part in a transfer between partitions on behalf of the sender's node, which must first
+     * authenticate this session with the nodes' secret.
+     * @param command The Command given, PEER, PREPARE, COMMIT, ABORT or DECISION.
+     * @param args The request's fields: PEER and secret; PREPARE, transfer ID, sender ID, recipient
+     *             ID and amount; or COMMIT, ABORT or DECISION and transfer ID.
+     * @return A String representing the response.
+     */
+    private String peer(Command command, Fields args) {
+        CrossTransfers transfers = this.bank.getTransfers();
+        if (transfers == null) {
+            return err("Please enter a valid command.");
+        } else if (command == Command.PEER) {
+            if (args.size() != 2) {
+                return usage();
+            }
+            this.peer = transfers.getPartitions().checkSecret(args.get(1));
+            return this.peer ? ok("Peer.") : err("Wrong secret.");
+        } else if (!this.peer) {
+            return err("Only nodes can take part in transfers between partitions.");
+        } else if (command == Command.PREPARE) {
+            return args.size() == 5
+                ? reply(transfers.prepare(args.get(1), args.get(2), args.get(3), args.cents(4))) : usage();
+        } else if (args.size() != 2) {
+            return usage();
+        } else if (command == Command.DECISION) {
+            byte decision = transfers.decision(args.get(1));
+            return decision == LogRecord.SEND_COMMIT ? ok("COMMIT")
+                : decision == LogRecord.SEND_ABORT ? ok("ABORT") : reply(Status.UNAVAILABLE);
+        }
+        return reply(command == Command.COMMIT ? transfers.commit(args.get(1)) : transfers.abort(args.get(1)));
+    }
+
+    /**
+     * Starts a job over every account without waiting for it, or reports the last job's progress.
+     * @param args The request's fields: JOB, then INTEREST and an annual percentage, FEES and an
+     *             amount, RECONCILE, or nothing to report progress.
+     * @return A String representing the response.
+     */
+    private String job(Fields args) {
+        if (this.account == null || !this.account.getID().equals("admin")) {
+            return err("Only admin can run jobs.");
+        }
+        AdminJobs jobs = this.bank.getJobs();
+        AdminJob job;
+        if (args.size() == 1) {
+            job = jobs.getCurrent();
+            return job == null ? err("No job has been run.") : ok(job.report());
+        } else if (args.size() == 3 && args.equalsIgnoreCase(1, "INTEREST")) {
+            long rate = AdminJobs.parseRate(args.get(2));
+            if (rate < 0) {
+                return err("Invalid interest rate.");
+            }
+            job = jobs.accrueInterest(rate);
+        } else if (args.size() == 3 && args.equalsIgnoreCase(1, "FEES")) {
+            long cents = args.cents(2);
+            if (!Bank.isValidAmount(cents)) {
+                return reply(Status.INVALID_AMOUNT);
+            }
+            job = jobs.sweepFees(this.account, cents);
+        } else if (args.size() == 2 && args.equalsIgnoreCase(1, "RECONCILE")) {
+            job = jobs.reconcile();
+        } else {
+            return usage();
+        }
+        return job == null ? err("A job is already running.") : ok("Started " + job.getName() + ".");
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the response for the outcome of an operation.
+     * @param status A Status representing the outcome.
+     * @return A String representing the response.
+     */
+    private static String reply(Status status) {
+        return REPLIES.get(status);
+    }
+
+    /**
+     * Gets the outcome a response reports, such as another node's reply to a step of a transfer.
+     * @param response A String containing the response.
+     * @return The Status the response reports, or null if it reports none.
+     */
+    public static Status parseReply(String response) {
+        return STATUSES.get(response);
+    }
+
+    /**
+     * Builds the response for an amount that needs the password entered again.
+     * @param sessions The SessionCache whose step-up amount was reached.
+     * @return A String representing the response.
+     */
+    private static String stepUpNeeded(SessionCache sessions) {
+        return err(String.format("Amounts of %s or more need your password. Enter VERIFY <password> first.",
+            Money.display(sessions.getStepUpCents())));
+    }
+
+    /**
+     * Returns whether a command only reads, so that a read replica may serve it.
+     * @param command The Command given.
+     * @return A boolean based on whether the command leaves the accounts unchanged.
+     */
+    private static boolean isRead(Command command) {
+        switch (command) {
+            case HELP:
+            case LOGIN:
+            case RESUME:
+            case VERIFY:
+            case LOGOUT:
+            case BALANCE:
+            case STATEMENT:
+            case METRICS:
+            case EXIT:
+            case PROMOTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Builds the response for a request with the wrong number of arguments.
+     * @return A String representing the response.
+     */
+    private static String usage() {
+        return err("Wrong number of arguments. Enter HELP for usage.");
+    }
+
+    /**
+     * Builds a successful response.
+     * @param message A String containing the message.
+     * @return A String representing the response.
+     */
+    private static String ok(String message) {
+        return "OK " + message;
+    }
+
+    /**
+     * Builds a failed response.
+     * @param message A String containing the message.
+     * @return A String representing the response.
+     */
+    private static String err(String message) {
+        return "ERR " + message;
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Represents the sessions of logged in users, each known by a random token issued when the user
+ * logs in. Checking a token is a lookup in a bounded map and never touches the password hash, so
+ * an operation made after logging in is authenticated at the cost of a hash lookup. A session ends
+ * once it has been idle too long or open too long. Large amounts may need the password again, a
+ * step-up that holds for a short time. The map is split into segments, each an access ordered map
+ * with its own lock and an equal share of the capacity, so threads checking different tokens
+ * rarely wait for one another, and a full segment evicts its least recently used session.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class SessionCache {
+
+    // Most sessions held at once, tunable with -Dbank.session.capacity
+    public static final int CAPACITY = Integer.getInteger("bank.session.capacity", 100_000);
+
+    // Seconds a session may go unused, and seconds it may stay open at all, tunable with
+    // -Dbank.session.idleSeconds and -Dbank.session.maxSeconds
+    public static final long IDLE_SECONDS = Long.getLong("bank.session.idleSeconds", 15 * 60);
+    public static final long MAX_SECONDS = Long.getLong("bank.session.maxSeconds", 8 * 60 * 60);
+
+    // Amount in cents from which the password must be entered again, and seconds a step-up holds for,
+    // tunable with -Dbank.session.stepUpCents and -Dbank.session.stepUpSeconds
+    public static final long STEP_UP_CENTS = Long.getLong("bank.session.stepUpCents", Money.ofUnits(10_000));
+    public static final long STEP_UP_SECONDS = Long.getLong("bank.session.stepUpSeconds", 5 * 60);
+
+    // Random bytes per token, encoded as URL safe Base64 without padding
+    private static final int TOKEN_BYTES = 16;
+
+    // Segments the sessions are spread over, a power of two
+    private static final int SEGMENTS = 64;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Segment[] segments;
+    private long idleNanos;
+    private long maxNanos;
+    private long stepUpCents;
+    private long stepUpNanos;
+    private SecureRandom random;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public SessionCache() {
+        this(CAPACITY, IDLE_SECONDS, MAX_SECONDS, STEP_UP_CENTS, STEP_UP_SECONDS);
+    }
+
+    /**
+     * Creates an empty cache of sessions.
+     * @param capacity The most sessions held at once.
+     * @param idleSeconds The seconds a session may go unused before it ends.
+     * @param maxSeconds The seconds a session may stay open before it ends.
+     * @param stepUpCents The amount in cents from which the password must be entered again.
+     * @param stepUpSeconds The seconds after entering the password again that large amounts need no password.
+     */
+    public SessionCache(int capacity, long idleSeconds, long maxSeconds, long stepUpCents, long stepUpSeconds) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(perSegment);
+        }
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.maxNanos = TimeUnit.SECONDS.toNanos(maxSeconds);
+        this.stepUpCents = stepUpCents;
+        this.stepUpNanos = TimeUnit.SECONDS.toNanos(stepUpSeconds);
+        this.random = new SecureRandom();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the amount from which the password must be entered again.
+     * @return A long representing the amount in cents.
+     */
+    public long getStepUpCents() {
+        return this.stepUpCents;
+    }
+
+    /**
+     * Gets the number of sessions held, including any that have ended but not yet been removed.
+     * @return An int representing the number of sessions.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Session Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts a session for an account whose password has just been checked.
+     * @param account The Account logged in to.
+     * @return A String containing the session's token.
+     */
+    public String issue(Account account) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        this.random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = System.nanoTime();
+        Segment segment = this.segment(token);
+        synchronized (segment) {
+            segment.put(token, new Entry(account, now));
+        }
+        return token;
+    }
+
+    /**
+     * Checks a session's token, ending the session if it has been idle or open too long.
+     * @param token A String containing the token, or null.
+     * @return The Account logged in to, or null if the token is not that of an open session.
+     */
+    public Account verify(String token) {
+        Entry entry = this.touch(token, System.nanoTime());
+        return entry != null ? entry.account : null;
+    }
+
+    /**
+     * Returns whether an amount needs the password entered again before it is moved.
+     * @param token A String containing the session's token.
+     * @param cents A long containing the amount in cents, or Long.MAX_VALUE for an operation that
+     *              always needs it unless the password was entered again recently.
+     * @return A boolean based on whether the amount reaches the step-up amount and the password has
+     *         not been entered again recently.
+     */
+    public boolean needsStepUp(String token, long cents) {
+        if (cents < this.stepUpCents) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Entry entry = this.touch(token, now);
+        return entry == null || entry.steppedUp == 0 || now - entry.steppedUp > this.stepUpNanos;
+    }
+
+    /**
+     * Checks the password of a session's account again, so that large amounts need no password for
+     * a while.
+     * @param token A String containing the session's token.
+     * @param pw A String containing the password entered.
+     * @return A boolean based on whether the session is open and the password is correct.
+     */
+    public boolean stepUp(String token, String pw) throws Exception {
+        Entry entry = this.touch(token, System.nanoTime());
+        if (entry == null || !entry.account.checkPw(pw)) {
+            return false;
+        }
+        entry.steppedUp = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Ends a session.
+     * @param token A String containing the session's token, or null.
+     */
+    public void revoke(String token) {
+        if (token == null) {
+            return;
+        }
+        Segment segment = this.segment(token);
+        synchronized (segment) {
+            segment.remove(token);
+        }
+    }
+
+    /**
+     * Ends every session of an account other than the given one, such as after its password changes.
+     * @param account The Account whose sessions end.
+     * @param keep A String containing the token of the session to keep open, or null.
+     */
+    public void revokeAll(Account account, String keep) {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.entrySet().removeIf(session ->
+                    session.getValue().account.getID().equals(account.getID()) && !session.getKey().equals(keep));
+            }
+        }
+    }
+
+    /**
+     * Ends every session, such as after every account has been reset.
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents an open session.
+     */
+    private static class Entry {
+        private Account account;
+        private long created;
+        private long used;
+        private volatile long steppedUp;
+
+        private Entry(Account account, long now) {
+            this.account = account;
+            this.created = now;
+            this.used = now;
+            this.steppedUp = 0;
+        }
+    }
+
+    /**
+     * Represents a segment of the sessions, in order from least to most recently used, evicting the
+     * least recently used once it is full. Its lock guards it.
+     */
+    private static class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return this.size() > this.capacity;
+        }
+    }
+
+    /**
+     * Gets the segment a token belongs to.
+     * @param token A String containing the token.
+     * @return The Segment holding the token's session.
+     */
+    private Segment segment(String token) {
+        int h = token.hashCode();
+        return this.segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Looks up a session and marks it used, removing it instead if it has ended.
+     * @param token A String containing the token, or null.
+     * @param now The current time from System.nanoTime().
+     * @return The Entry of the open session, or null if there is none.
+     */
+    private Entry touch(String token, long now) {
+        if (token == null) {
+            return null;
+        }
+        Segment segment = this.segment(token);
+        synchronized (segment) {
+            Entry entry = segment.get(token);
+            if (entry == null) {
+                return null;
+            } else if (now - entry.used > this.idleNanos || now - entry.created > this.maxNanos) {
+                segment.remove(token);
+                return null;
+            }
+            entry.used = now;
+            return entry;
+        }
+    }
+}
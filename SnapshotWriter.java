@@ -0,0 +1,326 @@
+/**
+ * Writes a snapshot of account data to a file atomically. Rows are streamed through a direct
+ * buffer into a temporary file next to the target, which is synced and then renamed over the
+ * target, so a crash while saving leaves the previous file intact. Files ending in .bin are
+ * written in a compact binary format instead of CSV.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+public class SnapshotWriter {
+
+    // Size of the write buffer, tunable with -Dbank.snapshot.bufferBytes
+    public static final int BUFFER_BYTES = Integer.getInteger("bank.snapshot.bufferBytes", 4 << 20);
+
+    // Binary format: a header of magic, version, reserved short and log sequence number, then blocks of
+    // [int payload length][int count, count fixed-width records, length-prefixed IDs and credentials][int CRC32]
+    public static final String BINARY_EXTENSION = ".bin";
+    public static final byte[] BINARY_MAGIC = "BANKACCT".getBytes(StandardCharsets.US_ASCII);
+    public static final short BINARY_VERSION = 1;
+    public static final int BINARY_HEADER_BYTES = 20;
+    public static final int BINARY_RECORD_BYTES = 16; // long cents, int ID offset, int credential offset
+    public static final int BLOCK_RECORDS = 4096;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private ByteBuffer buffer;
+    private ByteBuffer block;
+    private CRC32 crc;
+    private long bytes;
+    private long nanos;
+    private int rows;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public SnapshotWriter() {
+        this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, 64 << 10));
+        this.block = ByteBuffer.allocate(1 << 20);
+        this.crc = new CRC32();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of bytes written by the last call to write.
+     * @return A long representing the size of the snapshot in bytes.
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Gets the number of accounts written by the last call to write.
+     * @return An int representing the number of rows.
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Gets the time taken by the last call to write, including syncing and renaming.
+     * @return A long representing the time in nanoseconds.
+     */
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    /**
+     * Gets the rate the last snapshot was written at.
+     * @return A double representing the throughput in bytes per second.
+     */
+    public double getBytesPerSecond() {
+        return this.nanos > 0 ? this.bytes * 1e9 / this.nanos : 0;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the given account data to a file, replacing it only once the data is on disk.
+     * The file is binary if its name ends in .bin, or CSV otherwise. Not safe for concurrent use, as the buffer is reused between snapshots.
+     * @param pathname A String containing the path of the file to replace.
+     * @param lsn The log sequence number the data was copied at.
+     * @param ids An array containing the IDs of the accounts.
+     * @param credentials An array containing the credentials of the accounts.
+     * @param cents An array containing the balances of the accounts in cents.
+     * @param count The number of accounts to write from the arrays.
+     */
+    public void write(String pathname, long lsn, String[] ids, Credential[] credentials, long[] cents, int count)
+            throws IOException {
+        long start = System.nanoTime();
+        Path target = Paths.get(pathname).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        this.bytes = 0;
+        this.rows = count;
+        this.buffer.clear();
+
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (isBinary(pathname)) {
+                this.writeBinary(channel, lsn, ids, credentials, cents, count);
+            } else {
+                this.writeCsv(channel, lsn, ids, credentials, cents, count);
+            }
+            this.drain(channel);
+            channel.force(true);
+        }
+
+        // Replace the old file in one step, then make the rename itself durable
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(target.getParent());
+        this.nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Returns whether the file at the given path is saved in the binary format.
+     * @param pathname A String containing the path of the file.
+     * @return A boolean based on whether the path ends in .bin.
+     */
+    public static boolean isBinary(String pathname) {
+        return pathname.endsWith(BINARY_EXTENSION);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Format Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Buffers account data as CSV rows after the log sequence number and headings of columns.
+     */
+    private void writeCsv(FileChannel channel, long lsn, String[] ids, Credential[] credentials, long[] cents,
+            int count) throws IOException {
+        this.putAscii(channel, Bank.LSN_PREFIX);
+        this.putLong(channel, lsn);
+        this.put(channel, (byte) '\n');
+        this.putAscii(channel, Bank.HEADINGS);
+        this.put(channel, (byte) '\n');
+
+        for (int i = 0; i < count; i++) {
+            this.putAscii(channel, ids[i]);
+            this.put(channel, (byte) ',');
+            this.put(channel, credentials[i].encodedBytes());
+            this.put(channel, (byte) ',');
+            this.putCents(channel, cents[i]);
+            this.put(channel, (byte) '\n');
+        }
+    }
+
+    /**
+     * Buffers account data in the binary format, in checksummed blocks of up to BLOCK_RECORDS accounts.
+     */
+    private void writeBinary(FileChannel channel, long lsn, String[] ids, Credential[] credentials, long[] cents,
+            int count) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_BYTES);
+        header.put(BINARY_MAGIC).putShort(BINARY_VERSION).putShort((short) 0).putLong(lsn);
+        this.put(channel, header.array(), header.position());
+
+        for (int first = 0; first < count; first += BLOCK_RECORDS) {
+            int records = Math.min(BLOCK_RECORDS, count - first);
+
+            // Lay out the fixed-width records, then the variable-length data they point to
+            int heap = 4 + records * BINARY_RECORD_BYTES;
+            int heapBytes = 0;
+            byte[][] credentialBytes = new byte[records][];
+            for (int i = 0; i < records; i++) {
+                credentialBytes[i] = credentials[first + i].toBytes();
+                heapBytes += 4 + ids[first + i].length() + credentialBytes[i].length;
+            }
+            if (this.block.capacity() < 4 + heap + heapBytes + 4) {
+                this.block = ByteBuffer.allocate(Integer.highestOneBit(4 + heap + heapBytes + 4) << 1);
+            }
+            ByteBuffer block = this.block;
+            block.clear();
+            block.putInt(heap + heapBytes);
+            block.putInt(records);
+            int offset = heap;
+            for (int i = 0; i < records; i++) {
+                int idBytes = ids[first + i].length();
+                block.putLong(cents[first + i]);
+                block.putInt(offset);
+                block.putInt(offset + 2 + idBytes);
+                offset += 4 + idBytes + credentialBytes[i].length;
+            }
+            for (int i = 0; i < records; i++) {
+                String id = ids[first + i];
+                block.putShort((short) id.length());
+                for (int c = 0; c < id.length(); c++) {
+                    block.put((byte) id.charAt(c));
+                }
+                block.putShort((short) credentialBytes[i].length);
+                block.put(credentialBytes[i]);
+            }
+
+            this.crc.reset();
+            this.crc.update(block.array(), 4, heap + heapBytes);
+            block.putInt((int) this.crc.getValue());
+            this.put(channel, block.array(), block.position());
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Writes out the buffer's contents and empties it.
+     * @param channel The FileChannel to write to.
+     */
+    private void drain(FileChannel channel) throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.bytes += channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Buffers a single byte.
+     * @param channel The FileChannel to write to once the buffer is full.
+     * @param b The byte to write.
+     */
+    private void put(FileChannel channel, byte b) throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            this.drain(channel);
+        }
+        this.buffer.put(b);
+    }
+
+    /**
+     * Buffers an array of bytes.
+     * @param channel The FileChannel to write to once the buffer is full.
+     * @param bytes The bytes to write.
+     */
+    private void put(FileChannel channel, byte[] bytes) throws IOException {
+        this.put(channel, bytes, bytes.length);
+    }
+
+    /**
+     * Buffers the first bytes of an array.
+     * @param channel The FileChannel to write to once the buffer is full.
+     * @param bytes An array containing the bytes to write.
+     * @param count The number of bytes to write.
+     */
+    private void put(FileChannel channel, byte[] bytes, int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            if (!this.buffer.hasRemaining()) {
+                this.drain(channel);
+            }
+            int length = Math.min(count - offset, this.buffer.remaining());
+            this.buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Buffers a String of ASCII characters without encoding it to an intermediate array.
+     * @param channel The FileChannel to write to once the buffer is full.
+     * @param s The String to write.
+     */
+    private void putAscii(FileChannel channel, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // Not ASCII, which valid IDs never are, so encode the rest instead
+                this.put(channel, s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            this.put(channel, (byte) c);
+        }
+    }
+
+    /**
+     * Buffers a non negative long in decimal.
+     * @param channel The FileChannel to write to once the buffer is full.
+     * @param value The value to write.
+     */
+    private void putLong(FileChannel channel, long value) throws IOException {
+        if (value >= 10) {
+            this.putLong(channel, value / 10);
+        }
+        this.put(channel, (byte) ('0' + value % 10));
+    }
+
+    /**
+     * Buffers an amount in cents as a decimal number of units with the currency's decimal places.
+     * @param channel The FileChannel to write to once the buffer is full.
+     * @param cents The amount to write.
+     */
+    private void putCents(FileChannel channel, long cents) throws IOException {
+        this.putLong(channel, cents / Money.CENTS_PER_UNIT);
+        if (Money.SCALE > 0) {
+            long fraction = cents % Money.CENTS_PER_UNIT;
+            this.put(channel, (byte) '.');
+            for (long place = Money.CENTS_PER_UNIT / 10; place > 0; place /= 10) {
+                this.put(channel, (byte) ('0' + fraction / place % 10));
+            }
+        }
+    }
+
+    /**
+     * Syncs a directory so that renames within it survive a crash, where the platform allows it.
+     * @param directory The Path of the directory.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened for syncing on every platform
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Represents the outcome of a banking operation.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+public enum Status {
+
+    OK("Operation successful."),
+    INVALID_ID("Invalid ID."),
+    ID_TAKEN("ID taken."),
+    INVALID_PASSWORD("Invalid password."),
+    WRONG_PASSWORD("Wrong password."),
+    INVALID_AMOUNT("Invalid amount."),
+    INSUFFICIENT_FUNDS("Insufficient funds."),
+    INVALID_OPERATION("Invalid operation."),
+    UNAVAILABLE("Partition unavailable. Please try again."),
+    READ_ONLY("Read-only replica. Please use the primary."),
+    STALE("Replica is behind the primary. Please try again."),
+    LOGIN_FAILED("Login failed."),
+    SESSION_EXPIRED("Invalid or expired session token."),
+    PASSWORD_NEEDED("Amounts this large need your password. Verify it first."),
+    BUSY("Too many requests in flight. Please try again.");
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private final String message;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Status(String message) {
+        this.message = message;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the message describing this outcome.
+     * @return A String representing the message describing this outcome.
+     */
+    public String getMessage() {
+        return this.message;
+    }
+}
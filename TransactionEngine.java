@@ -0,0 +1,808 @@
+/**
+ * Represents the engine applying balance changes to accounts safely from many threads. Balances
+ * can be read at any time without locking. A consistent total of every balance is taken without
+ * stopping balance changes: changes are counted in epochs, and a snapshot starts a new epoch,
+ * waits only for changes from the old epoch still in flight, and has changes from the new epoch
+ * save each account's balance before first changing it while the snapshot is being summed.
+ * A change logged but interrupted while waiting for the log to reach disk is not acknowledged:
+ * it returns UNAVAILABLE, though it stays applied and may yet reach disk.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+public class TransactionEngine {
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    // Longs between the counters of changes in flight for each thread stripe, so that each
+    // stripe's pair of counters, one per epoch parity, sits on its own pair of cache lines
+    private static final int COUNTER_STRIDE = 16;
+
+    // Handle for atomic updates of the counters
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private ReentrantLock[] stripes;
+    private boolean lockFree;
+    private TransactionLog log;
+    private volatile SequencedEngine sequencer;
+    private long[] inFlight;
+    private int counterMask;
+    private volatile long epoch;
+    private volatile Snapshot snapshot;
+    private ReentrantLock snapshotLock;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public TransactionEngine() {
+        this(DEFAULT_STRIPES, false);
+    }
+
+    public TransactionEngine(boolean lockFree) {
+        this(DEFAULT_STRIPES, lockFree);
+    }
+
+    public TransactionEngine(int stripes, boolean lockFree) {
+        // Round up to a power of two so a stripe can be chosen with a mask
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.lockFree = lockFree;
+        this.log = null;
+        this.sequencer = null;
+        int counters = Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.inFlight = new long[counters * COUNTER_STRIDE];
+        this.counterMask = counters - 1;
+        this.epoch = 0;
+        this.snapshot = null;
+        this.snapshotLock = new ReentrantLock();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether balance changes skip locking, so that transfers apply their two legs as
+     * separate atomic updates that other changes may come between.
+     * @return A boolean based on whether this engine is lock-free.
+     */
+    public boolean isLockFree() {
+        return this.lockFree;
+    }
+
+    /**
+     * Gets the log every balance change is appended to.
+     * @return A TransactionLog recording balance changes, or null if they are not logged.
+     */
+    public TransactionLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * Sets the log every balance change is appended to.
+     * @param log A TransactionLog to record balance changes, or null to stop logging them.
+     */
+    public void setLog(TransactionLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets the sequencer whose writer becomes the only thread changing balances. Deposits,
+     * withdrawals and transfers made through this engine are then published to it and wait for its
+     * writer, which applies them without stripe locks.
+     * @param sequencer A SequencedEngine applying every balance change, or null to apply them on the
+     *        threads making them.
+     */
+    public void setSequencer(SequencedEngine sequencer) {
+        this.sequencer = sequencer;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Transaction Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Deposits the given amount to the given account with a single atomic add.
+     * @param account An Account to deposit to.
+     * @param cents A long containing the amount in cents to deposit.
+     * @return A Status representing the outcome of the deposit.
+     */
+    public Status deposit(Account account, long cents) {
+        return this.deposit(account, cents, LogRecord.DEPOSIT);
+    }
+
+    /**
+     * Credits the given amount to the given account, logging it as the given type of record.
+     * @param account An Account to credit.
+     * @param cents A long containing the amount in cents to credit.
+     * @param type The type of record to log, LogRecord.DEPOSIT or LogRecord.INTEREST.
+     * @return A Status representing the outcome of the credit.
+     */
+    public Status deposit(Account account, long cents, byte type) {
+        return this.deposit(account, cents, type, null, null);
+    }
+
+    /**
+     * Credits the given amount to the given account as part of a transfer between partitions.
+     * @param account An Account to credit.
+     * @param cents A long containing the amount in cents to credit.
+     * @param type The type of record to log.
+     * @param counterparty A String containing the ID of the other party to the transfer, or null.
+     * @param transferID A String containing the ID of the transfer, or null.
+     * @return A Status representing the outcome of the credit.
+     */
+    public Status deposit(Account account, long cents, byte type, String counterparty, String transferID) {
+        if (cents < 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        SequencedEngine sequencer = this.sequencer;
+        if (sequencer != null) {
+            return sequencer.apply(type, account, null, cents, counterparty, transferID);
+        }
+        TransactionLog log = this.log;
+        long epoch = this.enter();
+        long lsn;
+        try {
+            if (log == null) {
+                this.lockedCredit(epoch, account, cents);
+                return Status.OK;
+            }
+            log.beginMutation();
+            try {
+                this.lockedCredit(epoch, account, cents);
+                lsn = log.append(type, account.getID(), counterparty, cents, transferID);
+            } finally {
+                log.endMutation();
+            }
+        } finally {
+            this.exit(epoch);
+        }
+        return log.commit(lsn) ? Status.OK : Status.UNAVAILABLE;
+    }
+
+    /**
+     * Withdraws the given amount from the given account unless it would overdraw the account.
+     * The overdraft check and the debit happen in the same compare-and-set.
+     * @param account An Account to withdraw from.
+     * @param cents A long containing the amount in cents to withdraw.
+     * @return A Status representing the outcome of the withdrawal.
+     */
+    public Status withdraw(Account account, long cents) {
+        return this.withdraw(account, cents, LogRecord.WITHDRAW, null, null);
+    }
+
+    /**
+     * Debits the given amount from the given account unless it would overdraw the account, as part
+     * of a transfer between partitions.
+     * @param account An Account to debit.
+     * @param cents A long containing the amount in cents to debit.
+     * @param type The type of record to log.
+     * @param counterparty A String containing the ID of the other party to the transfer, or null.
+     * @param transferID A String containing the ID of the transfer, or null.
+     * @return A Status representing the outcome of the debit.
+     */
+    public Status withdraw(Account account, long cents, byte type, String counterparty, String transferID) {
+        if (cents < 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        SequencedEngine sequencer = this.sequencer;
+        if (sequencer != null) {
+            return sequencer.apply(type, account, null, cents, counterparty, transferID);
+        }
+        TransactionLog log = this.log;
+        long epoch = this.enter();
+        long lsn;
+        try {
+            if (log == null) {
+                return this.lockedDebit(epoch, account, cents) ? Status.OK : Status.INSUFFICIENT_FUNDS;
+            }
+            log.beginMutation();
+            try {
+                if (!this.lockedDebit(epoch, account, cents)) {
+                    return Status.INSUFFICIENT_FUNDS;
+                }
+                lsn = log.append(type, account.getID(), counterparty, cents, transferID);
+            } finally {
+                log.endMutation();
+            }
+        } finally {
+            this.exit(epoch);
+        }
+        return log.commit(lsn) ? Status.OK : Status.UNAVAILABLE;
+    }
+
+    /**
+     * Transfers the given amount between the given accounts unless it would overdraw the sender.
+     * Unless this engine is lock-free, every change to an account's balance holds the account's
+     * stripe, and a transfer holds both accounts' stripes, locked in ascending stripe order so
+     * that concurrent transfers in opposite directions cannot deadlock while transfers between
+     * unrelated accounts run in parallel. No other change to either account comes between the
+     * debit and the credit, though balances read without a lock may see one before the other. The
+     * stripe of an account with a sharded balance is never locked, so transfers into a hot account
+     * do not serialize on it. A lock-free transfer debits the sender and then credits the
+     * recipient, so the amount is briefly in neither account and other changes may see that.
+     * @param sender An Account to transfer from.
+     * @param recipient An Account to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A Status representing the outcome of the transfer.
+     */
+    public Status transfer(Account sender, Account recipient, long cents) {
+        if (recipient == null) {
+            return Status.INVALID_ID;
+        } else if (cents < 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        SequencedEngine sequencer = this.sequencer;
+        if (sequencer != null) {
+            return sequencer.transfer(sender, recipient, cents);
+        }
+        TransactionLog log = this.log;
+        long epoch = this.enter();
+        long lsn;
+        try {
+            if (log == null) {
+                return this.lockedTransfer(epoch, sender, recipient, cents);
+            }
+            log.beginMutation();
+            try {
+                Status status = this.lockedTransfer(epoch, sender, recipient, cents);
+                if (status != Status.OK) {
+                    return status;
+                }
+                lsn = log.append(LogRecord.TRANSFER, sender.getID(), recipient.getID(), cents, null);
+            } finally {
+                log.endMutation();
+            }
+        } finally {
+            this.exit(epoch);
+        }
+        return log.commit(lsn) ? Status.OK : Status.UNAVAILABLE;
+    }
+
+    /**
+     * Applies the net balance changes of a batch of transfers, unless they would overdraw an
+     * account, in which case no balance changes and the batch is logged as nothing. Unless this
+     * engine is lock-free, the stripes of every account without a sharded balance are locked in
+     * ascending stripe order for the whole batch, and as every other change to those accounts
+     * takes the same stripes, none sees the batch half applied or a debit it later undoes.
+     * Balances read without a lock, and hot accounts, which are never locked, may still see the
+     * batch's debits before its credits; only a snapshot sees every batch whole. In lock-free
+     * mode, concurrent changes may see the debits of a batch that is then undone. A batch is
+     * refused with INVALID_OPERATION while a sequencer is set, as it would change balances beside
+     * the sequencer's writer; its transfers can be made one by one through the sequencer instead.
+     * @param accounts An array containing the accounts whose balances change, each at most once.
+     * @param deltas An array containing the net change of each account's balance in cents.
+     * @param count The number of accounts to change from the arrays.
+     * @param records A function appending the batch's records to the log and returning the last
+     *        log sequence number, called only if the changes are applied and the log is set.
+     * @return A Status representing the outcome of the batch.
+     */
+    public Status transferNet(Account[] accounts, long[] deltas, int count, ToLongFunction<TransactionLog> records) {
+        if (this.sequencer != null) {
+            return Status.INVALID_OPERATION;
+        }
+        TransactionLog log = this.log;
+        long lsn = 0;
+        long epoch = this.enter();
+        if (log != null) {
+            log.beginMutation();
+        }
+        try {
+            int[] held = this.lockAll(accounts, count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    this.capture(epoch, accounts[i]);
+                }
+                if (!applyNet(accounts, deltas, count)) {
+                    return Status.INSUFFICIENT_FUNDS;
+                }
+            } finally {
+                for (int i = held.length - 1; i >= 0; i--) {
+                    this.stripes[held[i]].unlock();
+                }
+            }
+            if (log != null) {
+                lsn = records.applyAsLong(log);
+            }
+        } finally {
+            if (log != null) {
+                log.endMutation();
+            }
+            this.exit(epoch);
+        }
+        return log == null || log.commit(lsn) ? Status.OK : Status.UNAVAILABLE;
+    }
+
+    /**
+     * Applies and logs a deposit, withdrawal or transfer without waiting for the log, for a caller
+     * that commits changes itself. The accounts' stripes are locked as in the other methods unless
+     * this engine is lock-free. Refused with INVALID_OPERATION while a sequencer is set, as only its
+     * writer may then change balances.
+     * @param type The type of change, LogRecord.DEPOSIT, LogRecord.WITHDRAW or LogRecord.TRANSFER.
+     * @param account The Account deposited to, withdrawn from or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @return A Status representing the outcome of the change.
+     */
+    public Status apply(byte type, Account account, Account recipient, long cents) {
+        return this.apply(type, account, recipient, cents, null);
+    }
+
+    /**
+     * Applies and logs a deposit, withdrawal or transfer without waiting for the log, passing out
+     * the sequence number of its record so that the caller can commit exactly that record.
+     * @param type The type of change, LogRecord.DEPOSIT, LogRecord.WITHDRAW or LogRecord.TRANSFER.
+     * @param account The Account deposited to, withdrawn from or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @param lsn A long array whose first element is set to the log sequence number of the change's
+     *        record if it is applied and logged, or null.
+     * @return A Status representing the outcome of the change.
+     */
+    public Status apply(byte type, Account account, Account recipient, long cents, long[] lsn) {
+        if (this.sequencer != null
+                || (type != LogRecord.DEPOSIT && type != LogRecord.WITHDRAW && type != LogRecord.TRANSFER)) {
+            return Status.INVALID_OPERATION;
+        }
+        return this.apply(type, account, recipient, cents, null, null, lsn, true);
+    }
+
+    /**
+     * Applies and logs a change published to the sequencer, without waiting for the log and without
+     * locking any stripe. Only the sequencer's writer may call this: while a sequencer is set, every
+     * other change to balances made through this engine is published to it, so the writer is the
+     * only thread changing balances and nothing can come between a transfer's debit and credit.
+     * @param type The type of change: LogRecord.TRANSFER, a debit (LogRecord.WITHDRAW or
+     *        LogRecord.SEND) or a credit (LogRecord.DEPOSIT, LogRecord.INTEREST, LogRecord.RECEIVE
+     *        or LogRecord.SEND_ABORT).
+     * @param account The Account credited, debited or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @param counterparty A String containing the ID of the other party to a transfer between
+     *        partitions, or null.
+     * @param transferID A String containing the ID of a transfer between partitions, or null.
+     * @return A Status representing the outcome of the change.
+     */
+    public Status applySequenced(byte type, Account account, Account recipient, long cents, String counterparty,
+            String transferID) {
+        if (type != LogRecord.TRANSFER && !isCredit(type) && !isDebit(type)) {
+            return Status.INVALID_OPERATION;
+        }
+        return this.apply(type, account, recipient, cents, counterparty, transferID, null, false);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Snapshot Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Represents a snapshot being summed: the epoch it started, whether the changes of earlier
+     * epochs have finished, and the balances saved by changes of its epoch before they were made.
+     */
+    private static class Snapshot {
+        private long epoch;
+        private Map<String, Long> balances;
+        private volatile boolean drained;
+
+        private Snapshot(long epoch) {
+            this.epoch = epoch;
+            this.balances = new ConcurrentHashMap<String, Long>();
+            this.drained = false;
+        }
+    }
+
+    /**
+     * Sums the balances of the given accounts as they were at one instant, while balance changes
+     * carry on. Every change that started before the snapshot is counted and none that started
+     * after it, so transfers never appear half done and the total moves only by deposits and
+     * withdrawals. Snapshots are taken one at a time.
+     * @param accounts The accounts to sum, which must be every account changed through this engine
+     *        for the total to be the bank's total.
+     * @return A long representing the total balance in cents.
+     */
+    public long totalBalance(Iterable<Account> accounts) {
+        return this.snapshot(null, balances -> {
+            long total = 0;
+            for (Account account : accounts) {
+                total += balances.applyAsLong(account);
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Runs a pass over accounts that reads their balances as they were at one instant, while
+     * balance changes carry on, in the same way as totalBalance. The pass may read balances from
+     * several threads, as long as it returns only once they have all finished.
+     * @param atInstant A Runnable to run at the instant itself, when no balance change is in
+     *        progress, or null.
+     * @param pass A function given the function reading an account's balance at the instant, in
+     *        cents, and returning the result of the pass.
+     * @return A long representing the result of the pass.
+     */
+    public long snapshot(Runnable atInstant, ToLongFunction<ToLongFunction<Account>> pass) {
+        this.snapshotLock.lock();
+        try {
+            // Start a new epoch, then wait for the changes of the old epoch still in flight
+            long old = this.epoch;
+            Snapshot snapshot = new Snapshot(old + 1);
+            this.snapshot = snapshot;
+            this.epoch = old + 1;
+            while (this.inFlight(old) != 0) {
+                Thread.yield();
+            }
+            try {
+                if (atInstant != null) {
+                    atInstant.run();
+                }
+            } finally {
+                snapshot.drained = true;
+            }
+
+            // A balance read before any change of the new epoch saved the account's balance is its
+            // balance at the snapshot, as such changes save the balance before making the change
+            try {
+                return pass.applyAsLong(account -> {
+                    long cents = account.getBalanceCents();
+                    Long saved = snapshot.balances.get(account.getID());
+                    return saved != null ? saved : cents;
+                });
+            } finally {
+                this.snapshot = null;
+            }
+        } finally {
+            this.snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Counts a balance change as in flight in the current epoch. If a snapshot has just started
+     * this epoch, waits for the changes of the previous epoch to finish first, which happens
+     * before any locks are taken so that those changes cannot be waiting on this one.
+     * @return A long representing the epoch the change is counted in, to pass to exit.
+     */
+    private long enter() {
+        int counter = this.counter();
+        long epoch;
+        while (true) {
+            epoch = this.epoch;
+            COUNTERS.getAndAdd(this.inFlight, counter + (int) (epoch & 1), 1L);
+            if (this.epoch == epoch) {
+                break;
+            }
+            COUNTERS.getAndAdd(this.inFlight, counter + (int) (epoch & 1), -1L);
+        }
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.epoch == epoch) {
+            while (!snapshot.drained) {
+                Thread.yield();
+            }
+        }
+        return epoch;
+    }
+
+    /**
+     * Counts a balance change begun with enter as finished.
+     * @param epoch The epoch enter returned.
+     */
+    private void exit(long epoch) {
+        COUNTERS.getAndAdd(this.inFlight, this.counter() + (int) (epoch & 1), -1L);
+    }
+
+    /**
+     * Saves an account's balance for the snapshot being summed, if there is one and the change
+     * about to be made started after it, unless the balance has already been saved.
+     * @param epoch The epoch of the change about to be made.
+     * @param account The Account about to be changed.
+     */
+    private void capture(long epoch, Account account) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.epoch == epoch) {
+            snapshot.balances.computeIfAbsent(account.getID(), id -> account.getBalanceCents());
+        }
+    }
+
+    /**
+     * Counts the balance changes in flight in an epoch, across every thread stripe.
+     * @param epoch The epoch to count changes in.
+     * @return A long representing the number of changes in flight.
+     */
+    private long inFlight(long epoch) {
+        long count = 0;
+        for (int i = 0; i <= this.counterMask; i++) {
+            count += (long) COUNTERS.getVolatile(this.inFlight, i * COUNTER_STRIDE + (int) (epoch & 1));
+        }
+        return count;
+    }
+
+    /**
+     * Gets the index of the calling thread's pair of in flight counters, which is the same on every call.
+     * @return An int representing the index of the counter for even epochs.
+     */
+    private int counter() {
+        int h = System.identityHashCode(Thread.currentThread());
+        return ((h ^ (h >>> 16)) & this.counterMask) * COUNTER_STRIDE;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Applies and logs a credit, debit or transfer without waiting for the log.
+     * @param type The type of change, which is a transfer, a credit or a debit.
+     * @param account The Account credited, debited or transferred from.
+     * @param recipient The Account transferred to, or null if the change is not a transfer.
+     * @param cents A long containing the amount in cents.
+     * @param counterparty A String containing the ID of the other party to log for a credit or
+     *        debit, or null.
+     * @param transferID A String containing the ID of the transfer to log, or null.
+     * @param lsn A long array whose first element is set to the log sequence number of the change's
+     *        record if it is applied and logged, or null.
+     * @param locking A boolean based on whether to lock the accounts' stripes as the other methods do.
+     * @return A Status representing the outcome of the change.
+     */
+    private Status apply(byte type, Account account, Account recipient, long cents, String counterparty,
+            String transferID, long[] lsn, boolean locking) {
+        boolean transfer = type == LogRecord.TRANSFER;
+        if (account == null || (transfer && recipient == null)) {
+            return Status.INVALID_ID;
+        } else if (cents < 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        TransactionLog log = this.log;
+        long epoch = this.enter();
+        try {
+            if (log != null) {
+                log.beginMutation();
+            }
+            try {
+                if (transfer) {
+                    Status status;
+                    if (locking) {
+                        status = this.lockedTransfer(epoch, account, recipient, cents);
+                    } else {
+                        this.capture(epoch, account);
+                        this.capture(epoch, recipient);
+                        status = applyTransfer(account, recipient, cents);
+                    }
+                    if (status != Status.OK) {
+                        return status;
+                    }
+                } else if (isDebit(type)) {
+                    boolean debited;
+                    if (locking) {
+                        debited = this.lockedDebit(epoch, account, cents);
+                    } else {
+                        this.capture(epoch, account);
+                        debited = account.tryDebit(cents);
+                    }
+                    if (!debited) {
+                        return Status.INSUFFICIENT_FUNDS;
+                    }
+                } else if (locking) {
+                    this.lockedCredit(epoch, account, cents);
+                } else {
+                    this.capture(epoch, account);
+                    account.credit(cents);
+                }
+                if (log != null) {
+                    long appended = log.append(type, account.getID(), transfer ? recipient.getID() : counterparty,
+                        cents, transferID);
+                    if (lsn != null) {
+                        lsn[0] = appended;
+                    }
+                }
+            } finally {
+                if (log != null) {
+                    log.endMutation();
+                }
+            }
+        } finally {
+            this.exit(epoch);
+        }
+        return Status.OK;
+    }
+
+    /**
+     * Returns whether a change of the given type credits an account.
+     * @param type The type of change.
+     * @return A boolean based on whether the change is a credit.
+     */
+    private static boolean isCredit(byte type) {
+        return type == LogRecord.DEPOSIT || type == LogRecord.INTEREST || type == LogRecord.RECEIVE
+            || type == LogRecord.SEND_ABORT;
+    }
+
+    /**
+     * Returns whether a change of the given type debits an account unless it would overdraw it.
+     * @param type The type of change.
+     * @return A boolean based on whether the change is a debit.
+     */
+    private static boolean isDebit(byte type) {
+        return type == LogRecord.WITHDRAW || type == LogRecord.SEND;
+    }
+
+    /**
+     * Moves the given amount from the sender to the recipient, holding the stripes of both
+     * accounts whose balances are not sharded unless this engine is lock-free.
+     * @param epoch The epoch the transfer is counted in.
+     * @param sender An Account to transfer from.
+     * @param recipient An Account to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A Status representing the outcome of the transfer.
+     */
+    private Status lockedTransfer(long epoch, Account sender, Account recipient, long cents) {
+        this.capture(epoch, sender);
+        this.capture(epoch, recipient);
+        if (this.lockFree || (sender.isSharded() && recipient.isSharded())) {
+            return applyTransfer(sender, recipient, cents);
+        }
+
+        // Lock stripes in a global order, standing in the other account's stripe for a sharded account
+        int first = this.stripeIndex(sender.isSharded() ? recipient : sender);
+        int second = this.stripeIndex(recipient.isSharded() ? sender : recipient);
+        if (first > second) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        this.stripes[first].lock();
+        if (second != first) {
+            this.stripes[second].lock();
+        }
+        try {
+            return applyTransfer(sender, recipient, cents);
+        } finally {
+            if (second != first) {
+                this.stripes[second].unlock();
+            }
+            this.stripes[first].unlock();
+        }
+    }
+
+    /**
+     * Credits the given amount to an account, holding its stripe unless its balance is sharded or
+     * this engine is lock-free.
+     * @param epoch The epoch the credit is counted in.
+     * @param account An Account to credit.
+     * @param cents A long containing the amount in cents to credit.
+     */
+    private void lockedCredit(long epoch, Account account, long cents) {
+        this.capture(epoch, account);
+        if (this.lockFree || account.isSharded()) {
+            account.credit(cents);
+            return;
+        }
+        ReentrantLock stripe = this.stripes[this.stripeIndex(account)];
+        stripe.lock();
+        try {
+            account.credit(cents);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Debits the given amount from an account unless it would overdraw the account, holding its
+     * stripe unless its balance is sharded or this engine is lock-free.
+     * @param epoch The epoch the debit is counted in.
+     * @param account An Account to debit.
+     * @param cents A long containing the amount in cents to debit.
+     * @return A boolean based on whether the account was debited.
+     */
+    private boolean lockedDebit(long epoch, Account account, long cents) {
+        this.capture(epoch, account);
+        if (this.lockFree || account.isSharded()) {
+            return account.tryDebit(cents);
+        }
+        ReentrantLock stripe = this.stripes[this.stripeIndex(account)];
+        stripe.lock();
+        try {
+            return account.tryDebit(cents);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Locks the stripes of the given accounts whose balances are not sharded in ascending stripe
+     * order, unless this engine is lock-free.
+     * @param accounts An array containing the accounts to lock.
+     * @param count The number of accounts to lock from the array.
+     * @return An int array of the indices of the stripes locked, in the order they were locked.
+     */
+    private int[] lockAll(Account[] accounts, int count) {
+        if (this.lockFree) {
+            return new int[0];
+        }
+        int[] indices = new int[count];
+        int locked = 0;
+        for (int i = 0; i < count; i++) {
+            if (!accounts[i].isSharded()) {
+                indices[locked++] = this.stripeIndex(accounts[i]);
+            }
+        }
+        Arrays.sort(indices, 0, locked);
+        int size = 0;
+        for (int i = 0; i < locked; i++) {
+            if (size == 0 || indices[i] != indices[size - 1]) {
+                indices[size++] = indices[i];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            this.stripes[indices[i]].lock();
+        }
+        return Arrays.copyOf(indices, size);
+    }
+
+    /**
+     * Gets the index of the lock stripe guarding the given account.
+     * @param account An Account to find the stripe of.
+     * @return An int representing the index of the account's stripe.
+     */
+    private int stripeIndex(Account account) {
+        int h = account.getID().hashCode();
+        h ^= (h >>> 16); // Spread high bits so similar IDs land on different stripes
+        return h & (this.stripes.length - 1);
+    }
+
+    /**
+     * Moves the given amount from the sender to the recipient without locking.
+     * @param sender An Account to transfer from.
+     * @param recipient An Account to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A Status representing the outcome of the transfer.
+     */
+    private static Status applyTransfer(Account sender, Account recipient, long cents) {
+        if (!sender.tryDebit(cents)) {
+            return Status.INSUFFICIENT_FUNDS;
+        }
+        recipient.credit(cents);
+        return Status.OK;
+    }
+
+    /**
+     * Applies net balance changes without locking, debiting before crediting so that a debit
+     * which would overdraw its account can be undone before any account has been credited.
+     * @param accounts An array containing the accounts whose balances change.
+     * @param deltas An array containing the net change of each account's balance in cents.
+     * @param count The number of accounts to change from the arrays.
+     * @return A boolean based on whether the changes were applied.
+     */
+    private static boolean applyNet(Account[] accounts, long[] deltas, int count) {
+        for (int i = 0; i < count; i++) {
+            if (deltas[i] < 0 && !accounts[i].tryDebit(-deltas[i])) {
+                // Undo the debits already made
+                for (int j = 0; j < i; j++) {
+                    if (deltas[j] < 0) {
+                        accounts[j].credit(-deltas[j]);
+                    }
+                }
+                return false;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (deltas[i] > 0) {
+                accounts[i].credit(deltas[i]);
+            }
+        }
+        return true;
+    }
+}
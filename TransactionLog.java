@@ -0,0 +1,692 @@
+/**
+ * Represents the bank's append-only write-ahead log of account mutations.
+ * Records are buffered and written with a single fsync per group of commits,
+ * and the log is split into numbered files so that files covered by a
+ * snapshot of the account data can be deleted.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class TransactionLog implements Closeable {
+
+    // Longest time a commit waits for others to join its group before the log is synced
+    public static final long FLUSH_MILLIS = Long.getLong("bank.wal.flushMillis", 2);
+
+    private static final int FLUSH_BYTES = 1 << 20;
+    private static final int MAX_RECORD_BYTES = 1 << 16;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Path base;
+    private int fileNumber;
+    private FileChannel channel;
+    private long fileBytes;
+
+    // Appends are ordered by appendLock; checkpoints exclude mutations with checkpointLock
+    private ReentrantLock appendLock;
+    private ReentrantReadWriteLock checkpointLock;
+    private ByteBuffer pending;
+    private ByteBuffer writing;
+    private long nextLsn;
+    private long appendedLsn;
+    private long lastTime;
+    private CRC32 crc;
+    private List<Consumer<LogRecord>> listeners;
+
+    // Writes to the file are ordered by flushLock; commits wait on flushMonitor, which also guards
+    // the commits waiting without a thread, in sequence order
+    private ReentrantLock flushLock;
+    private Object flushMonitor;
+    private PriorityQueue<Waiter> waiters;
+    private volatile long durableLsn;
+    private boolean flushRequested;
+    private boolean syncCommit;
+    private long syncs;
+    private Thread flusher;
+    private volatile boolean closed;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens the log whose files are named after the given base path, followed by .wal and a number.
+     * Records already in the log are not read; call replay before appending.
+     * @param basePath The file path the log's file names are based on.
+     */
+    public TransactionLog(String basePath) throws IOException {
+        this.base = Paths.get(basePath).toAbsolutePath();
+        this.appendLock = new ReentrantLock();
+        this.checkpointLock = new ReentrantReadWriteLock();
+        this.pending = ByteBuffer.allocate(FLUSH_BYTES * 2);
+        this.writing = ByteBuffer.allocate(FLUSH_BYTES * 2);
+        this.nextLsn = 1;
+        this.appendedLsn = 0;
+        this.lastTime = 0;
+        this.crc = new CRC32();
+        this.listeners = new CopyOnWriteArrayList<Consumer<LogRecord>>();
+        this.flushLock = new ReentrantLock();
+        this.flushMonitor = new Object();
+        this.waiters = new PriorityQueue<Waiter>();
+        this.durableLsn = 0;
+        this.syncCommit = true;
+        this.syncs = 0;
+
+        List<Integer> numbers = this.fileNumbers();
+        this.fileNumber = numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the sequence number of the last record appended.
+     * @return A long representing the last log sequence number.
+     */
+    public long getLastLsn() {
+        this.appendLock.lock();
+        try {
+            return this.appendedLsn;
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last record known to be on disk.
+     * @return A long representing the last durable log sequence number.
+     */
+    public long getDurableLsn() {
+        return this.durableLsn;
+    }
+
+    /**
+     * Gets the number of bytes appended to the current log file.
+     * @return A long representing the size of the current log file.
+     */
+    public long getFileBytes() {
+        this.appendLock.lock();
+        try {
+            return this.fileBytes + this.pending.position();
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of times the log has been synced to disk.
+     * @return A long representing the number of syncs.
+     */
+    public long getSyncs() {
+        synchronized (this.flushMonitor) {
+            return this.syncs;
+        }
+    }
+
+    /**
+     * Sets whether commit waits until the committed record is on disk. Without it, records
+     * reach disk within FLUSH_MILLIS, or when flush is called.
+     * @param syncCommit A boolean based on whether commits wait for disk.
+     */
+    public void setSyncCommit(boolean syncCommit) {
+        this.syncCommit = syncCommit;
+    }
+
+    /**
+     * Adds a listener to be passed every record appended from now on, in sequence order. Listeners
+     * are called while appends are blocked, so they must be quick and must not append.
+     * @param listener A Consumer of appended records.
+     */
+    public void addListener(Consumer<LogRecord> listener) {
+        this.listeners.add(listener);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Mutation Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Marks the start of a mutation, so that it is not split by a checkpoint. The mutation must be
+     * applied to the accounts and appended to the log before calling endMutation.
+     */
+    public void beginMutation() {
+        this.checkpointLock.readLock().lock();
+    }
+
+    /**
+     * Marks the end of a mutation begun with beginMutation.
+     */
+    public void endMutation() {
+        this.checkpointLock.readLock().unlock();
+    }
+
+    /**
+     * Appends a record to the log buffer, to be written by the next group commit.
+     * @param type The type of mutation, one of the constants of LogRecord.
+     * @param id A String containing the ID of the account mutated.
+     * @param recipientID A String containing the ID of a transfer's recipient, or null.
+     * @param cents The amount in cents deposited, withdrawn or transferred.
+     * @param credential A String containing an encoded credential, or null.
+     * @return A long representing the record's log sequence number.
+     */
+    public long append(byte type, String id, String recipientID, long cents, String credential) {
+        this.appendLock.lock();
+        try {
+            long lsn = this.nextLsn++;
+            long time = Math.max(this.lastTime, System.currentTimeMillis()); // Never goes backwards
+            this.add(lsn, time, type, id, recipientID, cents, credential, null);
+            return lsn;
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record copied from another log, such as the primary's log on a replica, keeping its
+     * sequence number and time, so that records appended after it continue the other log's numbering.
+     * Records must be copied in sequence order.
+     * @param record A LogRecord read from the other log.
+     */
+    public void copy(LogRecord record) {
+        this.appendLock.lock();
+        try {
+            this.nextLsn = record.getLsn() + 1;
+            this.add(record.getLsn(), record.getTime(), record.getType(), record.getID(),
+                record.getRecipientID(), record.getCents(), record.getCredential(), record);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a future completed once the record with the given sequence number is on disk, if
+     * commits are synchronous, without making the caller wait, so that one thread can have many
+     * commits in flight. The future is completed on the thread writing the log, so stages chained
+     * on it must be quick and must not wait for other commits.
+     * @param lsn The log sequence number of the record.
+     * @return A CompletableFuture completed once the record is durable.
+     */
+    public CompletableFuture<Void> commitAsync(long lsn) {
+        if (!this.syncCommit || this.durableLsn >= lsn) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        synchronized (this.flushMonitor) {
+            if (this.durableLsn < lsn && !this.closed) {
+                this.waiters.add(new Waiter(lsn, future));
+                this.flushRequested = true;
+                this.flushMonitor.notifyAll();
+                return future;
+            }
+        }
+        future.complete(null);
+        return future;
+    }
+
+    /**
+     * Waits until the record with the given sequence number is on disk, without asking for a sync,
+     * or until the given time has passed, so that records can be read as soon as they are durable.
+     * @param lsn The log sequence number of the record.
+     * @param millis The longest time to wait in milliseconds.
+     */
+    public void awaitDurable(long lsn, long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        synchronized (this.flushMonitor) {
+            while (this.durableLsn < lsn && !this.closed) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.flushMonitor, left);
+            }
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number is on disk, if commits are synchronous.
+     * Call this after releasing any locks, so that other commits can join the same group.
+     * @param lsn The log sequence number of the record.
+     * @return A boolean based on whether the record is on disk or commits are asynchronous. It is false
+     *         if the thread was interrupted while waiting, in which case the record may yet reach disk
+     *         but must not be acknowledged.
+     */
+    public boolean commit(long lsn) {
+        if (!this.syncCommit || this.durableLsn >= lsn) {
+            return true;
+        }
+        synchronized (this.flushMonitor) {
+            this.flushRequested = true;
+            this.flushMonitor.notifyAll();
+            while (this.durableLsn < lsn && !this.closed) {
+                try {
+                    this.flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes and syncs every record appended so far.
+     */
+    public void flush() throws IOException {
+        this.flushLock.lock();
+        try {
+            long upTo;
+            ByteBuffer buffer;
+            this.appendLock.lock();
+            try {
+                upTo = this.appendedLsn;
+                buffer = this.swapBuffers();
+            } finally {
+                this.appendLock.unlock();
+            }
+            this.write(buffer, upTo);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Checkpoint Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Blocks new mutations and waits for those in progress, so the accounts can be copied in a
+     * state matching getLastLsn.
+     */
+    public void lockCheckpoint() {
+        this.checkpointLock.writeLock().lock();
+    }
+
+    /**
+     * Allows mutations again after lockCheckpoint.
+     */
+    public void unlockCheckpoint() {
+        this.checkpointLock.writeLock().unlock();
+    }
+
+    /**
+     * Flushes the current log file and starts a new one. Must be called between lockCheckpoint
+     * and unlockCheckpoint.
+     */
+    public void rotate() throws IOException {
+        this.flushLock.lock();
+        try {
+            this.flush();
+            if (this.channel != null) {
+                this.channel.close();
+                this.channel = null;
+            }
+            this.fileNumber++;
+            this.fileBytes = 0;
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes every file of the log whose files are named after the given base path, such as before
+     * account data saved elsewhere replaces the data they were logged against.
+     * @param basePath The file path the log's file names are based on.
+     */
+    public static void delete(String basePath) throws IOException {
+        TransactionLog log = new TransactionLog(basePath);
+        for (int number : log.fileNumbers()) {
+            Files.deleteIfExists(log.fileOf(number));
+        }
+    }
+
+    /**
+     * Deletes every log file before the current one. Call this once a snapshot covering
+     * their records is safely on disk.
+     */
+    public void deleteRotated() throws IOException {
+        for (int number : this.fileNumbers()) {
+            if (number < this.fileNumber) {
+                Files.deleteIfExists(this.fileOf(number));
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Replay Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads every record in the log in order, passing those after the given sequence number to
+     * the handler, then starts group commits. A torn record at the end of a file, left by a crash
+     * while writing, ends that file.
+     * @param afterLsn The log sequence number already covered by the loaded snapshot.
+     * @param handler A Consumer applying each record to the accounts.
+     * @return An int representing the number of records passed to the handler.
+     */
+    public int replay(long afterLsn, Consumer<LogRecord> handler) throws IOException {
+        int replayed = 0;
+        long lastLsn = afterLsn;
+        for (int number : this.fileNumbers()) {
+            Path file = this.fileOf(number);
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                while (true) {
+                    LogRecord record = decode(in);
+                    if (record == null) {
+                        break;
+                    }
+                    lastLsn = Math.max(lastLsn, record.getLsn());
+                    this.lastTime = Math.max(this.lastTime, record.getTime());
+                    if (record.getLsn() > afterLsn) {
+                        handler.accept(record);
+                        replayed++;
+                    }
+                }
+            }
+        }
+
+        // Continue numbering after the last record, in a fresh file
+        this.nextLsn = lastLsn + 1;
+        this.appendedLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        if (Files.exists(this.fileOf(this.fileNumber))) {
+            this.fileNumber++;
+        }
+        this.start();
+        return replayed;
+    }
+
+    /**
+     * Stops group commits after writing every record appended.
+     */
+    @Override
+    public void close() throws IOException {
+        this.flushLock.lock();
+        try {
+            this.flush();
+            this.closed = true;
+            if (this.channel != null) {
+                this.channel.close();
+                this.channel = null;
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+        this.completeWaiters(Long.MAX_VALUE);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Encodes a record into the buffer, passes it to the listeners and requests a write once the
+     * buffer is large. Must hold appendLock.
+     * @param record The LogRecord being appended if it already exists, or null to create it for listeners.
+     */
+    private void add(long lsn, long time, byte type, String id, String recipientID, long cents, String credential,
+                     LogRecord record) {
+        this.encode(this.pending, lsn, time, type, id, recipientID, cents, credential);
+        this.appendedLsn = lsn;
+        this.lastTime = time;
+        if (!this.listeners.isEmpty()) {
+            if (record == null) {
+                record = new LogRecord(lsn, time, type, id, recipientID, cents, credential);
+            }
+            for (Consumer<LogRecord> listener : this.listeners) {
+                listener.accept(record);
+            }
+        }
+        if (this.pending.position() >= FLUSH_BYTES) {
+            this.requestFlush();
+        }
+    }
+
+    /**
+     * Starts the thread writing groups of records.
+     */
+    private void start() {
+        this.flusher = new Thread(() -> {
+            while (!this.closed) {
+                synchronized (this.flushMonitor) {
+                    if (!this.flushRequested) {
+                        try {
+                            this.flushMonitor.wait(FLUSH_MILLIS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    this.flushRequested = false;
+                }
+                try {
+                    // Let concurrent commits join the group before syncing
+                    this.flush();
+                } catch (IOException e) {
+                    System.out.println("Failed to write transaction log. Ending banking process");
+                    System.exit(0);
+                }
+            }
+        }, "transaction-log");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Signals the writing thread that a group is ready.
+     */
+    private void requestFlush() {
+        synchronized (this.flushMonitor) {
+            this.flushRequested = true;
+            this.flushMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Swaps the buffer being appended to with the empty one. Must hold appendLock.
+     * @return A ByteBuffer holding the records to write, ready for reading.
+     */
+    private ByteBuffer swapBuffers() {
+        ByteBuffer full = this.pending;
+        this.pending = this.writing;
+        this.writing = full;
+        full.flip();
+        return full;
+    }
+
+    /**
+     * Writes and syncs a buffer of records, then wakes the commits waiting for them. Must hold flushLock.
+     * @param buffer A ByteBuffer holding the records to write.
+     * @param upTo The sequence number of the last record in the buffer.
+     */
+    private void write(ByteBuffer buffer, long upTo) throws IOException {
+        boolean synced = false;
+        if (buffer.hasRemaining()) {
+            if (this.channel == null) {
+                this.channel = FileChannel.open(this.fileOf(this.fileNumber),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            this.fileBytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+            synced = true;
+        }
+        buffer.clear();
+        synchronized (this.flushMonitor) {
+            if (synced) {
+                this.syncs++;
+            }
+            if (upTo > this.durableLsn) {
+                this.durableLsn = upTo;
+            }
+        }
+        this.completeWaiters(this.durableLsn);
+    }
+
+    /**
+     * Represents a commit waiting without a thread for its record to reach disk.
+     */
+    private static class Waiter implements Comparable<Waiter> {
+        private long lsn;
+        private CompletableFuture<Void> future;
+
+        private Waiter(long lsn, CompletableFuture<Void> future) {
+            this.lsn = lsn;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            return Long.compare(this.lsn, other.lsn);
+        }
+    }
+
+    /**
+     * Wakes the commits waiting for records up to the given sequence number, completing the futures
+     * of those waiting without a thread once the monitor is released.
+     * @param upTo The log sequence number of the last record on disk, or Long.MAX_VALUE once closed.
+     */
+    private void completeWaiters(long upTo) {
+        List<CompletableFuture<Void>> done = null;
+        synchronized (this.flushMonitor) {
+            while (!this.waiters.isEmpty() && this.waiters.peek().lsn <= upTo) {
+                if (done == null) {
+                    done = new ArrayList<CompletableFuture<Void>>();
+                }
+                done.add(this.waiters.poll().future);
+            }
+            this.flushMonitor.notifyAll();
+        }
+        if (done != null) {
+            for (CompletableFuture<Void> future : done) {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Gets the path of the log file with the given number.
+     * @param number The number of the log file.
+     * @return A Path to the log file.
+     */
+    private Path fileOf(int number) {
+        return this.base.resolveSibling(this.base.getFileName() + ".wal." + number);
+    }
+
+    /**
+     * Lists the numbers of the existing log files in ascending order.
+     * @return A List of Integers representing the log file numbers.
+     */
+    private List<Integer> fileNumbers() throws IOException {
+        List<Integer> numbers = new ArrayList<Integer>();
+        String prefix = this.base.getFileName() + ".wal.";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.base.getParent(), prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    numbers.add(Integer.parseInt(file.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not a log file
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Encodes a record as its length, its body and a checksum of the body, growing the buffer if needed.
+     * Must hold appendLock.
+     */
+    private void encode(ByteBuffer buffer, long lsn, long time, byte type, String id, String recipientID,
+                        long cents, String credential) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] recipientBytes = recipientID == null ? new byte[0] : recipientID.getBytes(StandardCharsets.UTF_8);
+        byte[] credentialBytes = credential == null ? new byte[0] : credential.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 1 + 2 + idBytes.length + 2 + recipientBytes.length + 8 + 2 + credentialBytes.length;
+
+        if (buffer.remaining() < length + 8) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length + 8));
+            buffer.flip();
+            larger.put(buffer);
+            this.pending = larger;
+            buffer = larger;
+        }
+
+        buffer.putInt(length);
+        int start = buffer.position();
+        buffer.putLong(lsn);
+        buffer.putLong(time);
+        buffer.put(type);
+        buffer.putShort((short) idBytes.length).put(idBytes);
+        buffer.putShort((short) recipientBytes.length).put(recipientBytes);
+        buffer.putLong(cents);
+        buffer.putShort((short) credentialBytes.length).put(credentialBytes);
+
+        this.crc.reset();
+        this.crc.update(buffer.array(), start, length);
+        buffer.putInt((int) this.crc.getValue());
+    }
+
+    /**
+     * Decodes the next record.
+     * @param in A DataInputStream reading a log file.
+     * @return A LogRecord decoded from the stream, or null at the end of the file or at a torn record.
+     */
+    private static LogRecord decode(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            int checksum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            long lsn = buffer.getLong();
+            long time = buffer.getLong();
+            byte type = buffer.get();
+            String id = readString(buffer);
+            String recipientID = readString(buffer);
+            long cents = buffer.getLong();
+            String credential = readString(buffer);
+            return new LogRecord(lsn, time, type, id, recipientID.isEmpty() ? null : recipientID, cents,
+                credential.isEmpty() ? null : credential);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
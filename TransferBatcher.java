@@ -0,0 +1,256 @@
+/**
+ * Groups transfers into micro-batches that are each committed or rejected as a whole, isolated
+ * from other changes to the same accounts unless the engine is lock-free. The transfers in a batch are
+ * netted into one balance change per account, so opposing flows between the same accounts cancel
+ * out, and overdrafts are checked against the net change rather than transfer by transfer. A batch
+ * that would overdraw an account is split in half and each half retried, so only the transfers
+ * responsible are rejected while every committed batch is still all or nothing.
+ * @author Colby Tse
+ * @version 1.0
+ * @since 1.0
+ */
+
+import java.util.*;
+
+public class TransferBatcher {
+
+    // Number of transfers per batch, tunable with -Dbank.batch.transfers
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("bank.batch.transfers", 1024);
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Properties
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Bank bank;
+    private int capacity;
+    private int count;
+    private Account[] senders;
+    private Account[] recipients;
+    private long[] cents;
+    private Status[] statuses;
+    private Map<String, Integer> slots;
+    private long batches;
+    private long netted;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Constructors
+    //------------------------------------------------------------------------------------------------------------------
+
+    public TransferBatcher(Bank bank) {
+        this(bank, DEFAULT_CAPACITY);
+    }
+
+    public TransferBatcher(Bank bank, int capacity) {
+        this.bank = bank;
+        this.capacity = Math.max(1, capacity);
+        this.count = 0;
+        this.senders = new Account[this.capacity];
+        this.recipients = new Account[this.capacity];
+        this.cents = new long[this.capacity];
+        this.statuses = new Status[this.capacity];
+        this.slots = new HashMap<String, Integer>(4 * this.capacity);
+        this.batches = 0;
+        this.netted = 0;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Accessors and Mutators
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Gets the number of transfers waiting to be committed.
+     * @return An int representing the number of pending transfers.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Gets the number of batches committed, counting each half of a split batch separately.
+     * @return A long representing the number of batches committed.
+     */
+    public long getBatches() {
+        return this.batches;
+    }
+
+    /**
+     * Gets the number of balance changes saved by netting, compared with applying each transfer's
+     * debit and credit separately.
+     * @return A long representing the number of balance changes saved.
+     */
+    public long getNetted() {
+        return this.netted;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Core Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a transfer to the pending batch. Transfers that can never succeed are rejected when
+     * committed without affecting the rest of the batch.
+     * @param senderID A String containing the ID of the account to transfer from.
+     * @param recipientID A String containing the ID of the account to transfer to.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A boolean based on whether the transfer was added, or false if the batch is full.
+     */
+    public boolean offer(String senderID, String recipientID, long cents) {
+        return this.offer(this.bank.getAccount(senderID), this.bank.getAccount(recipientID), cents);
+    }
+
+    /**
+     * Adds a transfer between accounts already looked up to the pending batch.
+     * @param sender The Account to transfer from, or null if it does not exist.
+     * @param recipient The Account to transfer to, or null if it does not exist.
+     * @param cents A long containing the amount in cents to transfer.
+     * @return A boolean based on whether the transfer was added, or false if the batch is full.
+     */
+    public boolean offer(Account sender, Account recipient, long cents) {
+        if (this.count == this.capacity) {
+            return false;
+        }
+        int i = this.count++;
+        this.senders[i] = sender;
+        this.recipients[i] = recipient;
+        this.statuses[i] = null;
+        if (sender == null || recipient == null) {
+            this.statuses[i] = Status.INVALID_ID;
+        } else if (!Bank.isValidAmount(cents)) {
+            this.statuses[i] = Status.INVALID_AMOUNT;
+        } else {
+            this.cents[i] = cents;
+        }
+        return true;
+    }
+
+    /**
+     * Commits the pending transfers and starts a new batch.
+     * @return An array of Statuses representing the outcome of each pending transfer, in the order added.
+     */
+    public Status[] commit() {
+        int[] valid = new int[this.count];
+        int size = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (this.statuses[i] == null) {
+                valid[size++] = i;
+            }
+        }
+        this.commit(valid, 0, size);
+
+        Status[] statuses = Arrays.copyOf(this.statuses, this.count);
+        Arrays.fill(this.senders, 0, this.count, null);
+        Arrays.fill(this.recipients, 0, this.count, null);
+        this.count = 0;
+        return statuses;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Helper Functions
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Commits a range of transfers as a whole, first rejecting the latest transfers out of any
+     * account that the net effect of the range would overdraw at its current balance. If an
+     * account is still overdrawn because its balance changed concurrently, the range is split in
+     * half and each half committed instead.
+     * @param transfers An array containing the indices of the transfers.
+     * @param from The first position in the array to commit.
+     * @param to The position after the last to commit.
+     */
+    private void commit(int[] transfers, int from, int to) {
+        if (from == to) {
+            return;
+        }
+
+        // Net every transfer into one balance change per account
+        this.slots.clear();
+        Account[] accounts = new Account[2 * (to - from)];
+        long[] deltas = new long[accounts.length];
+        int[] senderSlots = new int[to - from];
+        int[] recipientSlots = new int[to - from];
+        int size = 0;
+        for (int t = from; t < to; t++) {
+            int i = transfers[t];
+            senderSlots[t - from] = this.slot(accounts, size, this.senders[i]);
+            size = Math.max(size, senderSlots[t - from] + 1);
+            recipientSlots[t - from] = this.slot(accounts, size, this.recipients[i]);
+            size = Math.max(size, recipientSlots[t - from] + 1);
+            deltas[senderSlots[t - from]] -= this.cents[i];
+            deltas[recipientSlots[t - from]] += this.cents[i];
+        }
+
+        // Reject transfers from the end until no account is overdrawn, which can take several passes
+        // as rejecting a transfer takes its amount away from the recipient too
+        long[] balances = new long[size];
+        for (int s = 0; s < size; s++) {
+            balances[s] = accounts[s].getBalanceCents();
+        }
+        boolean rejected = true;
+        while (rejected) {
+            rejected = false;
+            for (int t = to - 1; t >= from; t--) {
+                int i = transfers[t];
+                int sender = senderSlots[t - from];
+                if (this.statuses[i] == null && balances[sender] + deltas[sender] < 0) {
+                    deltas[sender] += this.cents[i];
+                    deltas[recipientSlots[t - from]] -= this.cents[i];
+                    this.statuses[i] = Status.INSUFFICIENT_FUNDS;
+                    rejected = true;
+                }
+            }
+        }
+        int end = from;
+        for (int t = from; t < to; t++) {
+            if (this.statuses[transfers[t]] == null) {
+                transfers[end++] = transfers[t];
+            }
+        }
+        int last = end;
+
+        Status status = this.bank.getEngine().transferNet(accounts, deltas, size, log -> {
+            long lsn = 0;
+            for (int t = from; t < last; t++) {
+                int i = transfers[t];
+                lsn = log.append(LogRecord.TRANSFER, this.senders[i].getID(), this.recipients[i].getID(),
+                    this.cents[i], null);
+            }
+            return lsn;
+        });
+        if (status == Status.OK) {
+            for (int t = from; t < end; t++) {
+                this.statuses[transfers[t]] = Status.OK;
+            }
+            this.batches++;
+            this.netted += 2L * (end - from);
+            for (int s = 0; s < size; s++) {
+                this.netted -= deltas[s] != 0 ? 1 : 0;
+            }
+        } else if (end - from == 1 || status != Status.INSUFFICIENT_FUNDS) {
+            // Only a concurrent overdraft is worth retrying in halves; a batch applied but not known
+            // to be on disk must not be, and a refused batch would be refused again
+            for (int t = from; t < end; t++) {
+                this.statuses[transfers[t]] = status;
+            }
+        } else {
+            int middle = (from + end) >>> 1;
+            this.commit(transfers, from, middle);
+            this.commit(transfers, middle, end);
+        }
+    }
+
+    /**
+     * Gets the slot holding an account's net balance change, giving the account a slot if it has none.
+     * @param accounts An array of the accounts with slots.
+     * @param size The number of slots in use.
+     * @param account The Account to find the slot of.
+     * @return An int representing the account's slot, which is size if the account is new.
+     */
+    private int slot(Account[] accounts, int size, Account account) {
+        Integer slot = this.slots.putIfAbsent(account.getID(), size);
+        if (slot == null) {
+            accounts[size] = account;
+            return size;
+        }
+        return slot;
+    }
+}
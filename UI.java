@@ -56,9 +56,8 @@ public class UI {
         if (this.getBank().getCurrentSession() == null) {
             System.out.println("[Not logged in]");
         } else {
-            System.out.println(String.format("[Logged in: %s, Current balance: $%,.2f]",
-                this.getBank().getCurrentSession().getID(),
-                this.getBank().getCurrentSession().getBalance()));
+            System.out.println("[Logged in: " + this.getBank().getCurrentSession().getID()
+                + ", Current balance: " + Money.display(this.getBank().getCurrentSession().getBalanceCents()) + "]");
         }
         System.out.println();
     }